@@ -55,6 +55,7 @@ public class AdminSetupPage {
             	adminList.add("admin");
             	User user=new User(userName, password, fullName, email, adminList, false);
                 int userId = databaseHelper.register(user);
+                databaseHelper.startSession(userId);
                 System.out.println("Administrator setup completed.");
                 
                 // Navigate to the Welcome Login Page
@@ -17,7 +17,6 @@ import javafx.stage.Stage;
 public class AnswerDraftPage {
 	
 	private DatabaseHelper databaseHelper;
-	private QuestionPage questionPage; // For refreshing when returning to question page
 	private int userId;
 	private int questionId;
 	private int answerIdToUpdate;
@@ -28,20 +27,16 @@ public class AnswerDraftPage {
 	private Label contentErrorLabel;
 	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
 	
-	public AnswerDraftPage(DatabaseHelper databaseHelper, QuestionPage questionPage, int userId, int questionId) {
+	public AnswerDraftPage(DatabaseHelper databaseHelper, int userId, int questionId) {
 		this.databaseHelper = databaseHelper;
-		this.questionPage = questionPage;
 		this.userId = userId;
 		this.questionId = questionId;
 		this.answerIdToUpdate = -1;
 	}
 	
-	public AnswerDraftPage(DatabaseHelper databaseHelper, QuestionPage questionPage, int userId, int questionId, int answerIdToUpdate) {
+	public AnswerDraftPage(DatabaseHelper databaseHelper, int userId, int questionId, int answerIdToUpdate) {
 		this.databaseHelper = databaseHelper;
-		this.questionPage = questionPage;
 		this.userId = userId;
 		this.questionId = questionId;
 		this.answerIdToUpdate = answerIdToUpdate;
@@ -49,8 +44,7 @@ public class AnswerDraftPage {
 	
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, null); // A draft opens nothing above it, so it is never dropped
 		
 		VBox layout = new VBox(10);
 	    layout.setStyle("-fx-alignment: center;");
@@ -190,14 +184,15 @@ public class AnswerDraftPage {
 					// Update answer
 					databaseHelper.updateAnswerContent(answerIdToUpdate, answer.getContent());
 					System.out.println("Updated answer!");
+					
+					// Back to question page, the AnswerEdited event shows the edit
+					backToQuestion();
 				} else {
-					// Post new answer
+					// Post new answer, the question page adds it when the AnswerAdded event arrives
 					databaseHelper.addAnswer(answer);
 					System.out.println("Posted answer!");
+					backToQuestion();
 				}
-				
-				// Back to question search page
-				backToQuestion();
 			} else {
 				// Set error message
 				contentErrorLabel.setText(errorMessage);
@@ -222,17 +217,13 @@ public class AnswerDraftPage {
 	}
 	
 	public void backToQuestion() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
 		 * style but that didn't work, it is most likely something that
 		 * is not worth fixing unless it causes errors down the road.
 		 */
-		
-		// Reload question page
-		questionPage.load();
 	}
 
 }
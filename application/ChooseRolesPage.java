@@ -71,6 +71,7 @@ public class ChooseRolesPage {
 				if (!usersRoles.isEmpty()) {
 					User user = new User(username, password, fullName, email, usersRoles, false);
 					int userId = databaseHelper.register(user);
+					databaseHelper.startSession(userId);
 					
 					new WelcomeLoginPage(databaseHelper, userId).show(primaryStage,user);
 				} else {
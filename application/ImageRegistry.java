@@ -0,0 +1,92 @@
+package application;
+
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javafx.scene.image.Image;
+
+/**
+ * The ImageRegistry class holds the icons the pages show. Each icon is decoded once,
+ * on a background thread, when the application starts, and every page shares the same
+ * Image (an Image cannot be changed once loaded), so opening a page decodes nothing.
+ * Pages get an icon with ImageRegistry.get.
+ */
+public class ImageRegistry {
+
+	/**
+	 * The icons in /images.
+	 */
+	public enum Icon {
+		STAR_UNFILLED("starUnfilled.png"),
+		STAR_FILLED("starFilled.png"),
+		UPVOTE_UNFILLED("upvoteUnfilled.png"),
+		UPVOTE_FILLED("upvoteFilled.png"),
+		DOWNVOTE_UNFILLED("downvoteUnfilled.png"),
+		DOWNVOTE_FILLED("downvoteFilled.png"),
+		EDIT("editIcon.png"),
+		TRASH("trashIcon.png"),
+		MESSAGE("messageIcon.png");
+
+		private final String fileName;
+
+		Icon(String fileName) {
+			this.fileName = fileName;
+		}
+	}
+
+	private static final Map<Icon, Image> images = new EnumMap<>(Icon.class);
+
+	// Start decoding every icon in the background, called at startup so no page waits for one
+	public static void preload() {
+		for (Icon icon : Icon.values()) {
+			get(icon);
+		}
+	}
+
+	// The shared image of an icon, an ImageView shows it as soon as it is decoded. null if the resource is missing
+	public static synchronized Image get(Icon icon) {
+		if (!images.containsKey(icon)) {
+			images.put(icon, load(icon));
+		}
+		return images.get(icon);
+	}
+
+	private static Image load(Icon icon) {
+		URL url = ImageRegistry.class.getResource("/images/" + icon.fileName);
+		if (url == null) {
+			System.out.println("*** Error *** Missing image /images/" + icon.fileName);
+			return null;
+		}
+		return new Image(url.toExternalForm(), true); // Decoded on a background thread
+	}
+
+	// Memory the decoded icons take, 4 bytes per pixel
+	public static synchronized long getDecodedBytes() {
+		long bytes = 0;
+		for (Image image : images.values()) {
+			if (isLoaded(image)) {
+				bytes += (long) image.getWidth() * (long) image.getHeight() * 4;
+			}
+		}
+		return bytes;
+	}
+
+	private static boolean isLoaded(Image image) {
+		return image != null && image.getProgress() >= 1 && !image.isError();
+	}
+
+	public static synchronized String report() {
+		int loaded = 0;
+		int failed = 0;
+		for (Image image : images.values()) {
+			if (isLoaded(image)) {
+				loaded++;
+			} else if (image == null || image.isError()) {
+				failed++;
+			}
+		}
+		return String.format("ImageRegistry[images=%d, loaded=%d, failed=%d, decoded=%.1fKB]",
+				images.size(), loaded, failed, getDecodedBytes() / 1024.0);
+	}
+}
@@ -47,7 +47,7 @@ public class InstructorHomePage {
 	    	new SetupLoginSelectionPage(databaseHelper).show(primaryStage);
 	    });
 
-	    layout.getChildren().addAll(instructorLabel, questionButton, roleRequestsButton, logoutButton);
+	    layout.getChildren().addAll(instructorLabel, UnreadBadge.forUser(databaseHelper, userId), questionButton, roleRequestsButton, logoutButton);
 	    Scene instructorScene = new Scene(layout, 800, 400);
 
 	    // Set the scene to primary stage
@@ -0,0 +1,64 @@
+package application;
+
+import javafx.beans.binding.Bindings;
+import javafx.beans.value.ObservableDoubleValue;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.VBox;
+
+/**
+ * The ListRowCell class is the base of the cells the pages' lists show their items in.
+ * A ListView makes about a screenful of cells and reuses them for whichever items scroll
+ * into view, so a cell builds its labels once, when it is made, and showing an item only
+ * sets their text and visibility. Lines wrap at the cell's own width, so a cell never
+ * listens to its list and nothing is left behind when the list drops it.
+ *
+ * @param <T> the type of the listed items
+ */
+public abstract class ListRowCell<T> extends ListCell<T> {
+
+	private static final double WRAP_INSET = 20; // Padding of the cell and its layout
+
+	protected final VBox layout = new VBox();
+
+	protected ListRowCell() {
+		setPrefWidth(0); // Take the list's width instead of the width of the longest line
+		layout.setStyle("-fx-alignment: top-left; -fx-padding: 5;");
+	}
+
+	// Add a line of text below the others, wrapped at the cell's width
+	protected Label addLine(String style) {
+		Label line = new Label();
+		line.setStyle(style);
+		line.setWrapText(true);
+		line.maxWidthProperty().bind(Bindings.subtract(lineWidth(), WRAP_INSET));
+		layout.getChildren().add(line);
+		return line;
+	}
+
+	// The width lines wrap at, the cell's own. Called as the lines are added, while the cell is made
+	protected ObservableDoubleValue lineWidth() {
+		return widthProperty();
+	}
+
+	// Set the cell's nodes to show an item, never null
+	protected abstract void show(T item);
+
+	@Override
+	protected void updateItem(T item, boolean empty) {
+		super.updateItem(item, empty);
+		if (empty || item == null) {
+			setGraphic(null);
+		} else {
+			show(item);
+			setGraphic(layout);
+		}
+	}
+
+	// Show or hide a node of the cell, a hidden node takes no space
+	protected static void setShown(Node node, boolean shown) {
+		node.setVisible(shown);
+		node.setManaged(shown);
+	}
+}
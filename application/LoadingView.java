@@ -0,0 +1,41 @@
+package application;
+
+import javafx.scene.Scene;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+
+/**
+ * The LoadingView class shows that a page is waiting on the database. The first
+ * load of a page shows a spinner scene, reloading a page that is already showing
+ * just disables it until the new contents are ready.
+ */
+public class LoadingView {
+
+	// Show the loading state for a page, returns true if the page was already showing
+	public static boolean show(Stage primaryStage, Scene pageScene, String message) {
+		if (pageScene != null && primaryStage.getScene() == pageScene) {
+			pageScene.getRoot().setDisable(true);
+			return true;
+		}
+
+		primaryStage.setScene(createScene(message));
+		return false;
+	}
+
+	// Create a scene with a spinner and a message
+	public static Scene createScene(String message) {
+		VBox layout = new VBox(10);
+		layout.setStyle("-fx-alignment: center; -fx-padding: 20;");
+
+		ProgressIndicator spinner = new ProgressIndicator();
+		spinner.setMaxSize(40, 40);
+
+		Label messageLabel = new Label(message);
+		messageLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: gray;");
+
+		layout.getChildren().addAll(spinner, messageLabel);
+		return new Scene(layout, 800, 400);
+	}
+}
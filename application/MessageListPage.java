@@ -1,12 +1,14 @@
 package application;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import database.DatabaseHelper;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -22,12 +24,12 @@ public class MessageListPage {
 	private int parentId;
 	
 	private List<Integer> commenters;
+	private Map<Integer, Integer> unreadMessages; // Unread messages from each commenter
+	private Map<Integer, String> commenterNames = new HashMap<>(); // Read with the commenters, not by each list cell
 	
 	private ListView<Integer> commenterList;
 	private HBox actionBar;
 	
-	private Scene previousScene;
-	private String previousTitle;
 	
 	public MessageListPage(DatabaseHelper databaseHelper, int userId, String parentType, int parentId) {
 		this.databaseHelper = databaseHelper;
@@ -36,9 +38,12 @@ public class MessageListPage {
 		this.parentId = parentId;
 	}
 	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId, String parentType, int parentId) {
+		return stage -> new MessageListPage(databaseHelper, userId, parentType, parentId).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId, parentType, parentId));
 		
     	VBox layout = new VBox();
 	    layout.setStyle("-fx-alignment: top-center; -fx-padding: 20;");
@@ -66,6 +71,13 @@ public class MessageListPage {
 	// Find commenters
 	public void searchCommenters() {
 		commenters = databaseHelper.getAllMessages(userId, parentType, parentId);
+		unreadMessages = databaseHelper.getUnreadMessagesByCommenter(userId, parentType, parentId);
+		for (int commenterId : commenters) {
+			if (!commenterNames.containsKey(commenterId)) {
+				UserLightweightDTO user = databaseHelper.getUser(commenterId);
+				commenterNames.put(commenterId, user == null ? "" : user.getUserName());
+			}
+		}
 		loadCommenters();
 	}
 	
@@ -103,27 +115,24 @@ public class MessageListPage {
 	
 	// Set custom cell factory format for listed requests
 	public void setRequestListCellFactory() {
-	    commenterList.setCellFactory(parameter -> new ListCell<Integer>() {
-	        @Override
-	        protected void updateItem(Integer id, boolean empty) {
-	            super.updateItem(id, empty);
-	            if (empty) {
-	                setGraphic(null);
-	            } else {
-	                // Create layout for each commenter
-	                VBox layout = new VBox();
-	                layout.setStyle("-fx-alignment: top-left; -fx-padding: 5;");
-
-	                // User Label
-	                UserLightweightDTO user = databaseHelper.getUser(id);
-	                Label userLabel = new Label(user.getUserName());
-	                userLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: bold;");
-
-	                layout.getChildren().addAll(userLabel);
-	                setGraphic(layout);
-	            }
-	        }
-	    });
+	    commenterList.setCellFactory(parameter -> new CommenterCell());
+	}
+	
+	/**
+	 * A row of the commenter list, the commenter's name and their unread messages if any.
+	 */
+	private class CommenterCell extends ListRowCell<Integer> {
+		private final Label userLabel = addLine("-fx-font-size: 12px; -fx-text-fill: bold;");
+		private final Label unreadLabel = addLine("-fx-font-size: 12px; -fx-text-fill: cornflowerblue;");
+		
+		@Override
+		protected void show(Integer id) {
+			userLabel.setText(commenterNames.getOrDefault(id, ""));
+			
+			int unread = unreadMessages.getOrDefault(id, 0);
+			setShown(unreadLabel, unread > 0);
+			unreadLabel.setText("Unread: " + unread);
+		}
 	}
 	
 	// Load commenters into commenter list
@@ -153,8 +162,7 @@ public class MessageListPage {
 		
 		Button backButton = new Button("Back");
 		backButton.setOnAction(a -> {
-			primaryStage.setScene(previousScene);
-			primaryStage.setTitle(previousTitle);
+			Router.of(primaryStage).back();
 		});
 		
 		actionBar.getChildren().addAll(spacer, backButton);
@@ -2,12 +2,15 @@ package application;
 
 import java.util.List;
 
+import java.util.function.Consumer;
+import java.util.function.Function;
+
 import database.DatabaseHelper;
+import database.QueryCancellation;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
@@ -15,8 +18,11 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 public class MyReviewsPage {
+	
+	private static final Duration SEARCH_DEBOUNCE = Duration.millis(250); // Pause in typing before searching
 
 	private DatabaseHelper databaseHelper;
 	private int userId;
@@ -25,14 +31,13 @@ public class MyReviewsPage {
 	private List<ReviewLightweightDTO> myReviews;
 	
 	private TextField searchBar;
+	private SearchPipeline<ReviewLightweightDTO> searchPipeline;
 	private ListView<ReviewLightweightDTO> reviewList;
 	private HBox actionBar;
 	
 	private String sort = "ORDER BY id DESC";
 	private String filter = "";
 	
-	private Scene previousScene;
-	private String previousTitle;
 	
 	public MyReviewsPage(DatabaseHelper databaseHelper, int userId, boolean canEdit) {
 		this.databaseHelper = databaseHelper;
@@ -40,9 +45,12 @@ public class MyReviewsPage {
 		this.canEdit = canEdit;
 	}
 	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId, boolean canEdit) {
+		return stage -> new MyReviewsPage(databaseHelper, userId, canEdit).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId, canEdit));
 		
     	VBox layout = new VBox();
 	    layout.setStyle("-fx-alignment: top-center; -fx-padding: 20;");
@@ -98,7 +106,10 @@ public class MyReviewsPage {
 	public TextField createSearchBar() {
 		searchBar = new TextField();
 		searchBar.setPromptText("Search...");
-		searchBar.setOnKeyReleased(a -> searchReviews());
+		searchPipeline = new SearchPipeline<>(databaseHelper, searchBar, SEARCH_DEBOUNCE, this::prepareSearch, DatabaseHelper::refineReviewSearch, (searchText, results) -> {
+			myReviews = results;
+			loadReviews();
+		});
 		
 		return searchBar;
 	}
@@ -172,26 +183,26 @@ public class MyReviewsPage {
 		searchReviews();
 	}
 	
-	// Find questions based on search bar input
+	// Find reviews based on search bar input right away, the list updates once they are loaded
 	public void searchReviews() {
-		String searchText = searchBar.getText().trim();
+		searchPipeline.refresh();
+	}
+	
+	// Get the query for the search bar input, run in the background by the search pipeline
+	private Function<DatabaseHelper, List<ReviewLightweightDTO>> prepareSearch(String searchText, QueryCancellation cancellation) {
+		String searchFilter = filter;
+		String searchSort = sort;
 		
-		if (searchBar.getText().trim().isEmpty()) { // Show all reviews
-			if (filter != "") {
-				myReviews = databaseHelper.getAllReviews(userId, filter + " " + sort);
+		if (searchText.isEmpty()) { // Show all reviews
+			if (searchFilter != "") {
+				return db -> db.getAllReviews(userId, searchFilter + " " + searchSort, cancellation);
 			} else {
-				myReviews = databaseHelper.getAllReviews(userId, sort);
+				return db -> db.getAllReviews(userId, searchSort, cancellation);
 			}
 		} else {
 			// Search using keywords
-			if (filter != "") {
-				myReviews = DatabaseHelper.searchReviews(userId, searchText, filter, sort);
-			} else {
-				myReviews = DatabaseHelper.searchReviews(userId, searchText, filter, sort); 
-			}
-	      }  
-	
-		loadReviews();
+			return db -> DatabaseHelper.searchReviews(userId, searchText, searchFilter, searchSort, cancellation);
+		}
 	}
 	
 	// Create the list view for all reviews
@@ -228,44 +239,19 @@ public class MyReviewsPage {
 	
 	// Set custom cell factory format for listed reviews
 	public void setReviewListCellFactory() {
-		reviewList.setCellFactory(parameter -> new ListCell<ReviewLightweightDTO>() {
-			@Override
-			protected void updateItem(ReviewLightweightDTO review, boolean empty) {
-				super.updateItem(review, empty);
-				if (empty || review == null) {
-					setGraphic(null);
-				} else {
-					// Create a layout for each question
-	                VBox layout = new VBox();
-	                layout.setStyle("-fx-alignment: top-left; -fx-padding: 5;");
-
-	                // Content Label
-	                Label contentLabel = new Label(review.getContent());
-	                contentLabel.setStyle("-fx-font-size: 14px;");
-	                contentLabel.setWrapText(true);
-	                contentLabel.setPrefWidth(reviewList.getWidth() - 40);
-
-	                // Wrap text (this is the only work around I found because wrapping the text like normal doesn't work well for a ListView)
-	                reviewList.widthProperty().addListener((observable, oldValue, newValue) -> {
-	                	contentLabel.setPrefWidth(newValue.doubleValue() - 40); // Adjust width based on the ListView width minus padding
-	                });
-
-	                /* User Label // THIS COULD BE CONVERTED TO MESSAGE COUNT LATER
-	                Label userLabel = new Label("Author: " + databaseHelper.getQuestionUsername(question.getQuestionId())); // Display username of who created the question
-	                userLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: gray;");
-	                userLabel.setWrapText(true);
-	                userLabel.setPrefWidth(questionList.getWidth() - 40);*/
-
-	                /* Wrap text (this is the only work around I found because wrapping the text like normal doesn't work well for a ListView)
-	                reviewList.widthProperty().addListener((observable, oldValue, newValue) -> {
-	                	userLabel.setPrefWidth(newValue.doubleValue() - 40); // Adjust width based on the ListView width minus padding
-	                });*/
-	                
-	                layout.getChildren().addAll(contentLabel);
-	                setGraphic(layout);
-				}
-			}
-		});
+		reviewList.setCellFactory(parameter -> new ReviewCell());
+	}
+	
+	/**
+	 * A row of the review list, the review's content.
+	 */
+	private static class ReviewCell extends ListRowCell<ReviewLightweightDTO> {
+		private final Label contentLabel = addLine("-fx-font-size: 14px;");
+		
+		@Override
+		protected void show(ReviewLightweightDTO review) {
+			contentLabel.setText(review.getContent());
+		}
 	}
 	
 	// Load questions into question list
@@ -301,8 +287,7 @@ public class MyReviewsPage {
 		
 		Button backButton = new Button("Back to home");
 		backButton.setOnAction(a -> {
-			primaryStage.setScene(previousScene);
-			primaryStage.setTitle(previousTitle);
+			Router.of(primaryStage).back();
 		});
 		
 		actionBar.getChildren().addAll(spacer, backButton);
@@ -0,0 +1,111 @@
+package application;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import database.DatabaseHelper;
+import database.QueryCancellation;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.util.Callback;
+
+/**
+ * The PagedList class fills a ListView one page at a time. The first page is shown as
+ * soon as it is read, and the page after it is read in the background once the user
+ * scrolls to within a few rows of the end. Opening a list of a million questions costs
+ * the same as opening a list of a hundred, and only the pages scrolled through are kept.
+ *
+ * @param <T> the type of the listed items
+ */
+public class PagedList<T> {
+
+	/**
+	 * Reads the page after an item.
+	 */
+	public interface PageLoader<T> {
+		// Called on the JavaFX Application Thread, returns the query to run in the background
+		Function<DatabaseHelper, List<T>> prepare(T last, QueryCancellation cancellation);
+	}
+
+	private static final int PREFETCH_ROWS = 20; // Start reading the next page this many rows before the end
+
+	private final DatabaseHelper databaseHelper;
+	private final ListView<T> listView;
+	private final int pageSize;
+
+	private PageLoader<T> loader; // null once there is nothing more to read
+	private Predicate<? super T> filter; // Items of a read page to add, null to add them all
+	private QueryCancellation loading; // The page being read, null if none is
+	private int showCount = 0; // Lets a page read for an older list be ignored
+
+	// Call once the list view has its cell factory, the cells it makes are watched to tell when the end is near
+	public PagedList(DatabaseHelper databaseHelper, ListView<T> listView, int pageSize) {
+		this.databaseHelper = databaseHelper;
+		this.listView = listView;
+		this.pageSize = pageSize;
+
+		Callback<ListView<T>, ListCell<T>> cellFactory = listView.getCellFactory();
+		listView.setCellFactory(view -> {
+			ListCell<T> cell = cellFactory.call(view);
+			cell.indexProperty().addListener((observable, oldIndex, index) -> {
+				if (index.intValue() >= listView.getItems().size() - PREFETCH_ROWS) {
+					loadNextPage();
+				}
+			});
+			return cell;
+		});
+	}
+
+	// Show a new list starting with its first page, pass a null loader if the list is already complete
+	public void show(List<T> firstPage, PageLoader<T> loader) {
+		showCount++;
+		if (loading != null) {
+			loading.cancel();
+			loading = null;
+		}
+
+		this.loader = firstPage.size() < pageSize ? null : loader;
+		listView.getItems().setAll(firstPage);
+		listView.scrollTo(0);
+	}
+
+	// Only add the items of later pages that pass the filter, for items the list already shows
+	// out of order (e.g. pinned at the top). Checked when a page arrives
+	public void setFilter(Predicate<? super T> filter) {
+		this.filter = filter;
+	}
+	
+	// Whether every page has been read, so an item that belongs at the end can be added there
+	public boolean isComplete() {
+		return loader == null;
+	}
+	
+	private void loadNextPage() {
+		List<T> items = listView.getItems();
+		if (loader == null || loading != null || items.isEmpty()) {
+			return;
+		}
+
+		int count = showCount;
+		QueryCancellation cancellation = new QueryCancellation();
+		loading = cancellation;
+
+		databaseHelper.async().supply(loader.prepare(items.get(items.size() - 1), cancellation)).thenAccept(page -> {
+			if (count != showCount) {
+				return; // A new list is showing
+			}
+			loading = null;
+			if (page.size() < pageSize) {
+				loader = null; // That was the last page
+			}
+			items.addAll(filter == null ? page : page.stream().filter(filter).collect(Collectors.toList()));
+		}).exceptionally(e -> {
+			if (count == showCount) {
+				loading = null; // Try again on the next scroll
+			}
+			return null;
+		});
+	}
+}
@@ -1,6 +1,8 @@
 package application;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import database.DatabaseHelper;
 
@@ -30,13 +32,14 @@ public class PrivateMessagePage {
 	private int parentId;
 	
 	private final int MAX_CONTENT_SIZE = 65535;
+	private static final int MESSAGE_PAGE_SIZE = 50; // Messages read at a time, the latest first
 
 	private TextArea contentField;
 	private Label contentErrorLabel;
 	
+	private MessagePageData data;
+	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
 	
 	public PrivateMessagePage(DatabaseHelper databaseHelper, int userId, int authorId, int commenterId, int parentId, String parentType) {
 		this.databaseHelper = databaseHelper;
@@ -47,11 +50,70 @@ public class PrivateMessagePage {
 		this.parentType = parentType;
 	}
 	
+	/**
+	 * Everything the page shows, loaded together in the background.
+	 */
+	private static class MessagePageData {
+		private String parentTitle; // Only set for questions
+		private String parentContent; // Question description, answer or review content
+		private String parentAuthorName;
+		private String authorName;
+		private String commenterName;
+		private int conversationId; // -1 until the first message is sent
+		private List<PrivateMessageLightweightDTO> messages; // Oldest first
+		private boolean hasEarlier; // Messages before the first one shown may not have been read yet
+	}
+	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId, int authorId, int commenterId, int parentId, String parentType) {
+		return stage -> new PrivateMessagePage(databaseHelper, userId, authorId, commenterId, parentId, parentType).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId, authorId, commenterId, parentId, parentType));
 		
+		// Load in the background, showing the page as loading until the messages arrive
+		LoadingView.show(primaryStage, null, "Loading messages...");
+		databaseHelper.async().supply(this::fetch).thenAccept(pageData -> {
+			data = pageData;
+			display();
+		});
+	}
+	
+	// Runs in the background, so it only uses the database
+	private MessagePageData fetch(DatabaseHelper db) {
+		MessagePageData pageData = new MessagePageData();
+		
+		// Opening the conversation reads everything sent to the user in it
+		db.markMessagesRead(userId, authorId, commenterId, parentType, parentId);
+		
+		if (parentType == "question") {
+			pageData.parentTitle = db.getQuestionTitle(parentId);
+			pageData.parentContent = db.getQuestionDescription(parentId);
+			pageData.parentAuthorName = db.getQuestionUsername(parentId);
+		} else if (parentType == "answer") {
+			pageData.parentContent = db.getAnswerContent(parentId);
+			pageData.parentAuthorName = db.getAnswerUsername(parentId);
+		} else if (parentType == "review") {
+			pageData.parentContent = db.getReviewContent(parentId);
+			pageData.parentAuthorName = db.getReviewUsername(parentId);
+		}
+		
+		UserLightweightDTO author = db.getUser(authorId);
+		UserLightweightDTO commenter = db.getUser(commenterId);
+		pageData.authorName = author == null ? "" : author.getUserName();
+		pageData.commenterName = commenter == null ? "" : commenter.getUserName();
+		
+		// Only the latest page of the conversation, earlier pages are read when asked for
+		pageData.conversationId = db.getConversationId(authorId, commenterId, parentType, parentId);
+		pageData.messages = pageData.conversationId == -1 ? new ArrayList<>()
+				: db.getPrivateMessagesBefore(pageData.conversationId, Integer.MAX_VALUE, MESSAGE_PAGE_SIZE);
+		pageData.hasEarlier = pageData.messages.size() == MESSAGE_PAGE_SIZE;
+		return pageData;
+	}
+	
+	// Builds the screen from the loaded contents
+	public void display() {
 		VBox layout = new VBox(10);
 	    layout.setStyle("-fx-alignment: center;");
 	    
@@ -98,7 +160,7 @@ public class PrivateMessagePage {
 		questionDisplay.setSpacing(5);
 		
 		// Title
-		Label title = new Label(databaseHelper.getQuestionTitle(parentId));
+		Label title = new Label(data.parentTitle);
 	    title.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
 	    title.setWrapText(true);
 	    title.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
@@ -116,7 +178,7 @@ public class PrivateMessagePage {
 	    questionDisplay.getChildren().add(new Separator());
 	    
 	    // Description
-	    Label description = new Label(databaseHelper.getQuestionDescription(parentId));
+	    Label description = new Label(data.parentContent);
 	    description.setStyle("-fx-font-size: 16px;");
 	    description.setWrapText(true);
 	    description.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
@@ -127,7 +189,7 @@ public class PrivateMessagePage {
 	
 	public void formatQuestionInfo(VBox info) {
 		// Add Author
-		Label author = new Label(databaseHelper.getQuestionUsername(parentId));
+		Label author = new Label(data.parentAuthorName);
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
 		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
@@ -150,7 +212,7 @@ public class PrivateMessagePage {
 	    messageDisplay.getChildren().add(new Separator());
 	    
 	    // Content
-	    Label content = new Label(databaseHelper.getAnswerContent(parentId));
+	    Label content = new Label(data.parentContent);
 	    content.setStyle("-fx-font-size: 16px;");
 	    content.setWrapText(true);
 	    content.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
@@ -161,7 +223,7 @@ public class PrivateMessagePage {
 	
 	public void formatAnswerInfo(VBox info) {
 		// Add Author
-		Label author = new Label(databaseHelper.getAnswerUsername(authorId));
+		Label author = new Label(data.parentAuthorName);
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
 		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
@@ -184,7 +246,7 @@ public class PrivateMessagePage {
 	    reviewDisplay.getChildren().add(new Separator());
 	    
 	    // Content
-	    Label content = new Label(databaseHelper.getReviewContent(parentId));
+	    Label content = new Label(data.parentContent);
 	    
 	    content.setStyle("-fx-font-size: 16px;");
 	    content.setWrapText(true);
@@ -198,7 +260,7 @@ public class PrivateMessagePage {
 	
 	public void formatReviewInfo(VBox info) {
 		// Add Author
-		Label author = new Label(databaseHelper.getReviewUsername(parentId));
+		Label author = new Label(data.parentAuthorName);
 		// Label author = new Label("author test");
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
@@ -267,19 +329,32 @@ public class PrivateMessagePage {
 			
 			String errorMessage = PrivateMessage.validate(pm);
 			if (errorMessage == "") {
+				postButton.setDisable(true);
 				
-					// Post new answer
-					databaseHelper.addPrivateMessage(pm);
+				// Post new message in the background, then read the messages sent since the last one shown
+				int lastShownId = data.messages.isEmpty() ? 0 : data.messages.get(data.messages.size() - 1).getMessageId();
+				databaseHelper.async().supply(db -> {
+					db.addPrivateMessage(pm);
+					MessagePageData update = new MessagePageData(); // Only the conversation and its new messages
+					update.conversationId = db.getConversationId(authorId, commenterId, parentType, parentId);
+					update.messages = db.getPrivateMessagesAfter(update.conversationId, lastShownId);
+					return update;
+				}).whenComplete((update, e) -> {
+					postButton.setDisable(false);
+					if (update == null) {
+						return;
+					}
 					System.out.println("Sent message!");
 					
 					// Remove text from field
 					contentField.clear();
-				
-				// Display message as sent
-				// StackPane newMessage = messageIcon(messageContent);
-				parent.getChildren().remove(2); // should be messageDisplay
-				parent.getChildren().add(2, formatMessage(parent));
-				// databaseHelper.setMessageUnreadFlag(commenterId);
+					
+					// Display message as sent
+					// StackPane newMessage = messageIcon(messageContent);
+					data.conversationId = update.conversationId;
+					data.messages.addAll(update.messages);
+					refreshMessages(parent);
+				});
 			} else {
 				// Set error message
 				contentErrorLabel.setText(errorMessage);
@@ -307,7 +382,7 @@ public class PrivateMessagePage {
 	    messageDisplay.setStyle("-fx-alignment: top-left; -fx-padding: 0px;");
 	    messageDisplay.setSpacing(5);
 		
-		List<PrivateMessageLightweightDTO> messageList = databaseHelper.getAllPrivateMessages(authorId, commenterId, parentType, parentId);
+		List<PrivateMessageLightweightDTO> messageList = data.messages;
 		
 		
 		// Check if answer exists
@@ -318,6 +393,25 @@ public class PrivateMessagePage {
 			return messageDisplay;
 		}
 		
+		// Read the page before the first message shown
+		if (data.hasEarlier) {
+			Button earlierButton = new Button("Show earlier messages");
+			earlierButton.setOnAction(a -> {
+				earlierButton.setDisable(true);
+				int firstShownId = messageList.get(0).getMessageId();
+				databaseHelper.async().supply(db -> db.getPrivateMessagesBefore(data.conversationId, firstShownId, MESSAGE_PAGE_SIZE)).whenComplete((page, e) -> {
+					if (page == null) {
+						earlierButton.setDisable(false);
+						return;
+					}
+					data.messages.addAll(0, page);
+					data.hasEarlier = page.size() == MESSAGE_PAGE_SIZE;
+					refreshMessages(parent);
+				});
+			});
+			messageDisplay.getChildren().addAll(earlierButton, new Separator());
+		}
+		
 		
 	    
 		for (int i = 0; i < messageList.size(); i++) {
@@ -340,8 +434,14 @@ public class PrivateMessagePage {
 	    return messageDisplay;
 	}
 	
+	// Replace the shown messages after data.messages changed
+	private void refreshMessages(VBox parent) {
+		parent.getChildren().remove(2); // should be messageDisplay
+		parent.getChildren().add(2, formatMessage(parent));
+	}
+	
 	public void formatMessageInfo(VBox info, PrivateMessageLightweightDTO message) {
-	    String username = databaseHelper.getUser(message.isByAuthor() ? authorId : commenterId).getUserName();
+	    String username = message.isByAuthor() ? data.authorName : data.commenterName;
 
 	    // Author
 	    Label author = new Label(username);
@@ -369,8 +469,7 @@ public class PrivateMessagePage {
 	}
 	
 	public void backToQuestion() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
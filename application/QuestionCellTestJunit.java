@@ -0,0 +1,185 @@
+package application;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableDoubleValue;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+
+/**
+ * Shows question after question in one list cell, the way a ListView reuses it while scrolling,
+ * and checks the cell keeps its nodes and only changes what they show. Needs the JavaFX toolkit,
+ * so it is skipped where there is no display.
+ */
+class QuestionCellTestJunit {
+
+	private static final int USER_ID = 1;
+	private static final int SCROLL_UPDATES = 100_000;
+	private static final long HEAP_GROWTH_LIMIT = 16 * 1024 * 1024; // Coarse, a listener or node per update would pass it
+
+	private static boolean toolkitStarted = false;
+
+	@BeforeAll
+	public static void startToolkit() {
+		try {
+			Platform.startup(() -> {});
+			toolkitStarted = true;
+		} catch (IllegalStateException e) {
+			toolkitStarted = true; // Already started by another test
+		} catch (RuntimeException | UnsatisfiedLinkError e) {
+			System.out.println("No JavaFX toolkit, skipping list cell tests: " + e.getMessage());
+		}
+	}
+
+	// Every third question is the user's own, so the unread line is shown and hidden from one to the next
+	private static QuestionLightweightDTO question(int id) {
+		return new QuestionLightweightDTO(id, id % 3 == 0 ? USER_ID : USER_ID + 1, "Question " + id, "author" + id, id % 2 == 0, id % 5, id % 7);
+	}
+
+	@Test
+	public void reusesNodesAcrossItemsTest() {
+		assumeTrue(toolkitStarted);
+		QuestionSearchPage.QuestionCell cell = new QuestionSearchPage.QuestionCell(USER_ID);
+		cell.updateItem(question(1), false);
+		Node graphic = cell.getGraphic();
+		List<Node> lines = new ArrayList<>(cell.layout.getChildren());
+
+		for (int id = 2; id <= 100; id++) {
+			QuestionLightweightDTO question = question(id);
+			cell.updateItem(question, false);
+
+			assertSame(graphic, cell.getGraphic());
+			assertEquals(lines.size(), cell.layout.getChildren().size());
+			for (int i = 0; i < lines.size(); i++) {
+				assertSame(lines.get(i), cell.layout.getChildren().get(i));
+			}
+
+			assertEquals(question.getTitle(), ((Label) lines.get(0)).getText());
+			boolean unreadShown = question.getUserId() == USER_ID && !question.isResolved();
+			assertEquals(unreadShown, lines.get(2).isVisible());
+			if (unreadShown) {
+				assertEquals("Unread: " + question.getUnreadCount(), ((Label) lines.get(2)).getText());
+			}
+		}
+	}
+
+	/*
+	 * The width the cell's lines wrap at, counting the listeners on it. Lines used to wrap at the
+	 * list's width through a listener added on every update, so listeners piled up while scrolling.
+	 */
+	private static class CountingWidth implements ObservableDoubleValue {
+		private final ObservableDoubleValue width;
+		private int listeners = 0;
+
+		private CountingWidth(ObservableDoubleValue width) {
+			this.width = width;
+		}
+
+		@Override public double get() { return width.get(); }
+		@Override public int intValue() { return width.intValue(); }
+		@Override public long longValue() { return width.longValue(); }
+		@Override public float floatValue() { return width.floatValue(); }
+		@Override public double doubleValue() { return width.doubleValue(); }
+		@Override public Number getValue() { return width.getValue(); }
+
+		@Override
+		public void addListener(InvalidationListener listener) {
+			listeners++;
+			width.addListener(listener);
+		}
+
+		@Override
+		public void removeListener(InvalidationListener listener) {
+			listeners--;
+			width.removeListener(listener);
+		}
+
+		@Override
+		public void addListener(ChangeListener<? super Number> listener) {
+			listeners++;
+			width.addListener(listener);
+		}
+
+		@Override
+		public void removeListener(ChangeListener<? super Number> listener) {
+			listeners--;
+			width.removeListener(listener);
+		}
+	}
+
+	private static class CountingQuestionCell extends QuestionSearchPage.QuestionCell {
+		private CountingWidth width; // Made when the first line is added, before this class's fields are set
+
+		private CountingQuestionCell() {
+			super(USER_ID);
+		}
+
+		@Override
+		protected ObservableDoubleValue lineWidth() {
+			if (width == null) {
+				width = new CountingWidth(super.lineWidth());
+			}
+			return width;
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	// Scroll a cell through 100k questions, the listeners on its width and the heap stay flat
+	@Test
+	public void scrollingStaysFlatTest() {
+		assumeTrue(toolkitStarted);
+		ListView<QuestionLightweightDTO> list = new ListView<>();
+		CountingQuestionCell cell = new CountingQuestionCell();
+		cell.updateListView(list);
+		cell.updateItem(question(1), false);
+		int listeners = cell.width.listeners;
+		assertEquals(cell.layout.getChildren().size(), listeners); // One binding per line
+
+		for (int id = 2; id <= 1000; id++) { // Warm up before measuring
+			cell.updateItem(question(id), false);
+		}
+		long heapBefore = usedHeap();
+		for (int id = 1; id <= SCROLL_UPDATES; id++) {
+			cell.updateItem(id % 50 == 0 ? null : question(id), id % 50 == 0);
+		}
+		long heapGrowth = usedHeap() - heapBefore;
+
+		assertEquals(listeners, cell.width.listeners);
+		assertTrue(heapGrowth < HEAP_GROWTH_LIMIT, "Heap grew by " + heapGrowth + " bytes");
+	}
+
+	@Test
+	public void emptyCellClearsTest() {
+		assumeTrue(toolkitStarted);
+		QuestionSearchPage.QuestionCell cell = new QuestionSearchPage.QuestionCell(USER_ID);
+		cell.updateItem(question(3), false);
+		Node graphic = cell.getGraphic();
+		assertNotNull(graphic);
+
+		// Scrolled past the end of the list
+		cell.updateItem(null, true);
+		assertNull(cell.getGraphic());
+		assertNull(cell.getText());
+
+		// Shown again, with the same nodes
+		cell.updateItem(question(4), false);
+		assertSame(graphic, cell.getGraphic());
+		assertEquals("Question 4", ((Label) cell.layout.getChildren().get(0)).getText());
+	}
+}
@@ -17,8 +17,6 @@ import javafx.stage.Stage;
 public class QuestionDraftPage {
 	
 	private DatabaseHelper databaseHelper;
-	private QuestionSearchPage searchPage; // For refreshing when returning to search page
-	private QuestionPage questionPage; // For reloading the question page
 	private int userId;
 	private int parentQuestionId;
 	private int questionIdToUpdate;
@@ -32,22 +30,16 @@ public class QuestionDraftPage {
 	private Label descriptionErrorLabel;
 	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
 	
-	public QuestionDraftPage(DatabaseHelper databaseHelper, QuestionSearchPage searchPage, int userId, int parentQuestionId) {
+	public QuestionDraftPage(DatabaseHelper databaseHelper, int userId, int parentQuestionId) {
 		this.databaseHelper = databaseHelper;
-		this.searchPage = searchPage;
-		this.questionPage = null;
 		this.userId = userId;
 		this.parentQuestionId = parentQuestionId;
 		this.questionIdToUpdate = -1;
 	}
 	
-	public QuestionDraftPage(DatabaseHelper databaseHelper, QuestionSearchPage searchPage, QuestionPage questionPage, int userId, int parentQuestionId, int questionIdToUpdate) {
+	public QuestionDraftPage(DatabaseHelper databaseHelper, int userId, int parentQuestionId, int questionIdToUpdate) {
 		this.databaseHelper = databaseHelper;
-		this.searchPage = searchPage;
-		this.questionPage = questionPage;
 		this.userId = userId;
 		this.parentQuestionId = parentQuestionId;
 		this.questionIdToUpdate = questionIdToUpdate;
@@ -55,8 +47,7 @@ public class QuestionDraftPage {
 
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, null); // A draft opens nothing above it, so it is never dropped
 		
 		VBox layout = new VBox(5);
 	    layout.setStyle("-fx-alignment: center; -fx-padding: 20;");
@@ -182,8 +173,7 @@ public class QuestionDraftPage {
 			if (errorMessage == "") {
 				if (questionIdToUpdate != -1) {
 					// Update question
-					databaseHelper.updateQuestionTitle(questionIdToUpdate, question.getTitle());
-					databaseHelper.updateQuestionDescription(questionIdToUpdate, question.getDescription());
+					databaseHelper.updateQuestion(questionIdToUpdate, question.getTitle(), question.getDescription());
 					System.out.println("Updated question!");
 				} else {
 					// Post new question
@@ -191,13 +181,8 @@ public class QuestionDraftPage {
 					System.out.println("Posted question!");
 				}
 				
-				// Back to question search page
+				// Back to the page the draft was opened from, the search and question pages update from the question events
 				backToSearch();
-				
-				if (questionPage != null) {
-					// Reload question page
-					questionPage.load();
-				}
 			} else {
 				// Clear previous errors
 				titleErrorLabel.setText("");
@@ -230,17 +215,13 @@ public class QuestionDraftPage {
 	}
 	
 	public void backToSearch() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
 		 * style but that didn't work, it is most likely something that
 		 * is not worth fixing unless it causes errors down the road.
 		 */
-		
-		// Reload search page
-		searchPage.searchQuestions();
 	}
 	
 }
@@ -6,20 +6,37 @@ package application;
  * allow less memory intensive queries. This will specifically be used 
  * for instances where we don't want to get the actual description of the 
  * question, for example, when we want a list of all the question titles 
- * for displaying.
+ * for displaying. Search results also carry the author name, resolved flag,
+ * unread count and answer count so list cells never query the database.
  */
 public class QuestionLightweightDTO {
 	private int questionId;
 	private int userId;
 	private String title;
+	private String authorName;
+	private boolean resolved;
+	private int unreadCount; // Unread potential answers for the author
+	private int answerCount;
 	
 	public QuestionLightweightDTO(int questionId, int userId, String title) {
+		this(questionId, userId, title, "", false, 0, 0);
+	}
+	
+	public QuestionLightweightDTO(int questionId, int userId, String title, String authorName, boolean resolved, int unreadCount, int answerCount) {
 		this.questionId = questionId;
 		this.userId = userId;
 		this.title = title;
+		this.authorName = authorName;
+		this.resolved = resolved;
+		this.unreadCount = unreadCount;
+		this.answerCount = answerCount;
 	}
 	
 	public int getQuestionId() { return questionId; }
 	public int getUserId() { return userId; }
 	public String getTitle() { return title; }
+	public String getAuthorName() { return authorName; }
+	public boolean isResolved() { return resolved; }
+	public int getUnreadCount() { return unreadCount; }
+	public int getAnswerCount() { return answerCount; }
 }
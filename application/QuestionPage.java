@@ -1,16 +1,24 @@
 package application;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import database.DatabaseHelper;
+import database.DomainEvent;
+import database.DomainEventBus;
+import javafx.beans.binding.DoubleBinding;
+import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Separator;
 import javafx.scene.image.Image;
@@ -19,130 +27,224 @@ import javafx.stage.Stage;
 
 public class QuestionPage {
 	
+	private static final int ANSWER_PAGE_SIZE = 50; // Answers read at a time as the user scrolls down
+	
 	private DatabaseHelper databaseHelper;
-	private QuestionSearchPage searchPage; // For refreshing when returning to search page
 	private int userId;
 	private int questionId;
 	
+	private QuestionPageView view;
 	private Question question;
-	private List<AnswerLightweightDTO> answers;
-	private Button currentStarredAnswer;
+	private int answerCount;
+	private int resolvedAnswerId = -1; // -1 if no answer is resolved
+	private RoleSet roles;
+	private int loadCount = 0; // Number of the newest load, so an older one that finishes late is ignored
 
-	// Icons
+	// Icons, shared by every page
 	private final int ICON_SIZE = 16;
-	private Image starUnfilled = new Image(getClass().getResource("/images/starUnfilled.png").toExternalForm());
-	private Image starFilled = new Image(getClass().getResource("/images/starFilled.png").toExternalForm());
-	private Image upvoteUnfilled = new Image(getClass().getResource("/images/upvoteUnfilled.png").toExternalForm());
-	private Image downvoteUnfilled = new Image(getClass().getResource("/images/downvoteUnfilled.png").toExternalForm());
-	private Image upvoteFilled = new Image(getClass().getResource("/images/upvoteFilled.png").toExternalForm());
-	private Image downvoteFilled = new Image(getClass().getResource("/images/downvoteFilled.png").toExternalForm());
-	private Image editIcon = new Image(getClass().getResource("/images/editIcon.png").toExternalForm());
-	private Image trashIcon = new Image(getClass().getResource("/images/trashIcon.png").toExternalForm());
-	private Image messageIcon = new Image(getClass().getResource("/images/messageIcon.png").toExternalForm());
-	
+	private final Image starUnfilled = ImageRegistry.get(ImageRegistry.Icon.STAR_UNFILLED);
+	private final Image starFilled = ImageRegistry.get(ImageRegistry.Icon.STAR_FILLED);
+	private final Image upvoteUnfilled = ImageRegistry.get(ImageRegistry.Icon.UPVOTE_UNFILLED);
+	private final Image downvoteUnfilled = ImageRegistry.get(ImageRegistry.Icon.DOWNVOTE_UNFILLED);
+	private final Image upvoteFilled = ImageRegistry.get(ImageRegistry.Icon.UPVOTE_FILLED);
+	private final Image downvoteFilled = ImageRegistry.get(ImageRegistry.Icon.DOWNVOTE_FILLED);
+	private final Image editIcon = ImageRegistry.get(ImageRegistry.Icon.EDIT);
+	private final Image trashIcon = ImageRegistry.get(ImageRegistry.Icon.TRASH);
+	private final Image messageIcon = ImageRegistry.get(ImageRegistry.Icon.MESSAGE);
+	
+	// The scene is built on the first display, later displays and events patch it
+	private VBox scrollLayout;
+	private DoubleBinding textWidth; // Width the question's labels wrap at, one binding shared by all of them
 	private VBox questionDisplay;
+	private Label questionTitle; // null while the question is not found
+	private Label questionAuthor;
+	private Label questionDescription;
+	private Button questionMessageButton;
+	private int questionUnread; // Unread messages about the question, shown on its message button
+	private Label answerLabel;
+	
+	// The resolved answer first, then the others oldest first. Only the answers scrolled to are read, and only
+	// the rows on screen have nodes: the list's cells are made once and show whichever answer scrolls into them
+	private ListView<QuestionPageView.AnswerView> answerList;
+	private PagedList<QuestionPageView.AnswerView> pagedAnswers;
 	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
+	private Scene questionPageScene;
 	
-	public QuestionPage(DatabaseHelper databaseHelper, QuestionSearchPage searchPage, int userId, int questionId) {
+	public QuestionPage(DatabaseHelper databaseHelper, int userId, int questionId) {
 		this.questionId = questionId;
-		this.searchPage = searchPage;
 		this.userId = userId;
 		this.databaseHelper = databaseHelper;
-		
-		// Load question
-		question = databaseHelper.getQuestion(questionId);
-		
-		// Load answers
-		answers = databaseHelper.getAllAnswers(questionId);
+	}
+	
+	// Opens the page again after the router dropped it. Built from the ids, not from this page, so the dropped page can be collected
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId, int questionId) {
+		return stage -> new QuestionPage(databaseHelper, userId, questionId).show(stage);
 	}
 	
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId, questionId));
+		
+		// Patch the page as answers, votes and messages change instead of reading it again
+		DomainEventBus events = databaseHelper.events();
+		events.subscribe(this, DomainEvent.QuestionEdited.class, this::questionEdited);
+		events.subscribe(this, DomainEvent.AnswerAdded.class, this::answerAdded);
+		events.subscribe(this, DomainEvent.AnswerEdited.class, this::answerEdited);
+		events.subscribe(this, DomainEvent.AnswerDeleted.class, this::answerDeleted);
+		events.subscribe(this, DomainEvent.QuestionResolved.class, this::questionResolved);
+		events.subscribe(this, DomainEvent.VoteChanged.class, this::voteChanged);
+		events.subscribe(this, DomainEvent.MessageSent.class, this::messageSent);
+		events.subscribe(this, DomainEvent.MessagesRead.class, this::messagesRead);
 		
 		load();
 	}
 	
-	// Loads screen contents
+	// Loads screen contents in the background, showing the page as loading until they arrive
 	public void load() {
-		// Load question
-		question = databaseHelper.getQuestion(questionId);
+		int loadNumber = ++loadCount;
+		LoadingView.show(primaryStage, questionPageScene, "Loading question...");
+		
+		// Load question and the first answers with their authors and votes, the page bar uses the roles of the session
+		databaseHelper.async().supply(db -> db.getQuestionPageView(questionId, userId, ANSWER_PAGE_SIZE))
+			.thenAccept(pageView -> {
+				if (loadNumber == loadCount) {
+					display(pageView);
+				}
+			})
+			.exceptionally(e -> {
+				if (loadNumber == loadCount) {
+					display(null); // Shows the question as not found
+				}
+				return null;
+			});
+	}
+	
+	// Shows loaded contents. The first display builds the scene and fills the answer list, later ones
+	// (after the question is edited) keep the list and its scroll position and only replace the answers
+	// that were read again. Setting a label or icon to what it already shows is a no-op in JavaFX
+	public void display(QuestionPageView pageView) {
+		view = pageView;
+		question = view == null ? null : view.getQuestion();
+		answerCount = view == null ? 0 : view.getAnswerCount();
+		QuestionPageView.AnswerView resolvedAnswer = view == null ? null : view.getResolvedAnswer();
+		resolvedAnswerId = resolvedAnswer == null ? -1 : resolvedAnswer.getAnswerId();
+		List<QuestionPageView.AnswerView> answers = view == null ? new ArrayList<>() : view.getAnswers();
+		
+		boolean firstDisplay = questionPageScene == null;
+		if (firstDisplay) {
+			createScene();
+		}
 		
-		// Load answers
-		answers = databaseHelper.getAllAnswers(questionId);
+		showQuestion();
+		answerLabel.setText(formatAnswerCount(answerCount));
+		
+		if (firstDisplay) {
+			// The resolved answer is pinned first, later pages leave it out
+			List<QuestionPageView.AnswerView> firstPage = new ArrayList<>(answers.size() + 1);
+			if (resolvedAnswer != null) {
+				firstPage.add(resolvedAnswer);
+			}
+			for (QuestionPageView.AnswerView answer : answers) {
+				if (answer.getAnswerId() != resolvedAnswerId) {
+					firstPage.add(answer);
+				}
+			}
+			pagedAnswers.show(firstPage, (last, cancellation) -> db -> db.getAnswerViewsAfter(questionId, userId, last.getAnswerId(), ANSWER_PAGE_SIZE));
+		} else {
+			List<QuestionPageView.AnswerView> items = answerList.getItems();
+			Map<Integer, Integer> shownIndexes = new HashMap<>(items.size() * 2);
+			for (int i = 0; i < items.size(); i++) {
+				shownIndexes.put(items.get(i).getAnswerId(), i);
+			}
+			List<QuestionPageView.AnswerView> readAgain = new ArrayList<>(answers);
+			if (resolvedAnswer != null) {
+				readAgain.add(resolvedAnswer);
+			}
+			for (QuestionPageView.AnswerView answer : readAgain) {
+				Integer index = shownIndexes.get(answer.getAnswerId());
+				if (index != null) {
+					items.set(index, answer); // Only redraws the answer if its row is on screen
+				}
+			}
+		}
+		
+		questionPageScene.getRoot().setDisable(false);
+		if (primaryStage.getScene() != questionPageScene) {
+			primaryStage.setScene(questionPageScene);
+			primaryStage.setTitle("Question Page");
+		}
+	}
+	
+	// Builds the parts of the page that stay for as long as it is open
+	private void createScene() {
+		roles = databaseHelper.getSession().getRoles();
 		
 		VBox layout = new VBox();
 		layout.setStyle("-fx-alignment: top-center;");
 	    layout.setSpacing(10);
 		
-		VBox scrollLayout = new VBox();
-	    scrollLayout.setStyle("-fx-alignment: top-center; -fx-padding: 20;");
+	    // The question scrolls on its own above the answers, taking at most half the page
+		scrollLayout = new VBox();
+	    scrollLayout.setStyle("-fx-alignment: top-center; -fx-padding: 20 20 0 20;");
 	    scrollLayout.setSpacing(10);
+	    textWidth = scrollLayout.widthProperty().subtract(scrollLayout.getPadding().getLeft() + scrollLayout.getPadding().getRight());
 	    
 	    ScrollPane layoutScrollPane = new ScrollPane();
 	    layoutScrollPane.setContent(scrollLayout);
 	    layoutScrollPane.setFitToWidth(true);
-	    VBox.setVgrow(layoutScrollPane, Priority.ALWAYS);
-	    
-	    // Format question
-	    formatQuestion(scrollLayout);
-	    scrollLayout.getChildren().add(questionDisplay);
+	    layoutScrollPane.maxHeightProperty().bind(layout.heightProperty().divide(2));
 	    
-	    // Add separators and resolved answer label if there is a resolved answer
-	    boolean isResolved = databaseHelper.isResolved(questionId);
-	    int resolvedAnswerId = databaseHelper.getResolvedAnswerId(questionId);
-	    if (isResolved) {
-	    	// Add separators and resolved answer label
-	    	Label resolvedLabel = new Label("Resolved Answer");
-		    resolvedLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
-		    
-		    // Add resolved answer
-		    AnswerLightweightDTO resolvedDTO = databaseHelper.getAnswerDTO(resolvedAnswerId);
-		    VBox answerDisplay = formatAnswer(scrollLayout, resolvedDTO);
-	    	if(resolvedDTO != null) {
-	    		scrollLayout.getChildren().addAll(new Separator(), resolvedLabel, new Separator(), answerDisplay);
-	    	} else {
-	    		isResolved = false; // print as normal is resolved print is unsuccessful
-	    	}
-	    }
-	    
-	    // Add separators and answer label
-	    Label answerLabel = new Label(answers.size() + " Answer" + (answers.size() == 1 ? "" : "s"));
+	    // Answer label, the question display is set by showQuestion
+	    answerLabel = new Label();
 	    answerLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
-	    scrollLayout.getChildren().addAll(new Separator(), answerLabel, new Separator());
+	    scrollLayout.getChildren().addAll(new VBox(), new Separator(), answerLabel);
 	    
-	    // Format answers
-	    for (int i = 0; i < answers.size(); i++) {
-	    	if (isResolved && answers.get(i).getAnswerId() == resolvedAnswerId) {
-	    		continue; // Skip answer if it is the resolved answer (already printed)
-	    	}
-	    	
-	    	VBox answerDisplay = formatAnswer(scrollLayout, answers.get(i));
-	    	if(answerDisplay != null) {
-	    		scrollLayout.getChildren().addAll(answerDisplay, new Separator());
-	    	}
-	    }
+	    // Answers
+	    answerList = new ListView<>();
+	    answerList.setCellFactory(list -> new AnswerCell());
+	    answerList.setFocusTraversable(false);
+	    pagedAnswers = new PagedList<>(databaseHelper, answerList, ANSWER_PAGE_SIZE);
+	    pagedAnswers.setFilter(answer -> answer.getAnswerId() != resolvedAnswerId); // Already pinned first
+	    VBox.setVgrow(answerList, Priority.ALWAYS);
+	    VBox.setMargin(answerList, new Insets(0, 20, 0, 20));
 	    
 	    // Add pageBar
 	    HBox pageBar = createPageBar(layout);
 	    
 	    // Set layout
-	    layout.getChildren().addAll(layoutScrollPane, pageBar);
+	    layout.getChildren().addAll(layoutScrollPane, answerList, pageBar);
 	    
-		// Set the scene to primary stage
-	    Scene questionPageScene = new Scene(layout, 800, 400);
-	    primaryStage.setScene(questionPageScene);
-	    primaryStage.setTitle("Question Page");
+	    questionPageScene = new Scene(layout, 800, 400);
+	}
+	
+	// Shows the question, only building its display again if it was found or lost since the last display
+	private void showQuestion() {
+		if (questionDisplay == null || (question == null) != (questionTitle == null)) {
+			formatQuestion(scrollLayout);
+			scrollLayout.getChildren().set(0, questionDisplay);
+			return;
+		}
+		
+		if (question != null) {
+			questionTitle.setText(question.getTitle());
+			questionAuthor.setText("Author: " + view.getAuthorName());
+			questionDescription.setText(question.getDescription());
+			questionUnread = view.getUnreadMessages();
+			UnreadBadge.apply(questionMessageButton, questionUnread);
+		}
+	}
+	
+	public String formatAnswerCount(int answerCount) {
+		return answerCount + " Answer" + (answerCount == 1 ? "" : "s");
 	}
 	
 	public void formatQuestion(VBox parent) {
 		questionDisplay = new VBox();
 	    questionDisplay.setStyle("-fx-alignment: top-left; -fx-padding: 0px;");
 		questionDisplay.setSpacing(5);
+		questionTitle = null;
+		questionMessageButton = null;
 		
 		// Check if question exists
 		if (question == null) {
@@ -153,17 +255,17 @@ public class QuestionPage {
 		}
 		
 		// Title
-		Label title = new Label(question.getTitle());
-	    title.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
-	    title.setWrapText(true);
-	    title.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
-	    title.setFocusTraversable(true); // Set focusable to ensure the user opens to the start of the page
-	    questionDisplay.getChildren().add(title);
+		questionTitle = new Label(question.getTitle());
+	    questionTitle.setStyle("-fx-font-size: 16px; -fx-font-weight: bold;");
+	    questionTitle.setWrapText(true);
+	    questionTitle.maxWidthProperty().bind(textWidth);
+	    questionTitle.setFocusTraversable(true); // Set focusable to ensure the user opens to the start of the page
+	    questionDisplay.getChildren().add(questionTitle);
 	    
 	    // Question Info
 	    VBox info = new VBox(10);
 	    info.setStyle("-fx-alignment: center-left");
-	    info.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
+	    info.maxWidthProperty().bind(textWidth);
 	    formatQuestionInfo(info);
 	    questionDisplay.getChildren().add(info);
 	    
@@ -171,11 +273,11 @@ public class QuestionPage {
 	    questionDisplay.getChildren().add(new Separator());
 	    
 	    // Description
-	    Label description = new Label(question.getDescription());
-	    description.setStyle("-fx-font-size: 16px;");
-	    description.setWrapText(true);
-	    description.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
-	    questionDisplay.getChildren().add(description);
+	    questionDescription = new Label(question.getDescription());
+	    questionDescription.setStyle("-fx-font-size: 16px;");
+	    questionDescription.setWrapText(true);
+	    questionDescription.maxWidthProperty().bind(textWidth);
+	    questionDisplay.getChildren().add(questionDescription);
 	    
 	    // Add question action bar
 	    HBox questionActionBar = createQuestionActionBar(parent);
@@ -185,53 +287,12 @@ public class QuestionPage {
 	
 	public void formatQuestionInfo(VBox info) {
 		// Add Author
-		Label author = new Label("Author: " + databaseHelper.getQuestionUsername(questionId));
-		author.setStyle("-fx-font-size: 12px;");
-		author.setWrapText(true);
-		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
+		questionAuthor = new Label("Author: " + view.getAuthorName());
+		questionAuthor.setStyle("-fx-font-size: 12px;");
+		questionAuthor.setWrapText(true);
+		questionAuthor.maxWidthProperty().bind(textWidth);
 		
-		info.getChildren().addAll(author);
-	}
-	
-	public VBox formatAnswer(VBox parent, AnswerLightweightDTO answer) {
-		VBox answerDisplay = new VBox();
-		answerDisplay.setStyle("-fx-alignment: top-left; -fx-padding: 0px;");
-		answerDisplay.setSpacing(5);
-		
-		// Check if answer exists
-		if (answer == null) {
-			return null;
-		}
-	    
-		// Answer content
-	    Label content = new Label(answer.getContent());
-	    content.setStyle("-fx-font-size: 16px;");
-	    content.setWrapText(true);
-	    content.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
-	    answerDisplay.getChildren().add(content);
-	    
-	    // Answer Info
-	    VBox info = new VBox();
-	    info.setStyle("-fx-alignment: center-left");
-	    info.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
-	    formatAnswerInfo(info, answer);
-	    answerDisplay.getChildren().add(info);
-	    
-	    // Action bar
-	    HBox actionBar = createActionBar(parent, answer);
-	    answerDisplay.getChildren().add(actionBar);
-		
-		return answerDisplay;
-	}
-	
-	public void formatAnswerInfo(VBox info, AnswerLightweightDTO answer) {
-		// Add Author
-		Label author = new Label("Author: " + databaseHelper.getAnswerUsername(answer.getAnswerId()));
-		author.setStyle("-fx-font-size: 12px;");
-		author.setWrapText(true);
-		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
-		
-		info.getChildren().addAll(author);
+		info.getChildren().addAll(questionAuthor);
 	}
 	
 	public HBox createQuestionActionBar(VBox layout) {
@@ -242,7 +303,7 @@ public class QuestionPage {
 	    if (parentQuestionId != -1) {
 	    	Button originalQuestionButton = new Button("Go To Original Question");
 			originalQuestionButton.setOnAction(a -> {
-				new QuestionPage(databaseHelper, searchPage, userId, parentQuestionId).show(primaryStage);
+				new QuestionPage(databaseHelper, userId, parentQuestionId).show(primaryStage);
 			});
 			
 	    	questionActionBar.getChildren().add(originalQuestionButton);
@@ -272,99 +333,90 @@ public class QuestionPage {
  		
  		questionActionBar.getChildren().addAll(reviewsButton);
  		
- 		Button pmButton = createMessageButton();
+ 		questionUnread = view.getUnreadMessages();
+ 		Button pmButton = createMessageButton(questionUnread);
  		pmButton.setOnAction(a -> {
  			// Load review page
  			messageClicked("question", questionId, question.getUserId());
  		});
+ 		questionMessageButton = pmButton;
 	 	questionActionBar.getChildren().addAll(pmButton);
  		
 	    return questionActionBar;
 	}
 	
-	public HBox createActionBar(VBox parent, AnswerLightweightDTO answer) {
-		int answerId = answer.getAnswerId();
-		
-		// Left button flags
-		boolean isQuestionAuthor = userId == question.getUserId();
-		
-		// Create bar
-		HBox actionBar = new HBox(4);
-		actionBar.setStyle("-fx-alignment: center-left;");
-		actionBar.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
-		
-		// Add star button for question author
-		if (isQuestionAuthor) {
-			Button starButton = createStarButton(answerId);
-			actionBar.getChildren().add(starButton);
+	/**
+	 * A row of the answer list, the answer with its action bar. The buttons act on
+	 * whichever answer the cell shows when they are clicked.
+	 */
+	private class AnswerCell extends ListRowCell<QuestionPageView.AnswerView> {
+		private final Label resolvedLabel = addLine("-fx-font-size: 14px; -fx-font-weight: bold;"); // Only shown on the resolved answer
+		private final Label content = addLine("-fx-font-size: 16px;");
+		private final Label author = addLine("-fx-font-size: 12px;");
+		private final Button starButton = createStarButton();
+		private final Button upvoteButton = createUpvoteButton();
+		private final Button downvoteButton = createDownvoteButton();
+		private final Label voteCount = new Label();
+		private final Button editButton = createEditButton();
+		private final Button trashButton = createTrashButton();
+		private final Button messageButton = createMessageButton(0);
+		
+		private AnswerCell() {
+			layout.setSpacing(5);
+			resolvedLabel.setText("Resolved Answer");
+			
+			// Action bar
+			HBox actionBar = new HBox(4);
+			actionBar.setStyle("-fx-alignment: center-left;");
+			
+			starButton.setOnAction(a -> starClicked(getItem().getAnswerId(), starButton));
+			upvoteButton.setOnAction(a -> upvoteClicked(getItem().getAnswerId(), upvoteButton, downvoteButton));
+			downvoteButton.setOnAction(a -> downvoteClicked(getItem().getAnswerId(), upvoteButton, downvoteButton));
+			editButton.setOnAction(a -> editClicked(getItem().getAnswerId()));
+			trashButton.setOnAction(a -> trashClicked(getItem().getAnswerId()));
+			messageButton.setOnAction(a -> messageClicked("answer", getItem().getAnswerId(), getItem().getUserId()));
+			
+			Button reviewsButton = new Button("Reviews");
+			reviewsButton.setOnAction(a -> {
+				// Load review page
+				new ReviewPage(databaseHelper, userId, getItem().getAnswerId(), false).show(primaryStage);
+			});
+			
+			// Add a spacer that will push the following buttons to the right
+			Region spacer = new Region();
+			HBox.setHgrow(spacer, Priority.ALWAYS); // Forces elements to the right
+			
+			actionBar.getChildren().addAll(starButton, upvoteButton, downvoteButton, voteCount, spacer, editButton, trashButton, reviewsButton, messageButton);
+			layout.getChildren().add(actionBar);
 		}
 		
-		// Add upvote and downvote buttons
-		Button upvoteButton = createUpvoteButton(answerId);
-		Button downvoteButton = createDownvoteButton(answerId);
-		
-		// Add vote
-		int voteSum = databaseHelper.getAnswerVoteCount(answerId);
-		Label voteCount = new Label(formatVote(voteSum));
-		
-		// Add upvote event handler
-		upvoteButton.setOnAction(a -> {
-			upvoteClicked(answerId, upvoteButton, downvoteButton, voteCount);
-		});
-		
-		// Add downvote even handler
-		downvoteButton.setOnAction(a -> {
-			downvoteClicked(answerId, upvoteButton, downvoteButton, voteCount);
-		});
-		
-		updateVote(answerId, upvoteButton, downvoteButton, voteCount);
-		
-		// Add a spacer that will push the following buttons to the right
-		Region spacer = new Region();
-		HBox.setHgrow(spacer, Priority.ALWAYS); // Forces elements to the right
-		
-		actionBar.getChildren().addAll(upvoteButton, downvoteButton, voteCount, spacer);
-		
-		// Editor Section
-		
-		// Right button flags
-		boolean isCreator = userId == answer.getUserId();
-		
-		if (isCreator) {
-			Button editButton = createEditButton(answerId);
-			Button trashButton = createTrashButton(answerId);
+		@Override
+		protected void show(QuestionPageView.AnswerView answer) {
+			boolean isResolved = answer.getAnswerId() == resolvedAnswerId;
+			boolean isQuestionAuthor = question != null && userId == question.getUserId();
+			boolean isCreator = userId == answer.getUserId();
+			
+			setShown(resolvedLabel, isResolved);
+			content.setText(answer.getContent());
+			author.setText("Author: " + answer.getAuthorName());
 			
-			actionBar.getChildren().addAll(editButton, trashButton);
+			// Star button for question author
+			setShown(starButton, isQuestionAuthor);
+			((ImageView) starButton.getGraphic()).setImage(isResolved ? starFilled : starUnfilled);
+			
+			showVote(answer.getViewerVote(), answer.getScore(), upvoteButton, downvoteButton, voteCount);
+			
+			// Editor buttons for the answer's author
+			setShown(editButton, isCreator);
+			setShown(trashButton, isCreator);
+			
+			UnreadBadge.apply(messageButton, answer.getUnreadMessages());
 		}
-		
-		// Reviews Button
-		Button reviewsButton = new Button("Reviews");
-		reviewsButton.setOnAction(a -> {
-			// Load review page
-			new ReviewPage(databaseHelper, userId, answerId, false).show(primaryStage);
-		});
-		
-		Button pmButton = createMessageButton();
- 		pmButton.setOnAction(a -> {
- 			// Load review page
- 			messageClicked("answer", answerId, answer.getUserId());
- 		});
-		
-		actionBar.getChildren().addAll(reviewsButton, pmButton);
-		
-		return actionBar;
 	}
 	
-	// Create star button
-	public Button createStarButton(int answerId) {
-		ImageView starImage;
-		boolean isStarred = false;
-		if (answerId == databaseHelper.getResolvedAnswerId(questionId)) {
-			starImage = new ImageView(starFilled);
-			isStarred = true;
-		} else {
-			starImage = new ImageView(starUnfilled);
-		}
+	// Create star button, the cell sets its image
+	public Button createStarButton() {
+		ImageView starImage = new ImageView(starUnfilled);
 		starImage.setFitWidth(ICON_SIZE);
 		starImage.setFitHeight(ICON_SIZE);
 		starImage.setPreserveRatio(true);
@@ -373,21 +425,11 @@ public class QuestionPage {
 		Button starButton = new Button();
 		starButton.setGraphic(starImage);
 		
-		// Store currently starred button
-		if (isStarred) {
-			currentStarredAnswer = starButton;
-		}
-		
-		// Add star event handler
-		starButton.setOnAction(a -> {
-			starClicked(answerId, starButton);
-		});
-		
 		return starButton;
 	}
 		
 	// Create up vote button
-	public Button createUpvoteButton(int answerId) {
+	public Button createUpvoteButton() {
 		ImageView upvoteImage = new ImageView(upvoteUnfilled); // defaults to unfilled (will be loaded later)
 		upvoteImage.setFitWidth(ICON_SIZE);
 		upvoteImage.setFitHeight(ICON_SIZE);
@@ -401,7 +443,7 @@ public class QuestionPage {
 	}
 	
 	// Create down vote button
-	public Button createDownvoteButton(int answerId) {
+	public Button createDownvoteButton() {
 		ImageView downvoteImage = new ImageView(downvoteUnfilled); // defaults to unfilled (will be loaded later)
 		downvoteImage.setFitWidth(ICON_SIZE);
 		downvoteImage.setFitHeight(ICON_SIZE);
@@ -415,7 +457,7 @@ public class QuestionPage {
 	}
 	
 	// Create edit button
-	public Button createEditButton(int answerId) {
+	public Button createEditButton() {
 		ImageView editImage = new ImageView(editIcon);
 		editImage.setFitWidth(ICON_SIZE);
 		editImage.setFitHeight(ICON_SIZE);
@@ -424,11 +466,6 @@ public class QuestionPage {
 		Button editButton = new Button();
 		editButton.setGraphic(editImage);
 		
-		// Add edit event handler
-		editButton.setOnAction(a -> {
-			editClicked(answerId);
-		});
-		
 		return editButton;
 	}
 	
@@ -451,7 +488,7 @@ public class QuestionPage {
 	}
 	
 	// Create trash button
-	public Button createTrashButton(int answerId) {
+	public Button createTrashButton() {
 		ImageView trashImage = new ImageView(trashIcon);
 		trashImage.setFitWidth(ICON_SIZE);
 		trashImage.setFitHeight(ICON_SIZE);
@@ -460,11 +497,6 @@ public class QuestionPage {
 		Button trashButton = new Button();
 		trashButton.setGraphic(trashImage);
 		
-		// Add edit event handler
-		trashButton.setOnAction(a -> {
-			trashClicked(answerId);
-		});
-		
 		return trashButton;
 	}
 	
@@ -486,7 +518,7 @@ public class QuestionPage {
 		return trashButton;
 	}
 	
-	public Button createMessageButton() {
+	public Button createMessageButton(int unreadMessages) {
 		ImageView messageImage = new ImageView(messageIcon);
 		messageImage.setFitWidth(ICON_SIZE);
 		messageImage.setFitHeight(ICON_SIZE);
@@ -494,92 +526,227 @@ public class QuestionPage {
 		
 		Button messageButton = new Button();
 		messageButton.setGraphic(messageImage);
-		// databaseHelper.getUser(userId).getHasUnreadMsgs()
-		if (true) {
-			messageButton.setTextFill(Color.CORNFLOWERBLUE);
-		}
+		UnreadBadge.apply(messageButton, unreadMessages);
 		
 		return messageButton;
 	}
 	
+	// Set or remove the resolved answer, the QuestionResolved event moves the answers and stars
 	public void starClicked(int answerId, Button starButton) {
-		int resolvedAnswerId = databaseHelper.getResolvedAnswerId(questionId);
-		ImageView starImage = (ImageView) starButton.getGraphic();
-		
-		if (resolvedAnswerId == answerId) {
-			// Remove star if currently set to answer
-			databaseHelper.removeResolvedAnswerId(questionId);
-			starImage.setImage(starUnfilled);
-			
-			currentStarredAnswer = null;
-		} else {
-			// Set resolvedAnswerId to clicked answerId
-			databaseHelper.setResolvedAnswerId(questionId, answerId);
-			starImage.setImage(starFilled);
-			
-			// If there was previously a resolved answer, remove star image
-			if (resolvedAnswerId != -1 && currentStarredAnswer != null) {
-				ImageView previousStarImage = (ImageView) currentStarredAnswer.getGraphic();
-				previousStarImage.setImage(starUnfilled);
+		int newResolvedAnswerId = resolvedAnswerId == answerId ? -1 : answerId;
+		starButton.setDisable(true);
+		
+		databaseHelper.async().run(db -> {
+			if (newResolvedAnswerId == -1) {
+				db.removeResolvedAnswerId(questionId);
+			} else {
+				db.setResolvedAnswerId(questionId, newResolvedAnswerId);
 			}
-			
-			currentStarredAnswer = starButton;
+		}).whenComplete((done, e) -> starButton.setDisable(false));
+	}
+	
+	public void upvoteClicked(int answerId, Button upvoteButton, Button downvoteButton) {
+		vote(answerId, 1, upvoteButton, downvoteButton);
+	}
+	
+	public void downvoteClicked(int answerId, Button upvoteButton, Button downvoteButton) {
+		vote(answerId, -1, upvoteButton, downvoteButton);
+	}
+	
+	// Set the user's vote, or remove it if they clicked the same vote again. The vote buttons
+	// are disabled until the database has the new vote so a double click can't vote twice.
+	// The VoteChanged event shows the new vote and totals
+	public void vote(int answerId, int voteType, Button upvoteButton, Button downvoteButton) {
+		upvoteButton.setDisable(true);
+		downvoteButton.setDisable(true);
+		
+		databaseHelper.async().run(db -> {
+			int userVote = db.getUserVoteForAnswer(userId, answerId);
+			db.updateUserVoteForAnswer(userId, answerId, userVote == voteType ? 0 : voteType);
+		}).whenComplete((done, e) -> {
+			upvoteButton.setDisable(false);
+			downvoteButton.setDisable(false);
+		});
+	}
+	
+	// Count an answer posted to this question, and add it below the others if the list is read to the end
+	private void answerAdded(DomainEvent.AnswerAdded event) {
+		if (event.getQuestionId() != questionId || question == null) {
+			return;
+		}
+		answerCount++;
+		answerLabel.setText(formatAnswerCount(answerCount));
+		if (!pagedAnswers.isComplete()) {
+			return; // It is newest, so it comes with the last page
 		}
 		
-		load();
+		int loadNumber = loadCount;
+		databaseHelper.async().supply(db -> db.getAnswerView(event.getAnswerId(), userId)).thenAccept(answer -> {
+			if (answer == null || loadNumber != loadCount || indexOfAnswer(answer.getAnswerId()) != -1) {
+				return; // Deleted again, or already shown
+			}
+			answerList.getItems().add(answer);
+		});
 	}
 	
-	public void upvoteClicked(int answerId, Button upvoteButton, Button downvoteButton, Label voteCount) {
-		int userVote = databaseHelper.getUserVoteForAnswer(userId, answerId);
-		
-		if (userVote == 1) {
-			// Remove upvote
-			databaseHelper.updateUserVoteForAnswer(userId, answerId, 0);
-		} else {
-			// Set upvote
-			databaseHelper.updateUserVoteForAnswer(userId, answerId, 1);
+	// Show the question's edited title and description
+	private void questionEdited(DomainEvent.QuestionEdited event) {
+		if (event.getQuestionId() != questionId || question == null) {
+			return; // A page still loading reads the edit with the rest of the question
 		}
-		
-		updateVote(answerId, upvoteButton, downvoteButton, voteCount);
+		question.setTitle(event.getTitle());
+		question.setDescription(event.getDescription());
+		showQuestion();
 	}
 	
-	public void downvoteClicked(int answerId, Button upvoteButton, Button downvoteButton, Label voteCount) {
-		int userVote = databaseHelper.getUserVoteForAnswer(userId, answerId);
+	// Show an edited answer's new content
+	private void answerEdited(DomainEvent.AnswerEdited event) {
+		int index = indexOfAnswer(event.getAnswerId());
+		if (index != -1) {
+			List<QuestionPageView.AnswerView> items = answerList.getItems();
+			items.set(index, items.get(index).withContent(event.getContent()));
+		}
+	}
+	
+	// Take a deleted answer off the page
+	private void answerDeleted(DomainEvent.AnswerDeleted event) {
+		if (event.getQuestionId() != questionId || question == null) {
+			return;
+		}
+		answerCount--;
+		answerLabel.setText(formatAnswerCount(answerCount));
+		int index = indexOfAnswer(event.getAnswerId());
+		if (index != -1) {
+			answerList.getItems().remove(index);
+		}
+	}
+	
+	// Move the old resolved answer back among the others and pin the new one first. Only the rows
+	// of those two answers change, and the list only redraws the rows that are on screen
+	private void questionResolved(DomainEvent.QuestionResolved event) {
+		if (event.getQuestionId() != questionId || question == null) {
+			return;
+		}
+		List<QuestionPageView.AnswerView> items = answerList.getItems();
+		int previousResolvedId = resolvedAnswerId;
+		resolvedAnswerId = event.getResolvedAnswerId();
+		
+		// Unpin the old one, back in order of id unless it is past the answers read so far (a later page reads it)
+		int previousIndex = indexOfAnswer(previousResolvedId);
+		if (previousIndex != -1) {
+			QuestionPageView.AnswerView previous = items.remove(previousIndex);
+			int index = sortedIndex(previous.getAnswerId());
+			if (index < items.size() || pagedAnswers.isComplete()) {
+				items.add(index, previous);
+			}
+		}
 		
-		if (userVote == -1) {
-			// Remove downvote
-			databaseHelper.updateUserVoteForAnswer(userId, answerId, 0);
-		} else {
-			// Set downvote
-			databaseHelper.updateUserVoteForAnswer(userId, answerId, -1);
+		if (resolvedAnswerId == -1) {
+			return;
+		}
+		int index = indexOfAnswer(resolvedAnswerId);
+		if (index != -1) {
+			items.add(0, items.remove(index));
+			return;
 		}
 		
-		updateVote(answerId, upvoteButton, downvoteButton, voteCount);
+		// Resolved by someone else on an answer not read yet
+		int loadNumber = loadCount;
+		int answerId = resolvedAnswerId;
+		databaseHelper.async().supply(db -> db.getAnswerView(answerId, userId)).thenAccept(answer -> {
+			if (answer != null && loadNumber == loadCount && answerId == resolvedAnswerId && indexOfAnswer(answerId) == -1) {
+				items.add(0, answer);
+			}
+		});
+	}
+	
+	// Show the new totals of a shown answer, and the user's vote if it is theirs
+	private void voteChanged(DomainEvent.VoteChanged event) {
+		int index = indexOfAnswer(event.getAnswerId());
+		if (index == -1) {
+			return;
+		}
+		List<QuestionPageView.AnswerView> items = answerList.getItems();
+		QuestionPageView.AnswerView answer = items.get(index);
+		int viewerVote = event.getVoterId() == userId ? event.getVote() : answer.getViewerVote();
+		items.set(index, answer.withVotes(event.getUpvoteCount(), event.getDownvoteCount(), viewerVote));
+	}
+	
+	// Index of a read answer in the list, -1 if it is not read
+	private int indexOfAnswer(int answerId) {
+		List<QuestionPageView.AnswerView> items = answerList.getItems();
+		for (int i = 0; i < items.size(); i++) {
+			if (items.get(i).getAnswerId() == answerId) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	// Where an answer goes in the list while no answer is pinned first, the answers are then in order of id
+	private int sortedIndex(int answerId) {
+		List<QuestionPageView.AnswerView> items = answerList.getItems();
+		int low = 0;
+		int high = items.size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (items.get(middle).getAnswerId() < answerId) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	private void messageSent(DomainEvent.MessageSent event) {
+		if (event.getRecipientId() == userId && !event.isRead()) {
+			changeUnreadMessages(event.getParentType(), event.getParentId(), 1);
+		}
+	}
+	
+	private void messagesRead(DomainEvent.MessagesRead event) {
+		if (event.getUserId() == userId) {
+			changeUnreadMessages(event.getParentType(), event.getParentId(), -event.getCount());
+		}
+	}
+	
+	// Change the unread count on the message button of the question or a shown answer
+	private void changeUnreadMessages(String parentType, int parentId, int change) {
+		if (parentType.equals("question") && parentId == questionId && questionMessageButton != null) {
+			questionUnread += change;
+			UnreadBadge.apply(questionMessageButton, questionUnread);
+		} else if (parentType.equals("answer")) {
+			int index = indexOfAnswer(parentId);
+			if (index != -1) {
+				List<QuestionPageView.AnswerView> items = answerList.getItems();
+				items.set(index, items.get(index).withUnreadMessages(items.get(index).getUnreadMessages() + change));
+			}
+		}
 	}
 	
 	// Open answer in draft editor
 	public void editClicked(int answerId) {
-		new AnswerDraftPage(databaseHelper, this, userId, questionId, answerId).show(primaryStage);
+		new AnswerDraftPage(databaseHelper, userId, questionId, answerId).show(primaryStage);
 	}
 	
 	// Open question in draft editor
 	public void editQuestionClicked() {
-		new QuestionDraftPage(databaseHelper, searchPage, this, question.getUserId(), question.getParentQuestionId(), questionId).show(primaryStage);
+		new QuestionDraftPage(databaseHelper, question.getUserId(), question.getParentQuestionId(), questionId).show(primaryStage);
 	}
 	
-	// Delete answer if author confirms
+	// Delete answer if author confirms, the AnswerDeleted event takes it off the page
 	public void trashClicked(int answerId) {
 		if (new ConfirmDelete().show("Are you sure you want to delete this answer?")) {
-			databaseHelper.deleteAnswer(answerId);
-			load();
+			databaseHelper.async().run(db -> db.deleteAnswer(answerId));
 		}
 	}
 	
 	// Delete question if author confirms
 	public void trashQuestionClicked() {
 		if (new ConfirmDelete().show("Are you sure you want to delete this question?")) {
-			databaseHelper.deleteQuestion(questionId);
-			back();
+			questionPageScene.getRoot().setDisable(true);
+			databaseHelper.async().run(db -> db.deleteQuestion(questionId)).thenRun(this::back);
 		}
 	}
 	
@@ -593,9 +760,8 @@ public class QuestionPage {
 		}
 	}
 	
-	public void updateVote(int answerId, Button upvoteButton, Button downvoteButton, Label voteCount) {
-		int userVote = databaseHelper.getUserVoteForAnswer(userId, answerId);
-		
+	// Set vote button images and vote count label
+	public void showVote(int userVote, int voteSum, Button upvoteButton, Button downvoteButton, Label voteCount) {
 		// Get image views
 		ImageView upvotedImage = (ImageView) upvoteButton.getGraphic();
 		ImageView downvotedImage = (ImageView) downvoteButton.getGraphic();
@@ -613,7 +779,6 @@ public class QuestionPage {
 		}
 		
 		// Set vote count
-		int voteSum = databaseHelper.getAnswerVoteCount(answerId);
 		voteCount.setText(formatVote(voteSum));
 		
 		// Set color
@@ -639,16 +804,15 @@ public class QuestionPage {
 		pageBar.setStyle("-fx-alignment: center-left; -fx-padding: 0 20 20 20;");
 		pageBar.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
 
-		boolean canAnswer = databaseHelper.getUserRole(userId).contains("student")
-				|| databaseHelper.getUserRole(userId).contains("instructor");
-		boolean canFollowUp = databaseHelper.getUserRole(userId).contains("student");
+		boolean canAnswer = roles.contains(Role.STUDENT) || roles.contains(Role.INSTRUCTOR);
+		boolean canFollowUp = roles.contains(Role.STUDENT);
 		
 		if (canAnswer) {
 			// New Answer button
 			Button newAnswerButton = new Button("New Answer");
 			newAnswerButton.setOnAction(a -> {
 				// Load answer draft page
-				new AnswerDraftPage(databaseHelper, this, userId, questionId).show(primaryStage);
+				new AnswerDraftPage(databaseHelper, userId, questionId).show(primaryStage);
 			});
 			pageBar.getChildren().add(newAnswerButton);
 		}
@@ -657,7 +821,7 @@ public class QuestionPage {
 			Button followUpButton = new Button("Follow up");
 			followUpButton.setOnAction(a -> {
 				// Load question draft page
-				new QuestionDraftPage(databaseHelper, searchPage, userId, questionId).show(primaryStage); // set parent to current question
+				new QuestionDraftPage(databaseHelper, userId, questionId).show(primaryStage); // set parent to current question
 			});
 			pageBar.getChildren().add(followUpButton);
 		}
@@ -678,8 +842,7 @@ public class QuestionPage {
 	}
 	
 	public void back() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
@@ -687,8 +850,7 @@ public class QuestionPage {
 		 * is not worth fixing unless it causes errors down the road.
 		 */
 		
-		// Reload search page
-		searchPage.searchQuestions();
+		// The search page patched its list from the events of the changes made here
 	}
 
 }
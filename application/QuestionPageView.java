@@ -0,0 +1,88 @@
+package application;
+
+import java.util.List;
+
+/**
+ * The QuestionPageView class holds what the question page first displays:
+ * the question, its author, its answer count, the resolved answer and the first
+ * page of answers together with their author name, vote totals, the viewing user's
+ * vote and their unread messages about them. It is loaded by
+ * DatabaseHelper.getQuestionPageView in a few queries so the page does not have to
+ * look these up one answer at a time, later pages come from getAnswerViewsAfter.
+ */
+public class QuestionPageView {
+	private int questionId;
+	private Question question;
+	private String authorName;
+	private boolean resolved;
+	private int resolvedAnswerId; // -1 if no answer is resolved
+	private AnswerView resolvedAnswer; // null if there is none or it no longer exists
+	private List<AnswerView> answers; // The first page of answers, oldest first
+	private int answerCount; // All of the question's answers
+	private int unreadMessages; // Messages about the question the viewer has not read
+
+	public QuestionPageView(int questionId, Question question, String authorName, boolean resolved, int resolvedAnswerId, AnswerView resolvedAnswer, List<AnswerView> answers, int answerCount, int unreadMessages) {
+		this.questionId = questionId;
+		this.question = question;
+		this.authorName = authorName;
+		this.resolved = resolved;
+		this.resolvedAnswerId = resolvedAnswerId;
+		this.resolvedAnswer = resolvedAnswer;
+		this.answers = answers;
+		this.answerCount = answerCount;
+		this.unreadMessages = unreadMessages;
+	}
+
+	public int getQuestionId() { return questionId; }
+	public Question getQuestion() { return question; }
+	public String getAuthorName() { return authorName; }
+	public boolean isResolved() { return resolved; }
+	public int getResolvedAnswerId() { return resolvedAnswerId; }
+	public AnswerView getResolvedAnswer() { return resolvedAnswer; }
+	public List<AnswerView> getAnswers() { return answers; }
+	public int getAnswerCount() { return answerCount; }
+	public int getUnreadMessages() { return unreadMessages; }
+
+	/**
+	 * An answer as shown on the question page.
+	 */
+	public static class AnswerView extends AnswerLightweightDTO {
+		private String authorName;
+		private int upvoteCount;
+		private int downvoteCount;
+		private int viewerVote; // 1 = upvote, 0 = no vote, -1 = downvote
+		private int trustScore; // Trust weights of the answer's reviewers, summed per review
+		private int unreadMessages; // Messages about the answer the viewer has not read
+
+		public AnswerView(int answerId, int userId, String content, String authorName, int upvoteCount, int downvoteCount, int viewerVote, int trustScore, int unreadMessages) {
+			super(answerId, userId, content);
+			this.authorName = authorName;
+			this.upvoteCount = upvoteCount;
+			this.downvoteCount = downvoteCount;
+			this.viewerVote = viewerVote;
+			this.trustScore = trustScore;
+			this.unreadMessages = unreadMessages;
+		}
+
+		public String getAuthorName() { return authorName; }
+		public int getUpvoteCount() { return upvoteCount; }
+		public int getDownvoteCount() { return downvoteCount; }
+		public int getScore() { return upvoteCount - downvoteCount; }
+		public int getViewerVote() { return viewerVote; }
+		public int getTrustScore() { return trustScore; }
+		public int getUnreadMessages() { return unreadMessages; }
+
+		// Copies with one thing changed, for patching a shown answer from an event
+		public AnswerView withContent(String content) {
+			return new AnswerView(getAnswerId(), getUserId(), content, authorName, upvoteCount, downvoteCount, viewerVote, trustScore, unreadMessages);
+		}
+
+		public AnswerView withVotes(int upvoteCount, int downvoteCount, int viewerVote) {
+			return new AnswerView(getAnswerId(), getUserId(), getContent(), authorName, upvoteCount, downvoteCount, viewerVote, trustScore, unreadMessages);
+		}
+
+		public AnswerView withUnreadMessages(int unreadMessages) {
+			return new AnswerView(getAnswerId(), getUserId(), getContent(), authorName, upvoteCount, downvoteCount, viewerVote, trustScore, unreadMessages);
+		}
+	}
+}
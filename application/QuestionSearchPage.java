@@ -5,43 +5,59 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 import database.DatabaseHelper;
+import database.DomainEvent;
+import database.DomainEventBus;
+import database.QueryCancellation;
+import database.QuestionOrder;
+import database.QuestionSearch;
 
 public class QuestionSearchPage {
 	
+	private static final Duration SEARCH_DEBOUNCE = Duration.millis(250); // Pause in typing before searching
+	private static final int QUESTION_PAGE_SIZE = 50; // Questions read at a time, with or without keywords
+	
 	private DatabaseHelper databaseHelper;
 	private int userId;
 	
-	private List<QuestionLightweightDTO> questions;
-	
 	private TextField searchBar;
+	private SearchPipeline<QuestionLightweightDTO> searchPipeline;
 	private ListView<QuestionLightweightDTO> questionList;
+	private PagedList<QuestionLightweightDTO> questionPages;
 	private HBox actionBar;
 	
-	private String sort = "ORDER BY id DESC";
+	private QuestionOrder listOrder = QuestionOrder.NEWEST; // Order of the question list without keywords
+	private QuestionOrder searchOrder = listOrder; // Order of keyword results, null keeps the best matches first
+	private QuestionSearch keywordSearch; // The last keyword search started, its later pages are read from it
 	private String filter = "";
+	private Boolean resolvedFilter = null; // Whether the filter only lists resolved or unresolved questions, null if it lists both
 	
-	private Scene previousScene;
-	private String previousTitle;
 	
 	public QuestionSearchPage(DatabaseHelper databaseHelper, int userId) {
 		this.databaseHelper = databaseHelper;
 		this.userId = userId;
 	}
 	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId) {
+		return stage -> new QuestionSearchPage(databaseHelper, userId).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId));
 		
     	VBox layout = new VBox();
 	    layout.setStyle("-fx-alignment: top-center; -fx-padding: 20;");
@@ -56,6 +72,16 @@ public class QuestionSearchPage {
 	    layout.getChildren().add(questionList);
 	    searchQuestions(); // Run to get list
 	    
+	    // Patch the listed questions as they are answered, resolved and deleted instead of searching again.
+	    // A posted or edited question can move anywhere in the results, so those search again
+	    DomainEventBus events = databaseHelper.events();
+	    events.subscribe(this, DomainEvent.QuestionAdded.class, event -> searchQuestions());
+	    events.subscribe(this, DomainEvent.QuestionEdited.class, event -> searchQuestions());
+	    events.subscribe(this, DomainEvent.AnswerAdded.class, this::answerAdded);
+	    events.subscribe(this, DomainEvent.AnswerDeleted.class, this::answerDeleted);
+	    events.subscribe(this, DomainEvent.QuestionResolved.class, this::questionResolved);
+	    events.subscribe(this, DomainEvent.QuestionDeleted.class, event -> updateQuestion(event.getQuestionId(), question -> null));
+	    
 	    // Action Bar
 	    createActionBar(primaryStage, layout);
 	    layout.getChildren().add(actionBar);
@@ -97,7 +123,9 @@ public class QuestionSearchPage {
 	public TextField createSearchBar() {
 		searchBar = new TextField();
 		searchBar.setPromptText("Search...");
-		searchBar.setOnKeyReleased(a -> searchQuestions());
+		searchPipeline = new SearchPipeline<>(databaseHelper, searchBar, SEARCH_DEBOUNCE, this::prepareSearch,
+				this::refineSearch,
+				this::showQuestions);
 		
 		return searchBar;
 	}
@@ -107,7 +135,7 @@ public class QuestionSearchPage {
 		ComboBox<String> sortFilter = new ComboBox<>();
 		
 		// Create options and set default
-		sortFilter.getItems().addAll("Most Recent", "Oldest", "A-Z", "Z-A");
+		sortFilter.getItems().addAll("Most Recent", "Oldest", "A-Z", "Z-A", "Best Match");
 		sortFilter.setValue("Most Recent");
 		
 		// Event handler
@@ -138,19 +166,28 @@ public class QuestionSearchPage {
 	public void setSort(String sortType) {
 		switch (sortType) {
 		case "Most Recent":
-			sort = "ORDER BY id DESC";
+			listOrder = QuestionOrder.NEWEST;
+			searchOrder = listOrder;
 			break;
 		case "Oldest":
-			sort = "ORDER BY id ASC";
+			listOrder = QuestionOrder.OLDEST;
+			searchOrder = listOrder;
 			break;
 		case "A-Z":
-			sort = "ORDER BY title ASC";
+			listOrder = QuestionOrder.TITLE_ASCENDING;
+			searchOrder = listOrder;
 			break;
 		case "Z-A":
-			sort = "ORDER BY title DESC";
+			listOrder = QuestionOrder.TITLE_DESCENDING;
+			searchOrder = listOrder;
+			break;
+		case "Best Match":
+			listOrder = QuestionOrder.NEWEST; // Nothing to rank without keywords
+			searchOrder = null; // Keyword searches keep their ranked order
 			break;
 		default:
-			filter = "ORDER BY id DESC";
+			listOrder = QuestionOrder.NEWEST;
+			searchOrder = listOrder;
 			break;
 		}
 		
@@ -162,50 +199,64 @@ public class QuestionSearchPage {
 		switch (filterType) {
 		case "All":
 			filter = "";
+			resolvedFilter = null;
 			break;
 		case "Unresolved":
 			filter = "resolved = FALSE";
+			resolvedFilter = false;
 			break;
 		case "Resolved":
 			filter = "resolved = TRUE";
+			resolvedFilter = true;
 			break;
 		case "My Questions":
 			filter = "userId = " + userId;
+			resolvedFilter = null;
 			break;
 		case "My Unresolved":
 			filter = "resolved = FALSE AND userId = " + userId;
+			resolvedFilter = false;
 			break;
 		case "My Resolved":
 			filter = "resolved = TRUE AND userId = " + userId;
+			resolvedFilter = true;
 			break;
 		default:
 			filter = "";
+			resolvedFilter = null;
 			break;
 		}
 		
 		searchQuestions();
 	}
 	
-	// Find questions based on search bar input
+	// Find questions based on search bar input right away, the list updates once they are loaded
 	public void searchQuestions() {
-		String searchText = searchBar.getText().trim();
+		searchPipeline.refresh();
+	}
+	
+	// Get the query for the search bar input, run in the background by the search pipeline
+	private Function<DatabaseHelper, List<QuestionLightweightDTO>> prepareSearch(String searchText, QueryCancellation cancellation) {
+		String searchFilter = filter;
 		
-		if (searchBar.getText().trim().isEmpty()) { // Show all questions
-			if (filter != "") {
-				questions = databaseHelper.getAllQuestions("WHERE " + filter + " " + sort);
-			} else {
-				questions = databaseHelper.getAllQuestions(sort);
-			}
+		if (searchText.isEmpty()) { // Show all questions, starting with the first page
+			QuestionOrder pageOrder = listOrder;
+			return db -> db.getQuestions(searchFilter, pageOrder, null, QUESTION_PAGE_SIZE, cancellation);
 		} else {
-			// Search using keywords
-			if (filter != "") {
-				questions = DatabaseHelper.searchQuestions(searchText, filter, sort);
-			} else {
-				questions = DatabaseHelper.searchQuestions(searchText, filter, sort); 
-			}
-	      }  
+			// Search using keywords, starting with the first page
+			QuestionSearch search = new QuestionSearch(searchText);
+			QuestionOrder pageOrder = searchOrder;
+			keywordSearch = search;
+			return db -> search.getPage(searchFilter, pageOrder, null, QUESTION_PAGE_SIZE, cancellation);
+		}
+	}
 	
-		loadQuestions();
+	// Filter the results of the last search for the keyword the user kept typing, only once they were all read
+	private List<QuestionLightweightDTO> refineSearch(List<QuestionLightweightDTO> previousResults, String previousText, String searchText) {
+		if (previousResults.size() >= QUESTION_PAGE_SIZE) {
+			return null; // Only the first page was read, the rest could have matches
+		}
+		return DatabaseHelper.refineQuestionSearch(previousResults, previousText, searchText, searchOrder);
 	}
 	
 	// Create the list view for all questions
@@ -213,6 +264,7 @@ public class QuestionSearchPage {
 		questionList = new ListView<>();
 		questionList.setFocusTraversable(true);
 		setQuestionListCellFactory();
+		questionPages = new PagedList<>(databaseHelper, questionList, QUESTION_PAGE_SIZE);
 		
 		// Set placeholder for event there are no questions for search
 		Label noResults = new Label("No results");
@@ -242,67 +294,95 @@ public class QuestionSearchPage {
 	
 	// Set custom cell factory format for listed questions
 	public void setQuestionListCellFactory() {
-		questionList.setCellFactory(parameter -> new ListCell<QuestionLightweightDTO>() {
-			@Override
-			protected void updateItem(QuestionLightweightDTO question, boolean empty) {
-				super.updateItem(question, empty);
-				if (empty || question == null) {
-					setGraphic(null);
-				} else {
-					// Create a layout for each question
-	                VBox layout = new VBox();
-	                layout.setStyle("-fx-alignment: top-left; -fx-padding: 5;");
-
-	                // Title Label
-	                Label titleLabel = new Label(question.getTitle());
-	                titleLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
-	                titleLabel.setWrapText(true);
-	                titleLabel.setPrefWidth(questionList.getWidth() - 40);
-
-	                // Wrap text (this is the only work around I found because wrapping the text like normal doesn't work well for a ListView)
-	                questionList.widthProperty().addListener((observable, oldValue, newValue) -> {
-	                    titleLabel.setPrefWidth(newValue.doubleValue() - 40); // Adjust width based on the ListView width minus padding
-	                });
-
-	                // User Label
-	                Label userLabel = new Label("Author: " + databaseHelper.getQuestionUsername(question.getQuestionId())); // Display username of who created the question
-	                userLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: gray;");
-	                userLabel.setWrapText(true);
-	                userLabel.setPrefWidth(questionList.getWidth() - 40);
-
-	                // Wrap text (this is the only work around I found because wrapping the text like normal doesn't work well for a ListView)
-	                questionList.widthProperty().addListener((observable, oldValue, newValue) -> {
-	                	userLabel.setPrefWidth(newValue.doubleValue() - 40); // Adjust width based on the ListView width minus padding
-	                });
-	                
-	                layout.getChildren().addAll(titleLabel, userLabel);
-	                
-	                // Add unread potential answer count if question is not resolved
-	                if (question.getUserId() == userId && !databaseHelper.isResolved(question.getQuestionId())) {
-	                	// Unread Label
-		                Label unreadLabel = new Label("Unread: " + databaseHelper.getQuestionUnreadCount(question.getQuestionId())); // Display number of unread potential answers
-		                unreadLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: gray;");
-		                unreadLabel.setWrapText(true);
-		                unreadLabel.setPrefWidth(questionList.getWidth() - 40);
+		questionList.setCellFactory(parameter -> new QuestionCell(userId));
+	}
 	
-		                // Wrap text (this is the only work around I found because wrapping the text like normal doesn't work well for a ListView)
-		                questionList.widthProperty().addListener((observable, oldValue, newValue) -> {
-		                	unreadLabel.setPrefWidth(newValue.doubleValue() - 40); // Adjust width based on the ListView width minus padding
-		                });
-		                
-		                layout.getChildren().add(unreadLabel);
-	                }
-	                
-	                setGraphic(layout);
-				}
+	/**
+	 * A row of the question list: the title, the author and answer count and, on the user's
+	 * own unresolved questions, the number of unread potential answers.
+	 */
+	static class QuestionCell extends ListRowCell<QuestionLightweightDTO> {
+		private final int userId;
+		private final Label titleLabel = addLine("-fx-font-size: 14px; -fx-font-weight: bold;");
+		private final Label userLabel = addLine("-fx-font-size: 12px; -fx-text-fill: gray;");
+		private final Label unreadLabel = addLine("-fx-font-size: 12px; -fx-text-fill: gray;");
+		
+		QuestionCell(int userId) {
+			this.userId = userId;
+		}
+		
+		@Override
+		protected void show(QuestionLightweightDTO question) {
+			titleLabel.setText(question.getTitle());
+			userLabel.setText("Author: " + question.getAuthorName() + "    Answers: " + question.getAnswerCount()); // Display username of who created the question and the answer count
+			
+			// Add unread potential answer count if question is not resolved
+			boolean showUnread = question.getUserId() == userId && !question.isResolved();
+			setShown(unreadLabel, showUnread);
+			if (showUnread) {
+				unreadLabel.setText("Unread: " + question.getUnreadCount()); // Display number of unread potential answers
 			}
+		}
+	}
+	
+	// Show the first page of a search's results, the rest are read as the list is scrolled
+	private void showQuestions(String searchText, List<QuestionLightweightDTO> results) {
+		String pageFilter = filter;
+		if (searchText.isEmpty()) {
+			QuestionOrder pageOrder = listOrder;
+			questionPages.show(results, (last, cancellation) -> db -> db.getQuestions(pageFilter, pageOrder, last, QUESTION_PAGE_SIZE, cancellation));
+		} else {
+			// Refined results are every result, there is no page after them
+			QuestionSearch search = keywordSearch;
+			QuestionOrder pageOrder = searchOrder;
+			questionPages.show(results, (last, cancellation) -> db -> search.getPage(pageFilter, pageOrder, last, QUESTION_PAGE_SIZE, cancellation));
+		}
+	}
+	
+	// A listed question got an answer, the author has one more unread potential answer unless they wrote it
+	private void answerAdded(DomainEvent.AnswerAdded event) {
+		updateQuestion(event.getQuestionId(), question -> copy(question, question.isResolved(),
+				question.getUnreadCount() + (event.getUserId() != question.getUserId() ? 1 : 0), question.getAnswerCount() + 1));
+	}
+	
+	private void answerDeleted(DomainEvent.AnswerDeleted event) {
+		updateQuestion(event.getQuestionId(), question -> copy(question, question.isResolved(),
+				question.getUnreadCount(), Math.max(question.getAnswerCount() - 1, 0)));
+	}
+	
+	// A listed question was resolved or unresolved, it leaves the list if the filter no longer matches it
+	private void questionResolved(DomainEvent.QuestionResolved event) {
+		updateQuestion(event.getQuestionId(), question -> {
+			if (resolvedFilter != null && resolvedFilter != event.isResolved()) {
+				return null;
+			}
+			return copy(question, event.isResolved(), question.getUnreadCount(), question.getAnswerCount());
 		});
 	}
 	
-	// Load questions into question list
-	public void loadQuestions() {
-		questionList.getItems().clear();
-		questionList.getItems().addAll(questions);
+	// Replace a listed question with its update, or take it out of the list if the update returns null
+	private void updateQuestion(int questionId, UnaryOperator<QuestionLightweightDTO> update) {
+		UnaryOperator<QuestionLightweightDTO> updateMatching = question -> question.getQuestionId() == questionId ? update.apply(question) : question;
+		
+		ListIterator<QuestionLightweightDTO> items = questionList.getItems().listIterator();
+		while (items.hasNext()) {
+			QuestionLightweightDTO question = items.next();
+			if (question.getQuestionId() == questionId) {
+				QuestionLightweightDTO updated = update.apply(question);
+				if (updated == null) {
+					items.remove();
+				} else {
+					items.set(updated); // Only the cell showing it is updated
+				}
+				break;
+			}
+		}
+		searchPipeline.updateShown(updateMatching);
+	}
+	
+	private static QuestionLightweightDTO copy(QuestionLightweightDTO question, boolean resolved, int unreadCount, int answerCount) {
+		return new QuestionLightweightDTO(question.getQuestionId(), question.getUserId(), question.getTitle(),
+				question.getAuthorName(), resolved, unreadCount, answerCount);
 	}
 	
 	// Load selected question on select event
@@ -312,10 +392,11 @@ public class QuestionSearchPage {
 		// Reset unread count if author is opening question
 		if (userId == question.getUserId()) {
 			databaseHelper.resetQuestionUnreadCount(question.getQuestionId());
+			updateQuestion(question.getQuestionId(), listed -> copy(listed, listed.isResolved(), 0, listed.getAnswerCount()));
 		}
 		
 		// Load question page
-		new QuestionPage(databaseHelper, this, userId, question.getQuestionId()).show(primaryStage);
+		new QuestionPage(databaseHelper, userId, question.getQuestionId()).show(primaryStage);
 	}
 	
 	// Create action bar
@@ -325,14 +406,14 @@ public class QuestionSearchPage {
 		actionBar.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
 		
 		// Left button flags
-		boolean canCreateQuestions = databaseHelper.getUserRole(userId).contains("student");
+		boolean canCreateQuestions = databaseHelper.getSession().hasRole(Role.STUDENT);
 
 		if (canCreateQuestions) {
 			// New question button
 			Button newQuestion = new Button("New Question");
 			newQuestion.setOnAction(a -> {
 				// Load question draft page
-				new QuestionDraftPage(databaseHelper, this, userId, -1).show(primaryStage); // -1 for no parent question
+				new QuestionDraftPage(databaseHelper, userId, -1).show(primaryStage); // -1 for no parent question
 			});
 			actionBar.getChildren().add(newQuestion);
 		}
@@ -344,8 +425,7 @@ public class QuestionSearchPage {
 		
 		Button backButton = new Button("Back to home");
 		backButton.setOnAction(a -> {
-			primaryStage.setScene(previousScene);
-			primaryStage.setTitle(previousTitle);
+			Router.of(primaryStage).back();
 		});
 		
 		actionBar.getChildren().addAll(spacer, backButton);
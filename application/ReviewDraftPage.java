@@ -17,7 +17,6 @@ import javafx.stage.Stage;
 public class ReviewDraftPage {
 
 	private DatabaseHelper databaseHelper;
-	private ReviewPage reviewPage; // For refreshing when returning to review page
 	private int userId;
 	private int qaId;
 	private boolean forQuestion;
@@ -29,21 +28,17 @@ public class ReviewDraftPage {
 	private Label contentErrorLabel;
 	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
 	
-	public ReviewDraftPage(DatabaseHelper databaseHelper, ReviewPage reviewPage, int userId, int qaId, boolean forQuestion) {
+	public ReviewDraftPage(DatabaseHelper databaseHelper, int userId, int qaId, boolean forQuestion) {
 		this.databaseHelper = databaseHelper;
-		this.reviewPage = reviewPage;
 		this.userId = userId;
 		this.qaId = qaId;
 		this.forQuestion = forQuestion;
 		this.reviewIdToUpdate = -1;
 	}
 	
-	public ReviewDraftPage(DatabaseHelper databaseHelper, ReviewPage reviewPage, int userId, int qaId, boolean forQuestion, int reviewIdToUpdate) {
+	public ReviewDraftPage(DatabaseHelper databaseHelper, int userId, int qaId, boolean forQuestion, int reviewIdToUpdate) {
 		this.databaseHelper = databaseHelper;
-		this.reviewPage = reviewPage;
 		this.userId = userId;
 		this.qaId = qaId;
 		this.forQuestion = forQuestion;
@@ -52,8 +47,7 @@ public class ReviewDraftPage {
 	
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, null); // A draft opens nothing above it, so it is never dropped
 		
 		VBox layout = new VBox(10);
 	    layout.setStyle("-fx-alignment: center;");
@@ -228,17 +222,16 @@ public class ReviewDraftPage {
 			String errorMessage = Review.validate(review);
 			if (errorMessage == "") {
 				if (reviewIdToUpdate != -1) {
-					// Update answer
+					// Update answer, the review page shows the edit when the ReviewEdited event arrives
 					databaseHelper.updateReviewContent(reviewIdToUpdate, review.getContent());
 					System.out.println("Updated review!");
+					backToQuestion();
 				} else {
-					// Post new answer
+					// Post new answer, the review page adds it when the ReviewAdded event arrives
 					databaseHelper.addReview(review);
 					System.out.println("Posted review!");
+					backToQuestion();
 				}
-				
-				// Back to question search page
-				backToQuestion();
 			} else {
 				// Set error message
 				contentErrorLabel.setText(errorMessage);
@@ -263,16 +256,12 @@ public class ReviewDraftPage {
 	}
 	
 	public void backToQuestion() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
 		 * style but that didn't work, it is most likely something that
 		 * is not worth fixing unless it causes errors down the road.
 		 */
-		
-		// Reload question page
-		reviewPage.load();
 	}
 }
@@ -1,8 +1,15 @@
 package application;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import database.DatabaseHelper;
+import database.DomainEvent;
+import database.DomainEventBus;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
@@ -17,7 +24,6 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
-import javafx.scene.paint.Color;
 import javafx.stage.Stage;
 
 public class ReviewPage {
@@ -27,19 +33,23 @@ public class ReviewPage {
 	private boolean forQuestion;
 	
 	private List<ReviewLightweightDTO> reviews;
+	private ReviewPageData data;
+	private int loadCount = 0; // Number of the newest load, so an older one that finishes late is ignored
 	
-	// Icons
+	// Icons, shared by every page
 	private final int ICON_SIZE = 16;
-	private Image editIcon = new Image(getClass().getResource("/images/editIcon.png").toExternalForm());
-	private Image trashIcon = new Image(getClass().getResource("/images/trashIcon.png").toExternalForm());
-	private Image messageIcon = new Image(getClass().getResource("/images/messageIcon.png").toExternalForm());
+	private final Image editIcon = ImageRegistry.get(ImageRegistry.Icon.EDIT);
+	private final Image trashIcon = ImageRegistry.get(ImageRegistry.Icon.TRASH);
+	private final Image messageIcon = ImageRegistry.get(ImageRegistry.Icon.MESSAGE);
 	
 	private VBox scrollLayout;
+	private Label reviewLabel;
+	private Map<Integer, Label> reviewContents = new HashMap<>(); // Content of each shown review, by review id
+	private Map<Integer, Button> messageButtons = new HashMap<>(); // Message button of each shown review, by review id
 	private boolean sortByTrusted;
 	
 	private Stage primaryStage;
-	private Scene previousScene;
-	private String previousTitle;
+	private Scene reviewPageScene;
 
 	public ReviewPage(DatabaseHelper databaseHelper, int userId, int qaId, boolean forQuestion) {
 		this.databaseHelper = databaseHelper;
@@ -50,15 +60,96 @@ public class ReviewPage {
 		sortByTrusted = false;
 	}
 	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper, int userId, int qaId, boolean forQuestion) {
+		return stage -> new ReviewPage(databaseHelper, userId, qaId, forQuestion).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
 		this.primaryStage = primaryStage;
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper, userId, qaId, forQuestion));
+		
+		// Patch the page as reviews are posted or edited and messages about them change instead of reading it again
+		DomainEventBus events = databaseHelper.events();
+		events.subscribe(this, DomainEvent.ReviewAdded.class, this::reviewAdded);
+		events.subscribe(this, DomainEvent.ReviewEdited.class, this::reviewEdited);
+		events.subscribe(this, DomainEvent.MessageSent.class, this::messageSent);
+		events.subscribe(this, DomainEvent.MessagesRead.class, this::messagesRead);
 		
 		load();
 	}
 	
+	/**
+	 * Everything the page shows, loaded together in the background.
+	 */
+	private static class ReviewPageData {
+		private Question question; // Set when reviewing a question
+		private Answer answer; // Set when reviewing an answer
+		private String authorName;
+		private List<ReviewLightweightDTO> reviews;
+		private Map<Integer, String> reviewerNames = new HashMap<>();
+		private Set<Integer> trustedReviewers = new HashSet<>();
+		private RoleSet roles;
+		private boolean hasRequestedReviewerRole;
+		private Map<Integer, Integer> unreadMessages; // Unread messages about each review, by review id
+	}
+	
+	// Loads screen contents in the background, showing the page as loading until they arrive
 	public void load() {
+		int loadNumber = ++loadCount;
+		boolean trustedOnly = sortByTrusted;
+		LoadingView.show(primaryStage, reviewPageScene, "Loading reviews...");
+		
+		databaseHelper.async().supply(db -> fetch(db, trustedOnly)).thenAccept(pageData -> {
+			if (loadNumber == loadCount) {
+				data = pageData;
+				display();
+			}
+		});
+	}
+	
+	// Runs in the background, so it only reads from the database
+	private ReviewPageData fetch(DatabaseHelper db, boolean trustedOnly) {
+		ReviewPageData pageData = new ReviewPageData();
+		
+		if (forQuestion) {
+			pageData.question = db.getQuestion(qaId);
+			pageData.authorName = db.getQuestionUsername(qaId);
+		} else {
+			pageData.answer = db.getAnswer(qaId);
+			pageData.authorName = db.getAnswerUsername(qaId);
+		}
+		
+		SessionPrincipal session = db.getSession();
+		if (trustedOnly) {
+			pageData.reviews = db.getAllTrustedReviews(qaId, forQuestion, session.getTrustedReviewerWeights());
+		} else {
+			pageData.reviews = db.getAllReviews(qaId, forQuestion);
+		}
+		
+		pageData.roles = session.getRoles();
+		pageData.hasRequestedReviewerRole = db.hasRequestedRole(userId, "reviewer");
+		pageData.unreadMessages = db.getUnreadMessageCounts(userId, "review");
+		
+		// Reviewer names and which reviewers the user trusts, looked up once per reviewer
+		for (ReviewLightweightDTO review : pageData.reviews) {
+			int reviewerId = review.getUserId();
+			if (pageData.reviewerNames.containsKey(reviewerId)) {
+				continue;
+			}
+			
+			UserLightweightDTO reviewer = db.getUser(reviewerId);
+			pageData.reviewerNames.put(reviewerId, reviewer == null ? "" : reviewer.getUserName());
+			
+			if (reviewerId != userId && pageData.roles.contains(Role.STUDENT) && session.trusts(reviewerId)) {
+				pageData.trustedReviewers.add(reviewerId);
+			}
+		}
+		
+		return pageData;
+	}
+	
+	// Builds the screen from the loaded contents
+	public void display() {
 		VBox layout = new VBox();
 		layout.setStyle("-fx-alignment: top-center;");
 	    layout.setSpacing(10);
@@ -72,7 +163,7 @@ public class ReviewPage {
 	    layoutScrollPane.setFitToWidth(true);
 	    VBox.setVgrow(layoutScrollPane, Priority.ALWAYS);
 	    
-	    loadReviews();
+	    formatReviews();
 	    
 	    // Add pageBar
 	    HBox pageBar = createPageBar(layout);
@@ -81,20 +172,22 @@ public class ReviewPage {
 	    layout.getChildren().addAll(layoutScrollPane, pageBar);
 	    
 		// Set the scene to primary stage
-	    Scene reviewPageScene = new Scene(layout, 800, 400);
+	    reviewPageScene = new Scene(layout, 800, 400);
 	    primaryStage.setScene(reviewPageScene);
 	    primaryStage.setTitle("Review Page");
 	}
 	
-	// Load the reviews into the scroll layout
+	// Reload the reviews
 	public void loadReviews() {
+		load();
+	}
+	
+	// Add the loaded reviews to the scroll layout
+	public void formatReviews() {
 		scrollLayout.getChildren().clear();
-		
-		if (sortByTrusted) {
-			reviews = databaseHelper.getAllTrustedReviews(qaId, forQuestion, userId);
-		} else {
-			reviews = databaseHelper.getAllReviews(qaId, forQuestion);
-		}
+		reviewContents.clear();
+		messageButtons.clear();
+		reviews = data.reviews;
 		
 		// Format question or answer
 	    if (forQuestion) {
@@ -104,7 +197,7 @@ public class ReviewPage {
 	    }
 	    
 	    // Add separators and reviews
-	    Label reviewLabel = new Label(reviews.size() + " Review" + (reviews.size() == 1 ? "" : "s"));
+	    reviewLabel = new Label(formatReviewCount(reviews.size()));
 	    reviewLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
 	    scrollLayout.getChildren().addAll(new Separator(), reviewLabel, new Separator());
 	    
@@ -117,12 +210,80 @@ public class ReviewPage {
 	    }
 	}
 	
+	public String formatReviewCount(int reviewCount) {
+		return reviewCount + " Review" + (reviewCount == 1 ? "" : "s");
+	}
+	
+	// Add a review posted for this question or answer below the others
+	private void reviewAdded(DomainEvent.ReviewAdded event) {
+		if (event.isForQuestion() != forQuestion || event.getQaId() != qaId || data == null) {
+			return;
+		}
+		if (sortByTrusted) {
+			load(); // Whether it is listed, and where, depends on the user's trusted reviewers
+			return;
+		}
+		
+		int loadNumber = loadCount;
+		int reviewerId = event.getReviewerId();
+		databaseHelper.async().supply(db -> db.getUser(reviewerId)).thenAccept(reviewer -> {
+			if (loadNumber != loadCount || messageButtons.containsKey(event.getReviewId())) {
+				return; // A newer load shows it already
+			}
+			data.reviewerNames.putIfAbsent(reviewerId, reviewer == null ? "" : reviewer.getUserName());
+			
+			ReviewLightweightDTO review = new ReviewLightweightDTO(event.getReviewId(), reviewerId, event.getContent());
+			reviews.add(review);
+			scrollLayout.getChildren().addAll(formatReview(scrollLayout, review), new Separator());
+			reviewLabel.setText(formatReviewCount(reviews.size()));
+		});
+	}
+	
+	// Show the new content of a shown review
+	private void reviewEdited(DomainEvent.ReviewEdited event) {
+		Label content = reviewContents.get(event.getReviewId());
+		if (content == null) {
+			return;
+		}
+		for (int i = 0; i < reviews.size(); i++) {
+			ReviewLightweightDTO review = reviews.get(i);
+			if (review.getReviewId() == event.getReviewId()) {
+				reviews.set(i, new ReviewLightweightDTO(review.getReviewId(), review.getUserId(), event.getContent()));
+				break;
+			}
+		}
+		content.setText(event.getContent());
+	}
+	
+	private void messageSent(DomainEvent.MessageSent event) {
+		if (event.getRecipientId() == userId && !event.isRead()) {
+			changeUnreadMessages(event.getParentType(), event.getParentId(), 1);
+		}
+	}
+	
+	private void messagesRead(DomainEvent.MessagesRead event) {
+		if (event.getUserId() == userId) {
+			changeUnreadMessages(event.getParentType(), event.getParentId(), -event.getCount());
+		}
+	}
+	
+	// Change the unread count on the message button of a shown review
+	private void changeUnreadMessages(String parentType, int reviewId, int change) {
+		Button messageButton = messageButtons.get(reviewId);
+		if (!parentType.equals("review") || messageButton == null) {
+			return;
+		}
+		int unread = data.unreadMessages.getOrDefault(reviewId, 0) + change;
+		data.unreadMessages.put(reviewId, unread);
+		UnreadBadge.apply(messageButton, unread);
+	}
+	
 	public VBox formatQuestion(VBox parent) {
 		VBox questionDisplay = new VBox();
 	    questionDisplay.setStyle("-fx-alignment: top-left; -fx-padding: 0px;");
 		questionDisplay.setSpacing(5);
 		
-		Question question = databaseHelper.getQuestion(qaId);
+		Question question = data.question;
 		
 		// Check if question exists
 		if (question == null) {
@@ -162,7 +323,7 @@ public class ReviewPage {
 	
 	public void formatQuestionInfo(VBox info) {
 		// Add Author
-		Label author = new Label("Author: " + databaseHelper.getQuestionUsername(qaId));
+		Label author = new Label("Author: " + data.authorName);
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
 		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
@@ -175,7 +336,7 @@ public class ReviewPage {
 	    answerDisplay.setStyle("-fx-alignment: top-left; -fx-padding: 0px;");
 	    answerDisplay.setSpacing(5);
 		
-		Answer answer = databaseHelper.getAnswer(qaId);
+		Answer answer = data.answer;
 		
 		// Check if answer exists
 		if (answer == null) {
@@ -207,7 +368,7 @@ public class ReviewPage {
 	
 	public void formatAnswerInfo(VBox info) {
 		// Add Author
-		Label author = new Label("Author: " + databaseHelper.getAnswerUsername(qaId));
+		Label author = new Label("Author: " + data.authorName);
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
 		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
@@ -231,6 +392,7 @@ public class ReviewPage {
 	    content.setWrapText(true);
 	    content.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
 	    reviewDisplay.getChildren().add(content);
+	    reviewContents.put(review.getReviewId(), content);
 	    
 	    // Review Info
 	    VBox info = new VBox();
@@ -248,7 +410,7 @@ public class ReviewPage {
 	
 	public void formatReviewInfo(VBox info, ReviewLightweightDTO review) {
 		// Add Author
-		Label author = new Label("Author: " + databaseHelper.getUser(review.getUserId()).getUserName());
+		Label author = new Label("Author: " + data.reviewerNames.get(review.getUserId()));
 		author.setStyle("-fx-font-size: 12px;");
 		author.setWrapText(true);
 		author.maxWidthProperty().bind(info.widthProperty().subtract(info.getPadding().getLeft() + info.getPadding().getRight()));
@@ -266,25 +428,23 @@ public class ReviewPage {
 		
 		// Left button flags
 		boolean canSetTrustedReviewer = userId != review.getUserId()
-				&& databaseHelper.getUserRole(userId).contains("student");
+				&& data.roles.contains(Role.STUDENT);
 		
 		if (canSetTrustedReviewer) {
 			Button setTrustedButton;
-			if (!databaseHelper.studentTrustsReviewer(userId, review.getUserId())) {
+			if (!data.trustedReviewers.contains(review.getUserId())) {
 				// User does not currently trust reviewer
 				setTrustedButton = new Button("Trust Reviewer");
 				setTrustedButton.setOnAction(a -> {
-					// Add trusted reviewer
+					// Add trusted reviewer, reloads once it is saved
 					addTrustedReviewer(userId, review.getUserId(), setTrustedButton);
-					loadReviews();
 				});
 			} else {
 				// User trusts reviewer already
 				setTrustedButton = new Button("Untrust Reviewer");
 				setTrustedButton.setOnAction(a -> {
 					// Delete trusted reviewer
-					databaseHelper.deleteTrustedReviewer(userId, review.getUserId());
-					loadReviews();
+					databaseHelper.async().run(db -> db.deleteTrustedReviewer(userId, review.getUserId())).thenRun(this::loadReviews);
 				});
 			}
 			actionBar.getChildren().add(setTrustedButton);
@@ -308,12 +468,13 @@ public class ReviewPage {
 			actionBar.getChildren().addAll(editButton, trashButton);
 		}
 		
-		Button pmButton = createMessageButton();
+		Button pmButton = createMessageButton(data.unreadMessages.getOrDefault(reviewId, 0));
  		pmButton.setOnAction(a -> {
  			// Load review page
  			messageClicked("review", reviewId, review.getUserId());
  		});
 	 	actionBar.getChildren().add(pmButton);
+	 	messageButtons.put(reviewId, pmButton);
 		
 		return actionBar;
 	}
@@ -339,7 +500,8 @@ public class ReviewPage {
                 if (weight < 1 || weight > 10) {
                     showErrorAlert("Invalid Weight", "The weight must be between 1 and 10.");
                 } else {
-                    databaseHelper.addTrustedReviewer(studentId, reviewerId, weight); // Add trusted reviewer
+                    // Add trusted reviewer
+                    databaseHelper.async().run(db -> db.addTrustedReviewer(studentId, reviewerId, weight)).thenRun(this::loadReviews);
                 }
             } catch (NumberFormatException e) {
                 showErrorAlert("Invalid Input", "Please enter a valid integer for the weight.");
@@ -393,14 +555,13 @@ public class ReviewPage {
 	
 	// Open answer in draft editor
 	public void editClicked(int reviewId) {
-		new ReviewDraftPage(databaseHelper, this, userId, qaId, forQuestion, reviewId).show(primaryStage);
+		new ReviewDraftPage(databaseHelper, userId, qaId, forQuestion, reviewId).show(primaryStage);
 	}
 	
 	// Delete answer if author confirms
 	public void trashClicked(int reviewId) {
 		if (new ConfirmDelete().show("Are you sure you want to delete this answer?")) {
-			databaseHelper.deleteReview(reviewId);
-			load();
+			databaseHelper.async().run(db -> db.deleteReview(reviewId)).thenRun(this::load);
 		}
 	}
 	
@@ -410,18 +571,17 @@ public class ReviewPage {
 		pageBar.setStyle("-fx-alignment: center-left; -fx-padding: 0 20 20 20;");
 		pageBar.maxWidthProperty().bind(parent.widthProperty().subtract(parent.getPadding().getLeft() + parent.getPadding().getRight()));
 		
-		boolean canReview = databaseHelper.getUserRole(userId).contains("student")
-				|| databaseHelper.getUserRole(userId).contains("reviewer");
-		boolean canRequestReviewerRole = databaseHelper.getUserRole(userId).contains("student") &&
-				!databaseHelper.getUserRole(userId).contains("reviewer");
-		boolean canHaveTrustedReviewers = databaseHelper.getUserRole(userId).contains("student");
+		RoleSet roles = data.roles;
+		boolean canReview = roles.contains(Role.STUDENT) || roles.contains(Role.REVIEWER);
+		boolean canRequestReviewerRole = roles.contains(Role.STUDENT) && !roles.contains(Role.REVIEWER);
+		boolean canHaveTrustedReviewers = roles.contains(Role.STUDENT);
 		
 		if (canReview) {
 			// New Review button
 			Button newReviewButton = new Button("New Review");
 			newReviewButton.setOnAction(a -> {
 				// Load review draft page
-				new ReviewDraftPage(databaseHelper, this, userId, qaId, forQuestion).show(primaryStage);
+				new ReviewDraftPage(databaseHelper, userId, qaId, forQuestion).show(primaryStage);
 			});
 			pageBar.getChildren().add(newReviewButton);
 		}
@@ -429,12 +589,13 @@ public class ReviewPage {
 		if (canRequestReviewerRole) {
 			// Request Review Role button
 			Button requestReviewRoleButton = new Button("Request Reviewer Role");
-			if (databaseHelper.hasRequestedRole(userId, "reviewer")) {
+			if (data.hasRequestedReviewerRole) {
 				requestReviewRoleButton.setDisable(true);
 				requestReviewRoleButton.setText("Role Requested: pending");
 			} else {
 				requestReviewRoleButton.setOnAction(a -> {
-					databaseHelper.addRoleRequest(userId, "reviewer");
+					databaseHelper.async().run(db -> db.addRoleRequest(userId, "reviewer"));
+					data.hasRequestedReviewerRole = true;
 					
 					requestReviewRoleButton.setDisable(true);
 					requestReviewRoleButton.setText("Role Requested: pending");
@@ -482,7 +643,7 @@ public class ReviewPage {
 		return pageBar;
 	}
 	
-	public Button createMessageButton() {
+	public Button createMessageButton(int unreadMessages) {
 		ImageView messageImage = new ImageView(messageIcon);
 		messageImage.setFitWidth(ICON_SIZE);
 		messageImage.setFitHeight(ICON_SIZE);
@@ -490,10 +651,7 @@ public class ReviewPage {
 		
 		Button messageButton = new Button();
 		messageButton.setGraphic(messageImage);
-		// databaseHelper.getUser(userId).getHasUnreadMsgs()
-		if (true) {
-			messageButton.setTextFill(Color.CORNFLOWERBLUE);
-		}
+		UnreadBadge.apply(messageButton, unreadMessages);
 		
 		return messageButton;
 	}
@@ -510,8 +668,7 @@ public class ReviewPage {
 	
 	
 	public void back() {
-		primaryStage.setScene(previousScene);
-		primaryStage.setTitle(previousTitle);
+		Router.of(primaryStage).back();
 		/*
 		 * There is a warning when trying to load previous
 		 * scenes where the style is different. I tried storing the previous
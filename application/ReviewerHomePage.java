@@ -47,7 +47,7 @@ public class ReviewerHomePage {
 	    	new SetupLoginSelectionPage(databaseHelper).show(primaryStage);
 	    });
 
-	    layout.getChildren().addAll(reviewerLabel, questionButton, myReviewsButton, logoutButton);
+	    layout.getChildren().addAll(reviewerLabel, UnreadBadge.forUser(databaseHelper, userId), questionButton, myReviewsButton, logoutButton);
 	    Scene reviewerScene = new Scene(layout, 800, 400);
 
 	    // Set the scene to primary stage
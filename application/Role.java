@@ -0,0 +1,50 @@
+package application;
+
+/**
+ * The Role enum lists the roles a user can have. Each role has a fixed id, which is
+ * what the userRoles table stores and which bit the role takes in a RoleSet, and the
+ * name the pages show and role requests use.
+ */
+public enum Role {
+	ADMIN(0, "admin"),
+	STUDENT(1, "student"),
+	INSTRUCTOR(2, "instructor"),
+	STAFF(3, "staff"),
+	REVIEWER(4, "reviewer");
+
+	private final int id;
+	private final String name;
+
+	Role(int id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	public int getId() { return id; }
+	public String getName() { return name; }
+
+	// Returns null if no role has this id
+	public static Role fromId(int id) {
+		for (Role role : values()) {
+			if (role.id == id) {
+				return role;
+			}
+		}
+		return null;
+	}
+
+	// Returns null if no role has this name
+	public static Role fromName(String name) {
+		for (Role role : values()) {
+			if (role.name.equals(name)) {
+				return role;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -1,9 +1,11 @@
 package application;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import database.DatabaseHelper;
 import javafx.scene.Scene;
@@ -12,7 +14,6 @@ import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
-import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
@@ -25,23 +26,27 @@ public class RoleRequestsPage {
 	private DatabaseHelper databaseHelper;
 	
 	private List<Map<String, Object>> roleRequests;
+	private Map<Integer, String> userNames = new HashMap<>(); // Names of the requesting users
+	private int searchCount = 0; // Number of the newest search, so an older one that finishes late is ignored
 	
 	private ListView<Map<String, Object>> requestList;
+	private Label placeholder;
 	private HBox actionBar;
 	
 	private String sort = "ORDER BY id ASC";
 	private List<String> filter = Arrays.asList("reviewer"); // All roles that can be requested
 	
-	private Scene previousScene;
-	private String previousTitle;
 	
 	public RoleRequestsPage(DatabaseHelper databaseHelper) {
 		this.databaseHelper = databaseHelper;
 	}
 	
+	private static Consumer<Stage> reopen(DatabaseHelper databaseHelper) {
+		return stage -> new RoleRequestsPage(databaseHelper).show(stage);
+	}
+	
 	public void show(Stage primaryStage) {
-		previousScene = primaryStage.getScene();
-		previousTitle = primaryStage.getTitle();
+		Router.of(primaryStage).push(this, reopen(databaseHelper));
 		
     	VBox layout = new VBox();
 	    layout.setStyle("-fx-alignment: top-center; -fx-padding: 20;");
@@ -159,10 +164,41 @@ public class RoleRequestsPage {
 		searchRequests();
 	}
 	
-	// Find requests
+	// Find requests in the background, the list is disabled until they arrive
 	public void searchRequests() {
-		roleRequests = databaseHelper.getRoleRequests(filter, sort);
-		loadRequests();
+		int searchNumber = ++searchCount;
+		List<String> roles = filter;
+		String order = sort;
+		
+		requestList.setDisable(true);
+		placeholder.setText("Loading requests...");
+		
+		Map<Integer, String> names = new HashMap<>();
+		databaseHelper.async().supply(db -> {
+			List<Map<String, Object>> requests = db.getRoleRequests(roles, order);
+			
+			// Look up each requesting user once so the list cells don't have to
+			for (Map<String, Object> request : requests) {
+				int requestingUserId = (int) request.get("userId");
+				if (!names.containsKey(requestingUserId)) {
+					UserLightweightDTO user = db.getUser(requestingUserId);
+					names.put(requestingUserId, user == null ? "" : user.getUserName());
+				}
+			}
+			return requests;
+		}).whenComplete((requests, e) -> {
+			if (searchNumber != searchCount) {
+				return;
+			}
+			
+			requestList.setDisable(false);
+			placeholder.setText("No requests");
+			if (requests != null) {
+				userNames = names;
+				roleRequests = requests;
+				loadRequests();
+			}
+		});
 	}
 	
 	// Create the list view for all requests
@@ -172,9 +208,9 @@ public class RoleRequestsPage {
 		setRequestListCellFactory();
 		
 		// Set placeholder for event there are no requests
-		Label noResults = new Label("No requests");
-		noResults.setStyle("-fx-alignment: center; -fx-font-size: 20px; -fx-text-fill: gray;");
-		requestList.setPlaceholder(noResults);
+		placeholder = new Label("No requests");
+		placeholder.setStyle("-fx-alignment: center; -fx-font-size: 20px; -fx-text-fill: gray;");
+		requestList.setPlaceholder(placeholder);
 		
 		// Create event handler for when request is double clicked
 		requestList.setOnMouseClicked(event -> {
@@ -199,32 +235,21 @@ public class RoleRequestsPage {
 	
 	// Set custom cell factory format for listed requests
 	public void setRequestListCellFactory() {
-	    requestList.setCellFactory(parameter -> new ListCell<Map<String, Object>>() {
-	        @Override
-	        protected void updateItem(Map<String, Object> request, boolean empty) {
-	            super.updateItem(request, empty);
-	            if (empty || request == null) {
-	                setGraphic(null);
-	            } else {
-	                // Create layout for each role request
-	                VBox layout = new VBox();
-	                layout.setStyle("-fx-alignment: top-left; -fx-padding: 5;");
-
-	                // User Label
-	                UserLightweightDTO user = databaseHelper.getUser((int) request.get("userId"));
-	                Label userIdLabel = new Label("User: " + user.getUserName());
-	                userIdLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: gray;");
-
-	                // Role Label
-	                String role = (String) request.get("role");
-	                Label roleLabel = new Label("Requested Role: " + role);
-	                roleLabel.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
-
-	                layout.getChildren().addAll(userIdLabel, roleLabel);
-	                setGraphic(layout);
-	            }
-	        }
-	    });
+	    requestList.setCellFactory(parameter -> new RequestCell());
+	}
+	
+	/**
+	 * A row of the request list, the requesting user and the role they asked for.
+	 */
+	private class RequestCell extends ListRowCell<Map<String, Object>> {
+		private final Label userIdLabel = addLine("-fx-font-size: 12px; -fx-text-fill: gray;");
+		private final Label roleLabel = addLine("-fx-font-size: 14px; -fx-font-weight: bold;");
+		
+		@Override
+		protected void show(Map<String, Object> request) {
+			userIdLabel.setText("User: " + userNames.get((int) request.get("userId")));
+			roleLabel.setText("Requested Role: " + request.get("role"));
+		}
 	}
 
 	// Load requests into request list
@@ -237,12 +262,12 @@ public class RoleRequestsPage {
 	public void loadSelectedReview(Map<String, Object> request, Stage primaryStage) {
 		int requestId = (int) request.get("id");
 		int requestingUserId = (int) request.get("userId");
-		UserLightweightDTO user = databaseHelper.getUser(requestingUserId);
+		String userName = userNames.get(requestingUserId);
 		String role = (String) request.get("role");
 		if (role.equals("reviewer")) {
 			Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
 			alert.setTitle("Reviewer Role Request");
-			alert.setHeaderText("User: " + user.getUserName());
+			alert.setHeaderText("User: " + userName);
 			alert.setContentText("Do you want to approve, deny, or review the request?");
 			
 	        ButtonType approveButton = new ButtonType("Approve");
@@ -259,12 +284,15 @@ public class RoleRequestsPage {
 	            if (clickedButton == approveButton) {
 	                // Approve
 	            	System.out.println("Approving request.");
-	            	databaseHelper.addUserRole(requestingUserId, role);
-	            	databaseHelper.deleteRoleRequest(requestId);
+	            	// Either the role is added and the request is gone, or neither
+	            	databaseHelper.async().run(db -> db.approveRoleRequest(requestId, requestingUserId, Role.fromName(role)))
+	            		.thenRun(this::searchRequests); // Update list
+	            	return;
 	            } else if (clickedButton == denyButton) {
 	                // Deny
 	            	System.out.println("Denying request.");
-	            	databaseHelper.deleteRoleRequest(requestId);
+	            	databaseHelper.async().run(db -> db.deleteRoleRequest(requestId)).thenRun(this::searchRequests); // Update list
+	            	return;
 	            } else if (clickedButton == reviewButton) {
 	                // Show the users review page
 	                new MyReviewsPage(databaseHelper, requestingUserId, false).show(primaryStage);
@@ -288,8 +316,7 @@ public class RoleRequestsPage {
 		
 		Button backButton = new Button("Back to home");
 		backButton.setOnAction(a -> {
-			primaryStage.setScene(previousScene);
-			primaryStage.setTitle(previousTitle);
+			Router.of(primaryStage).back();
 		});
 		
 		actionBar.getChildren().addAll(spacer, backButton);
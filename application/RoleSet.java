@@ -0,0 +1,95 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * The RoleSet class holds the roles of a user as one bit per role, so checking a
+ * role is a single mask test instead of a search through role names. A RoleSet
+ * never changes, with() returns a new set.
+ */
+public final class RoleSet {
+
+	public static final RoleSet EMPTY = new RoleSet(0);
+
+	private final int bits;
+
+	private RoleSet(int bits) {
+		this.bits = bits;
+	}
+
+	public static RoleSet of(Role... roles) {
+		int bits = 0;
+		for (Role role : roles) {
+			bits |= bit(role);
+		}
+		return new RoleSet(bits);
+	}
+
+	// Names that are not a role are left out
+	public static RoleSet fromNames(Collection<String> names) {
+		int bits = 0;
+		for (String name : names) {
+			Role role = Role.fromName(name);
+			if (role != null) {
+				bits |= bit(role);
+			}
+		}
+		return new RoleSet(bits);
+	}
+
+	private static int bit(Role role) {
+		return 1 << role.getId();
+	}
+
+	public boolean contains(Role role) {
+		return (bits & bit(role)) != 0;
+	}
+
+	public RoleSet with(Role role) {
+		return new RoleSet(bits | bit(role));
+	}
+
+	public boolean isEmpty() {
+		return bits == 0;
+	}
+
+	public int size() {
+		return Integer.bitCount(bits);
+	}
+
+	// The roles in id order
+	public ArrayList<Role> toList() {
+		ArrayList<Role> roles = new ArrayList<>(size());
+		for (Role role : Role.values()) {
+			if (contains(role)) {
+				roles.add(role);
+			}
+		}
+		return roles;
+	}
+
+	// The role names in id order, for the pages that list roles by name
+	public ArrayList<String> getNames() {
+		ArrayList<String> names = new ArrayList<>(size());
+		for (Role role : toList()) {
+			names.add(role.getName());
+		}
+		return names;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof RoleSet && ((RoleSet) other).bits == bits;
+	}
+
+	@Override
+	public int hashCode() {
+		return bits;
+	}
+
+	@Override
+	public String toString() {
+		return String.join(", ", getNames());
+	}
+}
@@ -0,0 +1,142 @@
+package application;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import database.DomainEventBus;
+import javafx.scene.Scene;
+import javafx.stage.Stage;
+
+/**
+ * The Router class keeps the pages a user went through to reach the open one, so going back
+ * shows the page below again. Only the pages shown most recently keep their scene, going back
+ * to one of them is instant. A page further down is dropped (its scene, its nodes and its event
+ * subscriptions), and it is opened again from its reopen action once the user gets back to it,
+ * so memory stays bounded however long the session and however deep the user goes.
+ * Pages get the router of their window with Router.of.
+ */
+public class Router {
+
+	static final int RETAINED_PAGES = 6; // Pages below the open one that keep their scene
+
+	private static class Entry {
+		private Object page; // null once dropped, or for the page the stack started from
+		private final Consumer<Stage> reopen; // Shows the page again after it was dropped, null if it is never dropped
+		private Scene scene; // The page's scene when the user left it, null once dropped
+		private String title;
+
+		private Entry(Object page, Consumer<Stage> reopen) {
+			this.page = page;
+			this.reopen = reopen;
+		}
+	}
+
+	private final Stage primaryStage;
+	private final DomainEventBus events;
+
+	private final Deque<Entry> stack = new ArrayDeque<>(); // Pages the user left, the last left first
+	private Entry current = null; // The open page, null for a page that was not pushed (e.g. a home page)
+	private Entry reopening = null; // Entry whose page is being opened again, its push fills it in
+
+	private int dropped = 0;
+	private int reopened = 0;
+
+	private Router(Stage primaryStage, DomainEventBus events) {
+		this.primaryStage = primaryStage;
+		this.events = events;
+	}
+
+	// Give the window a router, called once at startup
+	public static Router install(Stage primaryStage, DomainEventBus events) {
+		Router router = new Router(primaryStage, events);
+		primaryStage.getProperties().put(Router.class, router);
+		return router;
+	}
+
+	public static Router of(Stage primaryStage) {
+		return (Router) primaryStage.getProperties().get(Router.class);
+	}
+
+	// Open a page above the one showing, called by the page before it sets its scene. The reopen
+	// action shows a new instance of the page, null keeps the page's scene until it is closed
+	public void push(Object page, Consumer<Stage> reopen) {
+		if (reopening != null) {
+			reopening.page = page;
+			current = reopening;
+			reopening = null;
+			return;
+		}
+
+		// Remember what the user is leaving, a page that was not pushed is kept as it is
+		Entry left = current != null ? current : new Entry(null, null);
+		left.scene = primaryStage.getScene();
+		left.title = primaryStage.getTitle();
+		stack.push(left);
+		current = new Entry(page, reopen);
+
+		dropOldest();
+	}
+
+	// Close the open page and show the one below it, opened again if it was dropped
+	public void back() {
+		if (current != null) {
+			events.unsubscribe(current.page);
+			current = null;
+		}
+		if (stack.isEmpty()) {
+			System.out.println("*** Error *** No page to go back to.");
+			return;
+		}
+
+		Entry previous = stack.pop();
+		if (previous.scene != null) {
+			current = previous.page != null ? previous : null;
+			primaryStage.setScene(previous.scene);
+			primaryStage.setTitle(previous.title);
+			previous.scene = null; // The page holds it while it is open
+		} else {
+			reopened++;
+			reopening = previous;
+			previous.reopen.accept(primaryStage);
+			reopening = null; // In case the page did not push
+		}
+	}
+
+	// Drop the pages shown longest ago, the ones deepest in the stack, until at most RETAINED_PAGES keep their scene
+	private void dropOldest() {
+		int retained = 0;
+		for (Entry entry : stack) {
+			if (entry.scene != null && entry.reopen != null) {
+				retained++;
+			}
+		}
+
+		for (Iterator<Entry> iterator = stack.descendingIterator(); retained > RETAINED_PAGES && iterator.hasNext();) {
+			Entry entry = iterator.next();
+			if (entry.scene != null && entry.reopen != null) {
+				events.unsubscribe(entry.page);
+				entry.page = null;
+				entry.scene = null;
+				dropped++;
+				retained--;
+			}
+		}
+	}
+
+	public int getDepth() {
+		return stack.size();
+	}
+
+	@Override
+	public String toString() {
+		int retained = 0;
+		for (Entry entry : stack) {
+			if (entry.scene != null) {
+				retained++;
+			}
+		}
+		return String.format("Router[depth=%d, retained=%d, dropped=%d, reopened=%d]", stack.size(), retained, dropped, reopened);
+	}
+}
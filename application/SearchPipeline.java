@@ -0,0 +1,127 @@
+package application;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+import database.DatabaseHelper;
+import database.QueryCancellation;
+import javafx.animation.PauseTransition;
+import javafx.scene.control.TextField;
+import javafx.util.Duration;
+
+/**
+ * The SearchPipeline class runs the search behind a search bar as the user types.
+ * A search only starts once typing pauses for the debounce time, so a fast typist
+ * gets one query per pause instead of one per key, and keys that do not change the
+ * text (arrows, shift, ...) never start one. Starting a search cancels the one still
+ * running, and when the user only kept typing the last search, the refiner filters
+ * its results instead of going back to the database.
+ *
+ * @param <T> the type of the listed results
+ */
+public class SearchPipeline<T> {
+
+	/**
+	 * The search to run for the text in the search bar.
+	 */
+	public interface Search<T> {
+		// Called on the JavaFX Application Thread, returns the query to run in the background
+		Function<DatabaseHelper, List<T>> prepare(String searchText, QueryCancellation cancellation);
+	}
+
+	/**
+	 * Answers a search from the results of the search before it.
+	 */
+	public interface Refiner<T> {
+		// Returns null if the results of searchText could not all be among the previous results
+		List<T> refine(List<T> previousResults, String previousText, String searchText);
+	}
+
+	private final DatabaseHelper databaseHelper;
+	private final TextField searchBar;
+	private final Search<T> search;
+	private final Refiner<T> refiner;
+	private final BiConsumer<String, List<T>> display; // Gets the search text with its results
+	private final PauseTransition debounce;
+
+	private String shownText = null; // Search text of the shown results, null until the first results are in
+	private List<T> shownResults;
+
+	private int searchCount = 0; // Lets results of a superseded search be ignored if they still arrive
+	private QueryCancellation running;
+
+	public SearchPipeline(DatabaseHelper databaseHelper, TextField searchBar, Duration debounceTime, Search<T> search, Refiner<T> refiner, BiConsumer<String, List<T>> display) {
+		this.databaseHelper = databaseHelper;
+		this.searchBar = searchBar;
+		this.search = search;
+		this.refiner = refiner;
+		this.display = display;
+
+		debounce = new PauseTransition(debounceTime);
+		debounce.setOnFinished(a -> search(false));
+		searchBar.textProperty().addListener((observable, oldValue, newValue) -> debounce.playFromStart());
+	}
+
+	// Search right away and always ask the database, for when the sort or filter changed
+	public void refresh() {
+		debounce.stop();
+		search(true);
+	}
+
+	// Apply a change made to the shown list (e.g. from an event) to the results later searches are refined from.
+	// The update returns the changed result, the same one if it did not change or null to drop it
+	public void updateShown(UnaryOperator<T> update) {
+		if (shownResults == null) {
+			return;
+		}
+		List<T> updated = new ArrayList<>(shownResults.size());
+		for (T result : shownResults) {
+			T changed = update.apply(result);
+			if (changed != null) {
+				updated.add(changed);
+			}
+		}
+		shownResults = updated;
+	}
+
+	private void search(boolean refresh) {
+		String searchText = searchBar.getText().trim();
+		if (!refresh && searchText.equals(shownText) && running == null) {
+			return; // Only spaces were typed, or the text was changed back before the pause
+		}
+
+		// Whatever is running is for older text now
+		if (running != null) {
+			running.cancel();
+			running = null;
+		}
+		int count = ++searchCount;
+
+		if (!refresh && refiner != null && shownText != null && !shownText.isEmpty() && !searchText.isEmpty()) {
+			List<T> refined = refiner.refine(shownResults, shownText, searchText);
+			if (refined != null) {
+				show(searchText, refined);
+				return;
+			}
+		}
+
+		QueryCancellation cancellation = new QueryCancellation();
+		running = cancellation;
+		databaseHelper.async().supply(search.prepare(searchText, cancellation)).thenAccept(results -> {
+			if (count != searchCount) {
+				return; // Superseded while it ran
+			}
+			running = null;
+			show(searchText, results);
+		});
+	}
+
+	private void show(String searchText, List<T> results) {
+		shownText = searchText;
+		shownResults = results;
+		display.accept(searchText, results);
+	}
+}
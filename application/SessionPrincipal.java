@@ -0,0 +1,44 @@
+package application;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The SessionPrincipal class holds who is logged in: their id, user name, roles and
+ * the reviewers they trust with their weights. It is read in one query at login and
+ * shared by every page through DatabaseHelper.getSession(), so pages check roles and
+ * trust without going back to the database. It never changes, DatabaseHelper replaces
+ * it when the user's roles or trusted reviewers change.
+ */
+public final class SessionPrincipal {
+	private final int userId;
+	private final String userName;
+	private final RoleSet roles;
+	private final Map<Integer, Integer> trustedReviewerWeights; // reviewerId to weight
+
+	public SessionPrincipal(int userId, String userName, RoleSet roles, Map<Integer, Integer> trustedReviewerWeights) {
+		this.userId = userId;
+		this.userName = userName;
+		this.roles = roles;
+		this.trustedReviewerWeights = Collections.unmodifiableMap(new HashMap<>(trustedReviewerWeights));
+	}
+
+	public int getUserId() { return userId; }
+	public String getUserName() { return userName; }
+	public RoleSet getRoles() { return roles; }
+	public Map<Integer, Integer> getTrustedReviewerWeights() { return trustedReviewerWeights; }
+
+	public boolean hasRole(Role role) {
+		return roles.contains(role);
+	}
+
+	public boolean trusts(int reviewerId) {
+		return trustedReviewerWeights.containsKey(reviewerId);
+	}
+
+	// Returns 0 if the reviewer is not trusted
+	public int getTrustWeight(int reviewerId) {
+		return trustedReviewerWeights.getOrDefault(reviewerId, 0);
+	}
+}
@@ -20,6 +20,7 @@ public class SetupLoginSelectionPage {
     }
 
     public void show(Stage primaryStage) {
+    	databaseHelper.endSession(); // Logging out leads back here
         
     	// Buttons to select Login / Setup options that redirect to respective pages
         Button setupButton = new Button("SetUp");
@@ -69,7 +69,7 @@ public class StaffHomePage {
         });
 
         // Add UI elements to layout
-        layout.getChildren().addAll(staffLabel, questionButton, logoutButton);
+        layout.getChildren().addAll(staffLabel, UnreadBadge.forUser(databaseHelper, userId), questionButton, logoutButton);
 
         // Create and set the scene
         Scene scene = new Scene(layout, 800, 400);
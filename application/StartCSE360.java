@@ -1,6 +1,8 @@
 package application;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.stage.Stage;
 import java.sql.SQLException;
 
@@ -9,32 +11,76 @@ import database.DatabaseHelper;
 
 public class StartCSE360 extends Application {
 
+	private static final long LAUNCH_TIME = System.nanoTime(); // Set when the class loads, as main starts
 	private static final DatabaseHelper databaseHelper = new DatabaseHelper();
-	
+
+	private Router router;
+
 	public static void main( String[] args )
 	{
 		 launch(args);
 	}
-	
+
 	@Override
     public void start(Stage primaryStage) {
 	//	databaseHelper.deleteDatabase();
 
+		ImageRegistry.preload(); // Decode the icons in the background while the first page opens
 		primaryStage.setMinWidth(400);
 		primaryStage.setMinHeight(200);
-        try {
-            databaseHelper.connectToDatabase(); // Connect to the database
-            if (databaseHelper.isDatabaseEmpty()) {
-            	
-            	new FirstPage(databaseHelper).show(primaryStage);
-            } else {
-            	new SetupLoginSelectionPage(databaseHelper).show(primaryStage);
-                
-            }
-        } catch (SQLException e) {
-        	System.out.println(e.getMessage());
-        }
+		// Pages update their controls from async results and events, so deliver both on the JavaFX Application Thread
+		databaseHelper.setAsyncResultExecutor(Platform::runLater);
+		databaseHelper.events().setDeliveryExecutor(Platform::runLater);
+		router = Router.install(primaryStage, databaseHelper.events()); // Pages open and go back through it
+
+		// Show the window right away, the database is opened behind the loading scene
+		primaryStage.setScene(LoadingView.createScene("Starting..."));
+		primaryStage.show();
+		logFirstFrame();
+
+		databaseHelper.async().supply(db -> {
+			try {
+				db.connectToDatabase(); // Connect to the database
+				return db.isDatabaseEmpty();
+			} catch (SQLException e) {
+				System.out.println("*** Error *** Could not open the database: " + e.getMessage());
+				return null;
+			}
+		}).thenAccept(empty -> {
+			if (empty == null) {
+				primaryStage.setScene(LoadingView.createScene("Could not open the database, see the log for details."));
+				return;
+			}
+			if (empty) {
+				new FirstPage(databaseHelper).show(primaryStage);
+			} else {
+				new SetupLoginSelectionPage(databaseHelper).show(primaryStage);
+			}
+			System.out.println("Startup: interactive after " + sinceLaunch() + "ms");
+		});
     }
-	
 
+	// Log when the first pulse after showing the window runs, that is when its first frame is drawn
+	private void logFirstFrame() {
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				stop();
+				System.out.println("Startup: first frame after " + sinceLaunch() + "ms");
+			}
+		}.start();
+	}
+
+	// Milliseconds since launch, so the log shows how long the user waited
+	private static long sinceLaunch() {
+		return (System.nanoTime() - LAUNCH_TIME) / 1_000_000;
+	}
+
+	@Override
+	public void stop() {
+		System.out.println(ImageRegistry.report());
+		if (router != null) {
+			System.out.println(router);
+		}
+	}
 }
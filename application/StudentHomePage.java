@@ -41,7 +41,7 @@ public class StudentHomePage {
 	    	new SetupLoginSelectionPage(databaseHelper).show(primaryStage);
 	    });
 
-	    layout.getChildren().addAll(studentLabel, questionButton, logoutButton);
+	    layout.getChildren().addAll(studentLabel, UnreadBadge.forUser(databaseHelper, userId), questionButton, logoutButton);
 	    Scene studentScene = new Scene(layout, 800, 400);
 
 	    // Set the scene to primary stage
@@ -0,0 +1,60 @@
+package application;
+
+import database.DatabaseHelper;
+import database.DomainEvent;
+import database.DomainEventBus;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.paint.Color;
+
+/**
+ * The UnreadBadge class shows how many private messages a user has not read yet,
+ * as a count on message buttons and as a label on the home pages. The counts are
+ * kept up to date by DatabaseHelper as messages are sent and read, so showing one
+ * never counts messages. The home page label follows the messages the user gets and
+ * reads on other pages through the DomainEventBus.
+ */
+public class UnreadBadge {
+
+	// Show the unread count on a message button, highlighted when there is anything unread
+	public static void apply(Button messageButton, int unreadCount) {
+		if (unreadCount > 0) {
+			messageButton.setText(String.valueOf(unreadCount));
+			messageButton.setTextFill(Color.CORNFLOWERBLUE);
+		} else {
+			messageButton.setText("");
+		}
+	}
+
+	// A label with the user's unread message count, read in the background and again whenever the user
+	// gets or reads messages while it is shown. Hidden while nothing is unread
+	public static Label forUser(DatabaseHelper databaseHelper, int userId) {
+		Label badge = new Label();
+		badge.setStyle("-fx-font-size: 12px; -fx-text-fill: cornflowerblue;");
+		badge.setVisible(false);
+		badge.setManaged(false);
+		refresh(databaseHelper, userId, badge);
+
+		// The stored total is one primary key lookup, so read it instead of counting along with the events
+		DomainEventBus events = databaseHelper.events();
+		events.subscribe(badge, DomainEvent.MessageSent.class, event -> {
+			if (event.getRecipientId() == userId && !event.isRead()) {
+				refresh(databaseHelper, userId, badge);
+			}
+		});
+		events.subscribe(badge, DomainEvent.MessagesRead.class, event -> {
+			if (event.getUserId() == userId) {
+				refresh(databaseHelper, userId, badge);
+			}
+		});
+		return badge;
+	}
+
+	private static void refresh(DatabaseHelper databaseHelper, int userId, Label badge) {
+		databaseHelper.async().supply(db -> db.getUnreadMessageCount(userId)).thenAccept(unreadCount -> {
+			badge.setText(unreadCount == 1 ? "1 unread message" : unreadCount + " unread messages");
+			badge.setVisible(unreadCount > 0);
+			badge.setManaged(unreadCount > 0);
+		});
+	}
+}
@@ -50,46 +50,45 @@ public class UserLoginPage {
             	String emptyEmail = "{Email}";
             	User user=new User(userName, password, emptyName, emptyEmail, emptyRole, false);
             	
-            	// Retrieve the user's role from the database using userName
-            	ArrayList<String> roles = (ArrayList<String>) databaseHelper.getUserRole(userName);
+            	// Check the credentials and load the user's id and roles for the session in one query
+            	SessionPrincipal session = databaseHelper.login(userName, password);
             	
-            	if(roles!=null) {
-            		user.setRole(roles);
-            		int userId = databaseHelper.login(user);
-            		if(userId != -1) {
-            			// Continue to role page if user only has one role
-            			if (user.getRole().size() == 1) {
-            				String userRole = user.getRole().get(0);
-            				
-            				switch (userRole) {
-            				case "admin":
-            					new WelcomeLoginPage(databaseHelper, userId).show(primaryStage,user);
-            					break;
-            					
-            				case "student":
-            					new StudentHomePage(databaseHelper, userId).show(primaryStage);
-            					break;
-            					
-            				case "instructor":
-            					new InstructorHomePage(databaseHelper, userId).show(primaryStage);
-            					break;
-            					
-            				case "staff":
-            					new StaffHomePage(databaseHelper, userId).show(primaryStage);
-            					break;
-            					
-            				case "reviewer":
-            					new ReviewerHomePage(databaseHelper, userId).show(primaryStage);
-            					break;
-            				}
-            			} else {
+            	if(session!=null) {
+            		user.setRole(session.getRoles().getNames());
+            		int userId = session.getUserId();
+            		
+            		// Continue to role page if user only has one role
+            		if (user.getRole().size() == 1) {
+            			String userRole = user.getRole().get(0);
+            			
+            			switch (userRole) {
+            			case "admin":
             				new WelcomeLoginPage(databaseHelper, userId).show(primaryStage,user);
+            				break;
+            				
+            			case "student":
+            				new StudentHomePage(databaseHelper, userId).show(primaryStage);
+            				break;
+            				
+            			case "instructor":
+            				new InstructorHomePage(databaseHelper, userId).show(primaryStage);
+            				break;
+            				
+            			case "staff":
+            				new StaffHomePage(databaseHelper, userId).show(primaryStage);
+            				break;
+            				
+            			case "reviewer":
+            				new ReviewerHomePage(databaseHelper, userId).show(primaryStage);
+            				break;
             			}
+            		} else {
+            			new WelcomeLoginPage(databaseHelper, userId).show(primaryStage,user);
             		}
-            		else {
-            			// Display an error if the login fails
-                        errorLabel.setText("Error logging in");
-            		}
+            	}
+            	else if (databaseHelper.doesUserExist(userName)) {
+            		// Display an error if the login fails
+                    errorLabel.setText("Error logging in");
             	}
             	else {
             		// Display an error if the account does not exist
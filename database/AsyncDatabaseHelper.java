@@ -0,0 +1,84 @@
+package database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The AsyncDatabaseHelper class runs DatabaseHelper calls on a small pool of background
+ * threads so a slow query does not freeze the window. Each call returns a CompletableFuture
+ * that is completed on the result executor, which the application sets to its UI thread so
+ * pages can update their controls directly in thenAccept. Get it from DatabaseHelper.async().
+ */
+public class AsyncDatabaseHelper {
+
+	private final DatabaseHelper databaseHelper;
+	private final ThreadPoolExecutor executor;
+	private volatile Executor resultExecutor;
+
+	AsyncDatabaseHelper(DatabaseHelper databaseHelper, int threads, Executor resultExecutor) {
+		this.databaseHelper = databaseHelper;
+		this.resultExecutor = resultExecutor;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadFactory threadFactory = task -> {
+			Thread thread = new Thread(task, "database-async-" + threadCount.incrementAndGet());
+			thread.setDaemon(true); // Never keep the application running after the window closes
+			return thread;
+		};
+
+		// At most one thread per pooled connection, further calls wait in the queue
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	// Run a query in the background, the future completes with its result on the result executor
+	public <T> CompletableFuture<T> supply(Function<DatabaseHelper, T> query) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+
+		try {
+			executor.execute(() -> {
+				try {
+					T value = query.apply(databaseHelper);
+					resultExecutor.execute(() -> result.complete(value));
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+					resultExecutor.execute(() -> result.completeExceptionally(e));
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			System.out.println("*** Error *** Not connected to the database.");
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+
+	// Run an update in the background, the future completes on the result executor once it is done
+	public CompletableFuture<Void> run(Consumer<DatabaseHelper> update) {
+		return supply(db -> {
+			update.accept(db);
+			return null;
+		});
+	}
+
+	void setResultExecutor(Executor resultExecutor) {
+		this.resultExecutor = resultExecutor;
+	}
+
+	// Stop taking new calls, calls already queued still run
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	boolean isShutdown() {
+		return executor.isShutdown();
+	}
+}
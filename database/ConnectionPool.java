@@ -0,0 +1,389 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConnectionPool class keeps a bounded set of open JDBC connections so that
+ * database calls borrow an already open connection instead of opening a new one
+ * every time. Connections are warmed up when the pool starts, idle connections
+ * above the minimum are closed after a timeout, and the time spent waiting to
+ * borrow a connection is recorded.
+ *
+ * A thread that borrows a connection while it already holds one gets the same
+ * connection back, so nested DatabaseHelper calls never need more than one
+ * connection per thread. Closing a borrowed connection returns it to the pool.
+ *
+ * Each connection keeps its own StatementCache, so prepareStatement on a borrowed
+ * connection returns an already prepared statement when the same SQL ran before.
+ */
+public class ConnectionPool {
+
+	private final String url;
+	private final String user;
+	private final String password;
+
+	private final int minIdle;
+	private final int maxSize;
+	private final long idleTimeoutMillis;
+	private final long borrowTimeoutMillis;
+	private final int statementCacheSize;
+
+	private final Deque<PooledConnection> idleConnections = new ArrayDeque<>(); // Most recently used first
+	private final Semaphore permits; // One permit per connection that can be handed out
+	private final ThreadLocal<PooledConnection> heldConnection = new ThreadLocal<>();
+	private final ScheduledExecutorService evictor;
+
+	private int openCount = 0;
+	private boolean closed = false;
+
+	// Metrics
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong totalBorrowNanos = new AtomicLong();
+	private final AtomicLong maxBorrowNanos = new AtomicLong();
+	private final AtomicLong timeoutCount = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong evictedCount = new AtomicLong();
+	private final StatementCache.Counters statementCounters = new StatementCache.Counters();
+
+	public ConnectionPool(String url, String user, String password, int minIdle, int maxSize, long idleTimeoutMillis, long borrowTimeoutMillis, int statementCacheSize) {
+		if (minIdle < 0 || maxSize < 1 || minIdle > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: minIdle=" + minIdle + ", maxSize=" + maxSize);
+		}
+
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.borrowTimeoutMillis = borrowTimeoutMillis;
+		this.statementCacheSize = statementCacheSize;
+		this.permits = new Semaphore(maxSize, true);
+
+		// Background thread that closes connections that have been idle for too long
+		evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "connection-pool-evictor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1000, idleTimeoutMillis / 2);
+		evictor.scheduleWithFixedDelay(this::evictIdleConnections, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	// Open the minimum number of idle connections so the first queries do not pay the connection cost
+	public void warmUp() throws SQLException {
+		while (true) {
+			synchronized (this) {
+				if (closed || openCount >= minIdle) {
+					return;
+				}
+				openCount++;
+			}
+
+			PooledConnection pooled;
+			try {
+				pooled = new PooledConnection(openPhysicalConnection());
+			} catch (SQLException e) {
+				synchronized (this) {
+					openCount--;
+				}
+				throw e;
+			}
+
+			synchronized (this) {
+				idleConnections.addLast(pooled);
+			}
+		}
+	}
+
+	// Borrow a connection, closing the returned connection gives it back to the pool
+	public Connection getConnection() throws SQLException {
+		// Reuse the connection this thread already holds
+		PooledConnection held = heldConnection.get();
+		if (held != null) {
+			held.holdCount++;
+			return held.newHandle();
+		}
+
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				timeoutCount.incrementAndGet();
+				throw new SQLException("Timed out after " + borrowTimeoutMillis + " ms waiting for a database connection.");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection.", e);
+		}
+
+		PooledConnection pooled;
+		try {
+			pooled = takeIdleOrOpen();
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+
+		recordBorrow(System.nanoTime() - start);
+
+		pooled.holdCount = 1;
+		heldConnection.set(pooled);
+		return pooled.newHandle();
+	}
+
+	private PooledConnection takeIdleOrOpen() throws SQLException {
+		synchronized (this) {
+			if (closed) {
+				throw new SQLException("Connection pool is closed.");
+			}
+
+			// Take the most recently used idle connection
+			while (!idleConnections.isEmpty()) {
+				PooledConnection pooled = idleConnections.pollFirst();
+				if (!pooled.physical.isClosed()) {
+					return pooled;
+				}
+				openCount--; // Connection died while idle
+			}
+			openCount++;
+		}
+
+		try {
+			return new PooledConnection(openPhysicalConnection());
+		} catch (SQLException e) {
+			synchronized (this) {
+				openCount--;
+			}
+			throw e;
+		}
+	}
+
+	private Connection openPhysicalConnection() throws SQLException {
+		Connection connection = DriverManager.getConnection(url, user, password);
+		createdCount.incrementAndGet();
+		return connection;
+	}
+
+	// Called when a handle is closed
+	private void release(PooledConnection pooled) {
+		pooled.holdCount--;
+		if (pooled.holdCount > 0) {
+			return; // Still held by an outer call on this thread
+		}
+
+		heldConnection.remove();
+
+		// Undo anything a caller left behind
+		pooled.statementCache.releaseAll();
+		boolean healthy = true;
+		try {
+			if (pooled.physical.isClosed()) {
+				healthy = false;
+			} else if (!pooled.physical.getAutoCommit()) {
+				pooled.physical.rollback();
+				pooled.physical.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+			healthy = false;
+		}
+
+		boolean closeNow = false;
+		synchronized (this) {
+			if (healthy && !closed) {
+				pooled.lastUsed = System.currentTimeMillis();
+				idleConnections.addFirst(pooled);
+			} else {
+				openCount--;
+				closeNow = true;
+			}
+		}
+		if (closeNow) {
+			closeQuietly(pooled);
+		}
+
+		permits.release();
+	}
+
+	// Close connections that have been idle longer than the timeout, keeping at least minIdle open
+	private void evictIdleConnections() {
+		Deque<PooledConnection> expired = new ArrayDeque<>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			// Oldest connections are at the end of the deque
+			Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+			while (iterator.hasNext() && idleConnections.size() > minIdle) {
+				PooledConnection pooled = iterator.next();
+				if (now - pooled.lastUsed < idleTimeoutMillis) {
+					break; // Everything newer is still within the timeout
+				}
+				iterator.remove();
+				openCount--;
+				expired.add(pooled);
+			}
+		}
+
+		for (PooledConnection pooled : expired) {
+			closeQuietly(pooled);
+			evictedCount.incrementAndGet();
+		}
+	}
+
+	private void recordBorrow(long nanos) {
+		borrowCount.incrementAndGet();
+		totalBorrowNanos.addAndGet(nanos);
+		maxBorrowNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	private void closeQuietly(PooledConnection pooled) {
+		pooled.statementCache.closeAll();
+		try {
+			pooled.physical.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// Close all idle connections and stop handing out new ones, borrowed connections are closed when returned
+	public void close() {
+		Deque<PooledConnection> toClose;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			toClose = new ArrayDeque<>(idleConnections);
+			openCount -= idleConnections.size();
+			idleConnections.clear();
+		}
+
+		evictor.shutdownNow();
+		for (PooledConnection pooled : toClose) {
+			closeQuietly(pooled);
+		}
+	}
+
+	public synchronized boolean isClosed() { return closed; }
+	public synchronized int getOpenCount() { return openCount; }
+	public synchronized int getIdleCount() { return idleConnections.size(); }
+	public int getMaxSize() { return maxSize; }
+	public long getBorrowCount() { return borrowCount.get(); }
+	public long getTimeoutCount() { return timeoutCount.get(); }
+	public long getCreatedCount() { return createdCount.get(); }
+	public long getEvictedCount() { return evictedCount.get(); }
+	public long getStatementCacheHits() { return statementCounters.getHits(); }
+	public long getStatementCacheMisses() { return statementCounters.getMisses(); }
+	public long getStatementCacheEvictions() { return statementCounters.getEvictions(); }
+	public double getStatementCacheHitRate() { return statementCounters.getHitRate(); }
+
+	// Average time spent waiting for a connection in microseconds
+	public double getAverageBorrowMicros() {
+		long count = borrowCount.get();
+		return count == 0 ? 0 : totalBorrowNanos.get() / 1000.0 / count;
+	}
+
+	// Longest time spent waiting for a connection in microseconds
+	public double getMaxBorrowMicros() {
+		return maxBorrowNanos.get() / 1000.0;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ConnectionPool[open=%d, idle=%d, max=%d, borrows=%d, avgBorrow=%.1fus, maxBorrow=%.1fus, timeouts=%d, created=%d, evicted=%d, "
+				+ "statementHits=%d, statementMisses=%d, statementEvictions=%d, statementHitRate=%.1f%%]",
+				getOpenCount(), getIdleCount(), maxSize, getBorrowCount(), getAverageBorrowMicros(), getMaxBorrowMicros(),
+				getTimeoutCount(), getCreatedCount(), getEvictedCount(),
+				getStatementCacheHits(), getStatementCacheMisses(), getStatementCacheEvictions(), getStatementCacheHitRate() * 100);
+	}
+
+	/**
+	 * A physical connection owned by the pool. Callers only ever see handles to it,
+	 * so a handle that was closed cannot be used to reach a connection that has
+	 * since been lent to someone else.
+	 */
+	private class PooledConnection {
+		private final Connection physical;
+		private final StatementCache statementCache; // Only touched by the thread holding the connection
+		private int holdCount = 0; // Only touched by the thread holding the connection
+		private long lastUsed = System.currentTimeMillis();
+
+		private PooledConnection(Connection physical) {
+			this.physical = physical;
+			this.statementCache = new StatementCache(physical, statementCacheSize, statementCounters);
+		}
+
+		private Connection newHandle() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new Handle(this));
+		}
+	}
+
+	// Forwards calls to the physical connection until the handle is closed
+	private class Handle implements InvocationHandler {
+		private final PooledConnection pooled;
+		private boolean handleClosed = false;
+
+		private Handle(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (!handleClosed) {
+					handleClosed = true;
+					release(pooled);
+				}
+				return null;
+			case "isClosed":
+				return handleClosed || pooled.physical.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Pooled" + pooled.physical;
+			default:
+				break;
+			}
+
+			if (handleClosed) {
+				throw new SQLException("Connection has already been returned to the pool.");
+			}
+
+			// prepareStatement(sql) and prepareStatement(sql, autoGeneratedKeys) go through the statement cache
+			if (method.getName().equals("prepareStatement")) {
+				Class<?>[] types = method.getParameterTypes();
+				if (types.length == 1) {
+					return pooled.statementCache.prepare((String) args[0], Statement.NO_GENERATED_KEYS);
+				}
+				if (types.length == 2 && types[1] == int.class) {
+					return pooled.statementCache.prepare((String) args[0], (Integer) args[1]);
+				}
+			}
+
+			try {
+				return method.invoke(pooled.physical, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
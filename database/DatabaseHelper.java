@@ -2,23 +2,31 @@ package database;
 import java.sql.*;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.List;
 import java.util.Map;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.io.File;
 
 import application.Answer;
 import application.Question;
 import application.QuestionLightweightDTO;
+import application.QuestionPageView;
 import application.Review;
 import application.ReviewLightweightDTO;
+import application.SessionPrincipal;
+import application.Role;
+import application.RoleSet;
 import application.AnswerLightweightDTO;
 import application.PrivateMessage;
 import application.PrivateMessageLightweightDTO;
@@ -40,26 +48,182 @@ public class DatabaseHelper {
 	static final String USER = "sa"; 
 	static final String PASS = ""; 
 
-	private Connection connection = null;
-	private Statement statement = null; 
-	//	PreparedStatement pstmt
+	// Connection pool settings
+	static final int POOL_MIN_IDLE = 2; // Connections opened at startup and kept open
+	static final int POOL_MAX_SIZE = 8; // Most connections that can be borrowed at once
+	static final long POOL_IDLE_TIMEOUT_MS = 5 * 60 * 1000; // Extra idle connections are closed after this
+	static final long POOL_BORROW_TIMEOUT_MS = 10 * 1000; // Longest wait for a free connection
+	static final int STATEMENT_CACHE_SIZE = 128; // Prepared statements kept open per pooled connection
+
+	// Version of the tables and indexes createTables makes, stored in the database once they are made.
+	// Raise it whenever createTables, a migration in it or INDEX_CATALOGUE changes
+	static final int SCHEMA_VERSION = 1;
+
+	static final int ASYNC_THREADS = POOL_MAX_SIZE; // Background threads for async() calls, one per pooled connection
+	static final int SEARCH_INDEX_BATCH_SIZE = 10000; // Questions read and tokenized together while building the search index
+	static final int USER_CACHE_SIZE = 1000; // Users kept in memory for getUser and getUserRoles
+
+	// Shared by every DatabaseHelper call, including the static search methods
+	private static ConnectionPool connectionPool = null;
+	private static QuestionSearchIndex questionIndex = null;
+	private static AsyncDatabaseHelper asyncHelper = null;
+	private static Executor asyncResultExecutor = Runnable::run; // Where async() calls complete, the application sets its UI thread
+	private static final UserCache userCache = new UserCache(USER_CACHE_SIZE);
+	private static final DomainEventBus events = new DomainEventBus(); // The application sets where it delivers, see StartCSE360
+	private static volatile SessionPrincipal session = null; // The logged in user, null until someone logs in
 
 	public void connectToDatabase() throws SQLException {
 		try {
 			Class.forName(JDBC_DRIVER); // Load the JDBC driver
 			System.out.println("Connecting to database...");
-			connection = DriverManager.getConnection(DB_URL, USER, PASS);
-			statement = connection.createStatement(); 
+			if (connectionPool == null || connectionPool.isClosed()) {
+				connectionPool = new ConnectionPool(DB_URL, USER, PASS, POOL_MIN_IDLE, POOL_MAX_SIZE, POOL_IDLE_TIMEOUT_MS, POOL_BORROW_TIMEOUT_MS, STATEMENT_CACHE_SIZE);
+				connectionPool.warmUp(); // Open the idle connections now instead of on the first query
+			}
 			// You can use this command to clear the database and restart from fresh.
 			// statement.execute("DROP ALL OBJECTS");
 
-			createTables();  // Create the necessary tables if they don't exist
+			// Only run the table setup and migrations when the database was made by another version
+			int storedVersion = getSchemaVersion();
+			if (storedVersion == SCHEMA_VERSION) {
+				System.out.println("Schema is at version " + SCHEMA_VERSION + ", skipping table setup");
+			} else {
+				// Create the necessary tables if they don't exist. The version is only stored once every index
+				// was made, so an index that failed (e.g. on duplicate votes) is tried again on the next launch
+				if (createTables()) {
+					setSchemaVersion();
+					System.out.println("Schema moved from version " + storedVersion + " to " + SCHEMA_VERSION);
+				} else {
+					System.out.println("*** Error *** Schema left at version " + storedVersion + ", table setup runs again on the next launch");
+				}
+			}
+			buildSearchIndex();
 		} catch (ClassNotFoundException e) {
 			System.err.println("JDBC Driver not found: " + e.getMessage());
 		}
 	}
+	
+	// Borrow a connection from the pool, closing it returns it to the pool
+	private static Connection getConnection() throws SQLException {
+		if (connectionPool == null || connectionPool.isClosed()) {
+			throw new SQLException("Not connected to the database.");
+		}
+		return connectionPool.getConnection();
+	}
+	
+	// Get the async version of this helper, for pages that should not wait on the database
+	public AsyncDatabaseHelper async() {
+		synchronized (DatabaseHelper.class) {
+			if (asyncHelper == null || asyncHelper.isShutdown()) {
+				asyncHelper = new AsyncDatabaseHelper(this, ASYNC_THREADS, asyncResultExecutor);
+			}
+			return asyncHelper;
+		}
+	}
+	
+	// Set where async() calls complete, the application passes its UI thread before the first call
+	public void setAsyncResultExecutor(Executor executor) {
+		synchronized (DatabaseHelper.class) {
+			asyncResultExecutor = executor;
+			if (asyncHelper != null) {
+				asyncHelper.setResultExecutor(executor);
+			}
+		}
+	}
+	
+	// Get the bus that announces committed changes, for pages that patch themselves instead of reloading
+	public DomainEventBus events() {
+		return events;
+	}
+	
+	// Announce a change once the transaction making it commits, a rolled back change is never announced
+	private static void publish(DomainEvent event) {
+		afterCommit(() -> events.publish(event));
+	}
+	
+	// Get the connection pool, for reporting its borrow and statement cache statistics
+	public static ConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	/*
+	 * Secondary indexes for the lookups DatabaseHelper runs. H2 already indexes primary keys,
+	 * unique columns and foreign key columns (answers.questionId, votes.answerId, reviews.questionId/
+	 * answerId/userId, messages.authorId/commenterId, ...), so only the access paths those don't cover
+	 * are listed here. Add an entry whenever a new query filters or sorts on other columns.
+	 */
+	private static final String[] INDEX_CATALOGUE = {
+			// One vote per user per answer, backs the MERGE ... KEY (userId, answerId) in updateUserVoteForAnswer
+			"CREATE UNIQUE INDEX IF NOT EXISTS idx_votes_answer_user ON votes (answerId, userId)",
+			// "My Questions" filters and sorts on the search page
+			"CREATE INDEX IF NOT EXISTS idx_questions_user_resolved ON questions (userId, resolved)",
+			// One index per QuestionOrder so a page of the question list is read in order and stops after
+			// the page size. There is no index on resolved alone, H2 would pick it for the "Resolved" and
+			// "Unresolved" filters and then sort every matching question to find one page
+			"CREATE INDEX IF NOT EXISTS idx_questions_newest ON questions (id DESC)",
+			"CREATE INDEX IF NOT EXISTS idx_questions_title_id ON questions (title, id)",
+			"CREATE INDEX IF NOT EXISTS idx_questions_title_id_desc ON questions (title DESC, id DESC)",
+			// A page of a question's answers, read oldest first from where the last page ended
+			"CREATE INDEX IF NOT EXISTS idx_answers_question_id ON answers (questionId, id)",
+			// Clearing the resolved answer when an answer is deleted
+			"CREATE INDEX IF NOT EXISTS idx_questions_resolved_answer ON questions (resolvedAnswerId)",
+			// A page of a conversation's messages, read newest first from where the last page ended
+			"CREATE INDEX IF NOT EXISTS idx_messages_conversation_id ON messages (conversationId, id)",
+			"CREATE INDEX IF NOT EXISTS idx_messages_parent ON messages (parentType, parentId)",
+			// First conversation about a post
+			"CREATE INDEX IF NOT EXISTS idx_conversations_parent ON conversations (parentType, parentId, id)",
+			// Role request lists and the pending request check
+			"CREATE INDEX IF NOT EXISTS idx_role_requests_role ON roleRequests (role)",
+			"CREATE INDEX IF NOT EXISTS idx_role_requests_user_role ON roleRequests (userId, role)",
+			// Users with a role, e.g. every reviewer
+			"CREATE INDEX IF NOT EXISTS idx_user_roles_role ON userRoles (roleId, userId)"
+	};
 
-	private void createTables() throws SQLException {
+	// Version the tables were last set up for, 0 for a new database or one from before the version was stored
+	private int getSchemaVersion() throws SQLException {
+		try (Connection connection = getConnection();
+			 Statement statement = connection.createStatement()) {
+			try (ResultSet resultSet = statement.executeQuery("SELECT version FROM schemaVersion WHERE id = 1")) {
+				return resultSet.next() ? resultSet.getInt("version") : 0;
+			} catch (SQLException e) {
+				return 0; // No schemaVersion table yet
+			}
+		}
+	}
+
+	private void setSchemaVersion() throws SQLException {
+		try (Connection connection = getConnection();
+			 Statement statement = connection.createStatement()) {
+			statement.execute("CREATE TABLE IF NOT EXISTS schemaVersion (id INT PRIMARY KEY, version INT NOT NULL)");
+			statement.execute("MERGE INTO schemaVersion (id, version) KEY (id) VALUES (1, " + SCHEMA_VERSION + ")");
+		}
+	}
+
+	// Returns false if an index in the catalogue could not be created
+	private boolean createTables() throws SQLException {
+		try (Connection connection = getConnection();
+			 Statement statement = connection.createStatement()) {
+			createTables(statement);
+			return createIndexes(statement);
+		}
+	}
+	
+	// Create any index in the catalogue that does not exist yet, returns false if any of them failed
+	private boolean createIndexes(Statement statement) {
+		boolean created = true;
+		for (String index : INDEX_CATALOGUE) {
+			try {
+				statement.execute(index);
+			} catch (SQLException e) {
+				// Keep starting up, the query still works without the index (e.g. duplicate votes block the unique index)
+				System.err.println("*** Error *** Could not create index: " + index + " (" + e.getMessage() + ")");
+				created = false;
+			}
+		}
+		return created;
+	}
+
+	private void createTables(Statement statement) throws SQLException {
 		
 		// Create the user table
 		String userTable = "CREATE TABLE IF NOT EXISTS cse360users ("
@@ -68,10 +232,18 @@ public class DatabaseHelper {
 				+ "password VARCHAR(255), "
 				+ "fullName VARCHAR(255), "
 				+ "email VARCHAR(320), "
-				+ "role VARCHAR(255), "
-				+ "hasUnreadMsgs BOOLEAN DEFAULT FALSE)";
+				+ "unreadMessageCount INT DEFAULT 0)"; // Kept in step with unreadMessages, see rebuildUnreadCounts
 		statement.execute(userTable);
 		
+		// Create the user roles table, one row per role a user has
+		String userRolesTable = "CREATE TABLE IF NOT EXISTS userRoles ("
+				+ "userId INT NOT NULL, "
+				+ "roleId INT NOT NULL, " // Role.getId()
+				+ "PRIMARY KEY (userId, roleId), "
+				+ "FOREIGN KEY (userId) REFERENCES cse360users(id) ON DELETE CASCADE)";
+		statement.execute(userRolesTable);
+		moveRoleColumn(statement);
+		
 		// Create the invitation codes table
 	    String invitationCodesTable = "CREATE TABLE IF NOT EXISTS InvitationCodes ("
 	            + "code VARCHAR(10) PRIMARY KEY, "
@@ -97,10 +269,19 @@ public class DatabaseHelper {
 	    		+ "userId INT, "
 	    		+ "questionId INT, "
 	    		+ "content VARCHAR(65535), "
+	    		+ "upvoteCount INT DEFAULT 0, " // Kept in step with the votes table by updateUserVoteForAnswer
+	    		+ "downvoteCount INT DEFAULT 0, "
+	    		+ "trustScore INT DEFAULT 0, " // Kept in step with reviews and trustedReviewers, see rebuildTrustScores
 	    		+ "FOREIGN KEY (userId) REFERENCES cse360users(id), "
 	    		+ "FOREIGN KEY (questionId) REFERENCES questions(id))";
 	    statement.execute(answerTable);
 	    
+	    // Databases created before vote totals were stored need the columns and their values
+	    boolean addedUpvotes = addColumnIfMissing(statement, "answers", "upvoteCount", "INT DEFAULT 0");
+	    boolean addedDownvotes = addColumnIfMissing(statement, "answers", "downvoteCount", "INT DEFAULT 0");
+	    boolean rebuildVotes = addedUpvotes || addedDownvotes;
+	    boolean rebuildTrust = addColumnIfMissing(statement, "answers", "trustScore", "INT DEFAULT 0");
+	    
 	    // Create the vote table
 	    String voteTable = "CREATE TABLE IF NOT EXISTS votes ("
 	    		+ "id INT AUTO_INCREMENT PRIMARY KEY, "
@@ -123,9 +304,26 @@ public class DatabaseHelper {
 	    		+ "FOREIGN KEY (answerId) REFERENCES answers(id) ON DELETE CASCADE)";
 	    statement.execute(reviewTable);
 	    
+	    // Create the conversations table, one row per post and pair of users messaging about it
+	    String conversationTable = "CREATE TABLE IF NOT EXISTS conversations ("
+	    		+ "id INT AUTO_INCREMENT PRIMARY KEY, "
+	    		+ "authorId INT NOT NULL, "
+	    		+ "parentType VARCHAR(50) NOT NULL, "
+	    		+ "parentId INT NOT NULL, "
+	    		+ "commenterId INT NOT NULL, "
+	    		+ "lastMessageId INT, " // Kept in step with messages by addPrivateMessage, see rebuildConversations
+	    		+ "messageCount INT DEFAULT 0, "
+	    		+ "lastActivity BIGINT DEFAULT 0, " // From the conversationActivity sequence, higher is more recent
+	    		+ "CONSTRAINT uq_conversations_key UNIQUE (authorId, parentType, parentId, commenterId), "
+	    		+ "FOREIGN KEY (authorId) REFERENCES cse360users(id) ON DELETE CASCADE, "
+	    		+ "FOREIGN KEY (commenterId) REFERENCES cse360users(id) ON DELETE CASCADE)";
+	    statement.execute(conversationTable);
+	    statement.execute("CREATE SEQUENCE IF NOT EXISTS conversationActivity");
+	    
 	    // Create the messages table
 	    String messageTable = "CREATE TABLE IF NOT EXISTS messages ("
 	    		+ "id INT AUTO_INCREMENT PRIMARY KEY, "
+	    		+ "conversationId INT, "
 	    		+ "authorId INT NOT NULL, "
 	    		+ "commenterId INT NOT NULL, "
 	    		+ "isAuthor BOOLEAN, "
@@ -136,6 +334,27 @@ public class DatabaseHelper {
 	    		+ "FOREIGN KEY (authorId) REFERENCES cse360users(id) ON DELETE CASCADE, "
 	    		+ "FOREIGN KEY (commenterId) REFERENCES cse360users(id) ON DELETE CASCADE)";
 	    statement.execute(messageTable);
+	    
+	    // Databases created before conversations were stored need every message filed under its conversation
+	    boolean rebuildConversations = addColumnIfMissing(statement, "messages", "conversationId", "INT");
+	    statement.execute("ALTER TABLE messages ADD CONSTRAINT IF NOT EXISTS fk_messages_conversation "
+	    		+ "FOREIGN KEY (conversationId) REFERENCES conversations(id) ON DELETE CASCADE");
+	    
+	    // Create the unread message counts table, one row per user and conversation they have unread messages in
+	    String unreadMessagesTable = "CREATE TABLE IF NOT EXISTS unreadMessages ("
+	    		+ "userId INT NOT NULL, "
+	    		+ "parentType VARCHAR(50) NOT NULL, "
+	    		+ "parentId INT NOT NULL, "
+	    		+ "authorId INT NOT NULL, "
+	    		+ "commenterId INT NOT NULL, "
+	    		+ "unreadCount INT NOT NULL, "
+	    		+ "PRIMARY KEY (userId, parentType, parentId, authorId, commenterId), "
+	    		+ "FOREIGN KEY (userId) REFERENCES cse360users(id) ON DELETE CASCADE)";
+	    statement.execute(unreadMessagesTable);
+	    
+	    // Databases created before unread counts were stored have a hasUnreadMsgs flag that was never set instead
+	    boolean rebuildUnread = addColumnIfMissing(statement, "cse360users", "unreadMessageCount", "INT DEFAULT 0");
+	    statement.execute("ALTER TABLE cse360users DROP COLUMN IF EXISTS hasUnreadMsgs");
 	        
 	    // Create role request table (delete entry if approved or denied)
 	    String roleRequestTable = "CREATE TABLE IF NOT EXISTS roleRequests ("
@@ -153,62 +372,256 @@ public class DatabaseHelper {
 	    		+ "FOREIGN KEY (studentId) REFERENCES cse360users(id) ON DELETE CASCADE, "
 	    		+ "FOREIGN KEY (reviewerId) REFERENCES cse360users(id) ON DELETE CASCADE)";
 	    statement.execute(trustedReviewersTable);
+	    
+	    if (rebuildVotes) {
+	    	rebuildVoteTotals();
+	    }
+	    if (rebuildTrust) {
+	    	rebuildTrustScores();
+	    }
+	    if (rebuildUnread) {
+	    	rebuildUnreadCounts();
+	    }
+	    if (rebuildConversations) {
+	    	rebuildConversations();
+	    }
 	}
-
-
+	
+	// Databases created before the userRoles table keep roles as a comma separated string in cse360users.role,
+	// move them to userRoles and drop the column
+	private void moveRoleColumn(Statement statement) throws SQLException {
+		DatabaseMetaData metaData = statement.getConnection().getMetaData();
+		try (ResultSet rs = metaData.getColumns(null, null, "CSE360USERS", "ROLE")) {
+			if (!rs.next()) {
+				return; // Already moved
+			}
+		}
+		
+		int moved = inTransaction(connection -> {
+			int count = 0;
+			try (Statement select = connection.createStatement();
+				 ResultSet rs = select.executeQuery("SELECT id, role FROM cse360users WHERE role IS NOT NULL");
+				 PreparedStatement insert = connection.prepareStatement(GRANT_ROLE)) {
+				while (rs.next()) {
+					for (String name : rs.getString("role").split(", ")) {
+						Role role = Role.fromName(name);
+						if (role == null) {
+							if (!name.isEmpty()) {
+								System.out.println("*** Error *** Unknown role " + name + " of user " + rs.getInt("id") + " not moved.");
+							}
+							continue;
+						}
+						insert.setInt(1, rs.getInt("id"));
+						insert.setInt(2, role.getId());
+						insert.addBatch();
+						count++;
+					}
+				}
+				insert.executeBatch();
+			}
+			try (Statement alter = connection.createStatement()) {
+				alter.execute("ALTER TABLE cse360users DROP COLUMN role");
+			}
+			return count;
+		});
+		System.out.println("Moved " + moved + " user roles to the userRoles table");
+	}
+	
+	// Add a column to an existing table, returns true if the column was missing
+	private boolean addColumnIfMissing(Statement statement, String table, String column, String definition) throws SQLException {
+		DatabaseMetaData metaData = statement.getConnection().getMetaData();
+		try (ResultSet rs = metaData.getColumns(null, null, table.toUpperCase(), column.toUpperCase())) {
+			if (rs.next()) {
+				return false; // Column already exists
+			}
+		}
+		
+		statement.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+		return true;
+	}
+	
+	// Work that runs inside a transaction
+	private interface SqlWork<T> {
+		T run(Connection connection) throws SQLException;
+	}
+	
+	// Changes to in-memory state (the search index) waiting for the transaction on this thread to commit
+	private static final ThreadLocal<List<Runnable>> afterCommit = new ThreadLocal<>();
+	
+	// Run work in one transaction, work started inside another transaction joins it instead
+	private static <T> T inTransaction(SqlWork<T> work) throws SQLException {
+		try (Connection connection = getConnection()) {
+			if (!connection.getAutoCommit()) {
+				return work.run(connection); // Outer call commits
+			}
+			
+			connection.setAutoCommit(false);
+			List<Runnable> committed = new ArrayList<>();
+			afterCommit.set(committed);
+			try {
+				T result = work.run(connection);
+				connection.commit();
+				afterCommit.remove();
+				committed.forEach(Runnable::run);
+				return result;
+			} catch (SQLException | RuntimeException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				afterCommit.remove();
+				connection.setAutoCommit(true);
+			}
+		}
+	}
+	
+	// Run an in-memory change once the transaction this thread is in commits, or right away if it is in none
+	private static void afterCommit(Runnable change) {
+		List<Runnable> pending = afterCommit.get();
+		if (pending != null) {
+			pending.add(change);
+		} else {
+			change.run();
+		}
+	}
+	
 	// Check if the database is empty
 	public boolean isDatabaseEmpty() throws SQLException {
 		String query = "SELECT COUNT(*) AS count FROM cse360users";
-		ResultSet resultSet = statement.executeQuery(query);
-		if (resultSet.next()) {
-			return resultSet.getInt("count") == 0;
+		try (Connection connection = getConnection();
+			 Statement statement = connection.createStatement();
+			 ResultSet resultSet = statement.executeQuery(query)) {
+			if (resultSet.next()) {
+				return resultSet.getInt("count") == 0;
+			}
 		}
 		return true;
 	}
 
-	// Registers a new user in the database. Returns userId
+	// Grants a role, does nothing if the user already has it
+	private static final String GRANT_ROLE = "MERGE INTO userRoles (userId, roleId) KEY (userId, roleId) VALUES (?, ?)";
+	
+	// Registers a new user in the database with their roles. Returns userId
 	public int register(User user) throws SQLException {
-		String insertUser = "INSERT INTO cse360users (userName, password, fullName, email, role, hasUnreadMsgs) VALUES (?, ? , ?, ?, ?, ?)";
-		try (PreparedStatement pstmt = connection.prepareStatement(insertUser, Statement.RETURN_GENERATED_KEYS)) {
-			pstmt.setString(1, user.getUserName());
-			pstmt.setString(2, user.getPassword());
-			pstmt.setString(3, user.getFullName());
-			pstmt.setString(4, user.getEmail());
-			pstmt.setString(5, user.getRoleString());
-			pstmt.setBoolean(6, user.getHasUnreadMsgs());
-			pstmt.executeUpdate();
+		String insertUser = "INSERT INTO cse360users (userName, password, fullName, email) VALUES (?, ? , ?, ?)";
+		return inTransaction(connection -> {
+			int id;
+			try (PreparedStatement pstmt = connection.prepareStatement(insertUser, Statement.RETURN_GENERATED_KEYS)) {
+				pstmt.setString(1, user.getUserName());
+				pstmt.setString(2, user.getPassword());
+				pstmt.setString(3, user.getFullName());
+				pstmt.setString(4, user.getEmail());
+				pstmt.executeUpdate();
+				
+				// Get generated id
+				try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+					if (generatedKeys.next()) {
+						id = generatedKeys.getInt(1);
+					} else {
+						throw new SQLException("No User ID obtainted.");
+					}
+				}
+			}
 			
-			// Get generated id
-			try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-				if (generatedKeys.next()) {
-					return generatedKeys.getInt(1);
-				} else {
-					throw new SQLException("No User ID obtainted.");
+			try (PreparedStatement pstmt = connection.prepareStatement(GRANT_ROLE)) {
+				for (Role role : RoleSet.fromNames(user.getRole()).toList()) {
+					pstmt.setInt(1, id);
+					pstmt.setInt(2, role.getId());
+					pstmt.addBatch();
 				}
+				pstmt.executeBatch();
 			}
-		}
+			
+			invalidateUser(id);
+			return id;
+		});
 	}
 
-	// Validates a user's login credentials. Return userId or -1 if user not found
-	public int login(User user) throws SQLException {
-		String query = "SELECT * FROM cse360users WHERE userName = ? AND password = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setString(1, user.getUserName());
-			pstmt.setString(2, user.getPassword());
+	// Validates a user's login credentials and starts their session. Returns null if the user name or password is wrong
+	public SessionPrincipal login(String userName, String password) throws SQLException {
+		SessionPrincipal principal = readSession("u.userName = ? AND u.password = ?", userName, password);
+		session = principal;
+		return principal;
+	}
+	
+	// Starts the session of a user who just registered
+	public SessionPrincipal startSession(int userId) throws SQLException {
+		session = readSession("u.id = ?", userId);
+		return session;
+	}
+	
+	// The logged in user, null if nobody is logged in
+	public SessionPrincipal getSession() {
+		return session;
+	}
+	
+	public void endSession() {
+		session = null;
+		events.clear(); // The pages listening belong to the session
+	}
+	
+	// The session of the user matching the condition, with their roles and trusted reviewers, in one query
+	private static SessionPrincipal readSession(String condition, Object... values) throws SQLException {
+		String query = "SELECT u.id, u.userName, "
+				+ "(SELECT ARRAY_AGG(ur.roleId) FROM userRoles ur WHERE ur.userId = u.id) AS roleIds, "
+				+ "(SELECT ARRAY_AGG(tr.reviewerId ORDER BY tr.reviewerId) FROM trustedReviewers tr WHERE tr.studentId = u.id) AS reviewerIds, "
+				+ "(SELECT ARRAY_AGG(tr.weight ORDER BY tr.reviewerId) FROM trustedReviewers tr WHERE tr.studentId = u.id) AS weights "
+				+ "FROM cse360users u WHERE " + condition;
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			for (int i = 0; i < values.length; i++) {
+				pstmt.setObject(i + 1, values[i]);
+			}
 			try (ResultSet rs = pstmt.executeQuery()) {
-				if (rs.next()) {
-					return rs.getInt("id");
-				} else {
-					return -1;
+				if (!rs.next()) {
+					return null;
 				}
+				
+				RoleSet roles = RoleSet.EMPTY;
+				for (Object roleId : readArray(rs, "roleIds")) {
+					Role role = Role.fromId((Integer) roleId);
+					if (role != null) {
+						roles = roles.with(role);
+					}
+				}
+				
+				Map<Integer, Integer> trustedReviewerWeights = new HashMap<>();
+				Object[] reviewerIds = readArray(rs, "reviewerIds");
+				Object[] weights = readArray(rs, "weights");
+				for (int i = 0; i < reviewerIds.length; i++) {
+					trustedReviewerWeights.put((Integer) reviewerIds[i], (Integer) weights[i]);
+				}
+				
+				return new SessionPrincipal(rs.getInt("id"), rs.getString("userName"), roles, trustedReviewerWeights);
 			}
 		}
 	}
 	
+	// An ARRAY_AGG column, empty when there was nothing to aggregate
+	private static Object[] readArray(ResultSet rs, String column) throws SQLException {
+		Array array = rs.getArray(column);
+		return array == null ? new Object[0] : (Object[]) array.getArray();
+	}
+	
+	// Read the session again once a change to the logged in user's roles or trusted reviewers commits
+	private static void refreshSession(int userId) {
+		afterCommit(() -> {
+			SessionPrincipal current = session;
+			if (current == null || current.getUserId() != userId) {
+				return; // Not the logged in user
+			}
+			try {
+				session = readSession("u.id = ?", userId);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		});
+	}
+	
 	// Checks if a user already exists in the database based on their userName.
 	public boolean doesUserExist(String userName) {
 	    String query = "SELECT COUNT(*) FROM cse360users WHERE userName = ?";
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        
 	        pstmt.setString(1, userName);
 	        ResultSet rs = pstmt.executeQuery();
@@ -226,20 +639,29 @@ public class DatabaseHelper {
 	// Gathers existing user's data and creates a list
 	public List<User> getAllUsersList() {
         ArrayList<User> userList = new ArrayList<>();
-        String query = "SELECT userName, password, fullName, email, role FROM cse360users";
+        // One row per role, users with no role get one row with a NULL roleId
+        String query = "SELECT u.id, u.userName, u.password, u.fullName, u.email, u.unreadMessageCount, ur.roleId "
+        		+ "FROM cse360users u LEFT JOIN userRoles ur ON ur.userId = u.id ORDER BY u.id, ur.roleId";
 
-        try (PreparedStatement pstmt = connection.prepareStatement(query);
+        try (Connection connection = getConnection();
+             PreparedStatement pstmt = connection.prepareStatement(query);
              ResultSet rs = pstmt.executeQuery()) {
+        	int lastId = -1;
             while (rs.next()) {
-                String username = rs.getString("userName");
-                String password = rs.getString("password");
-                String fullName = rs.getString("fullName");
-                String email = rs.getString("email");
-                String role = rs.getString("role");
-                boolean hasUnreadMsgs = rs.getBoolean("hasUnreadMsgs");
-                ArrayList<String> roleList = new ArrayList<String>();
-                roleList.add(role);
-                userList.add(new User(username, password, fullName, email, roleList, hasUnreadMsgs));
+            	int id = rs.getInt("id");
+            	if (id != lastId) {
+	                String username = rs.getString("userName");
+	                String password = rs.getString("password");
+	                String fullName = rs.getString("fullName");
+	                String email = rs.getString("email");
+	                boolean hasUnreadMsgs = rs.getInt("unreadMessageCount") > 0;
+	                userList.add(new User(username, password, fullName, email, new ArrayList<String>(), hasUnreadMsgs));
+	                lastId = id;
+            	}
+            	Role role = readRole(rs);
+            	if (role != null) {
+            		userList.get(userList.size() - 1).getRole().add(role.getName());
+            	}
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -248,56 +670,156 @@ public class DatabaseHelper {
         return userList;
     }
 	
-	// Retrieves the roles of a user from the database using their UserName.
+	// The role in the roleId column of a LEFT JOIN on userRoles, null for a user without roles
+	private static Role readRole(ResultSet rs) throws SQLException {
+		int roleId = rs.getInt("roleId");
+		return rs.wasNull() ? null : Role.fromId(roleId);
+	}
+	
+	// Retrieves the role names of a user from the database using their UserName.
 	public ArrayList<String> getUserRole(String userName) {
-	    String query = "SELECT role FROM cse360users WHERE userName = ?";
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    String query = "SELECT ur.roleId FROM cse360users u LEFT JOIN userRoles ur ON ur.userId = u.id WHERE u.userName = ?";
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setString(1, userName);
 	        ResultSet rs = pstmt.executeQuery();
 	        
-	        if (rs.next()) {
-	            String rolesString = rs.getString("role"); // Get the roles if user exists
-	            return new ArrayList<String>(List.of(rolesString.split(", "))); // Split by commas 
+	        if (!rs.next()) {
+	        	return null; // If no user exists
 	        }
+	        RoleSet roles = RoleSet.EMPTY;
+	        do {
+	        	Role role = readRole(rs);
+	        	if (role != null) {
+	        		roles = roles.with(role);
+	        	}
+	        } while (rs.next());
+	        return roles.getNames();
 	    } catch (SQLException e) {
 	        e.printStackTrace();
 	    }
-	    return null; // If no user exists or an error occurs
+	    return null; // If an error occurs
 	}
 	
-	// Retrieves the roles of a user from the database using their id.
-	public ArrayList<String> getUserRole(int id) {
-	    String query = "SELECT role FROM cse360users WHERE id = ?";
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-	        pstmt.setInt(1, id);
+	// Retrieves the roles of a user using their id, from the user cache when it has the user. Empty if there is no such user
+	public RoleSet getUserRoles(int id) {
+	    UserLightweightDTO user = getUser(id);
+	    return user == null ? RoleSet.EMPTY : user.getRoles();
+	}
+	
+	// Ids of every user with a role, in id order
+	public List<Integer> getUserIdsWithRole(Role role) {
+	    List<Integer> userIds = new ArrayList<>();
+	    String query = "SELECT userId FROM userRoles WHERE roleId = ? ORDER BY userId";
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
+	        pstmt.setInt(1, role.getId());
 	        ResultSet rs = pstmt.executeQuery();
-	        
-	        if (rs.next()) {
-	            String rolesString = rs.getString("role"); // Get the roles if user exists
-	            return new ArrayList<String>(List.of(rolesString.split(", "))); // Split by commas 
+	        while (rs.next()) {
+	        	userIds.add(rs.getInt("userId"));
 	        }
 	    } catch (SQLException e) {
 	        e.printStackTrace();
 	    }
-	    return null; // If no user exists or an error occurs
+	    return userIds;
+	}
+	
+	// Question list rows with everything a search result cell shows. The author and answer count are
+	// subqueries rather than joins so filters and sorts written against the questions columns
+	// (e.g. "WHERE userId = 1 ORDER BY id DESC") apply to the questions table directly and use its indexes
+	private static final String QUESTION_ROW_QUERY = "SELECT id, userId, title, resolved, authorUnreadCount, "
+			+ "(SELECT u.userName FROM cse360users u WHERE u.id = questions.userId) AS userName, "
+			+ "(SELECT COUNT(*) FROM answers a WHERE a.questionId = questions.id) AS answerCount "
+			+ "FROM questions ";
+	
+	// Read one row of QUESTION_ROW_QUERY
+	private static QuestionLightweightDTO readQuestionRow(ResultSet rs) throws SQLException {
+		int id = rs.getInt("id");
+		int userId = rs.getInt("userId");
+		String title = rs.getString("title");
+		String authorName = rs.getString("userName");
+		boolean resolved = rs.getBoolean("resolved");
+		int unreadCount = rs.getInt("authorUnreadCount");
+		int answerCount = rs.getInt("answerCount");
+		return new QuestionLightweightDTO(id, userId, title, authorName == null ? "" : authorName, resolved, unreadCount, answerCount);
 	}
 	
 	// Retrieves the lightweight version of all questions in the database and creates a list
 	public List<QuestionLightweightDTO> getAllQuestions(String filter) {
+		return getAllQuestions(filter, new QueryCancellation());
+	}
+	
+	// Same as getAllQuestions(filter), but the query can be cancelled. A cancelled query returns what it read so far
+	public List<QuestionLightweightDTO> getAllQuestions(String filter, QueryCancellation cancellation) {
 		ArrayList<QuestionLightweightDTO> questionList = new ArrayList<>();
-		String query = "SELECT id, userId, title FROM questions " + filter;
+		String query = QUESTION_ROW_QUERY + filter;
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			ResultSet rs = pstmt.executeQuery();
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			cancellation.register(pstmt);
+			try {
+				ResultSet rs = pstmt.executeQuery();
+				
+				while (rs.next()) {
+					questionList.add(readQuestionRow(rs));
+				}
+			} finally {
+				cancellation.unregister();
+			}
+		} catch (SQLException e) {
+			if (!cancellation.isCancelled()) {
+				e.printStackTrace();
+			}
+		}
+		
+		return questionList;
+	}
+	
+	/*
+	 * Retrieves one page of the question list. Pass null for the first page, then the last question
+	 * of a page to get the page after it. Pages are found by where the last one ended rather than by
+	 * an offset, so reading the thousandth page costs the same as reading the first. The filter is a
+	 * condition on the questions columns (e.g. "resolved = FALSE"), or "" for every question.
+	 */
+	public List<QuestionLightweightDTO> getQuestions(String filter, QuestionOrder order, QuestionLightweightDTO after, int pageSize, QueryCancellation cancellation) {
+		ArrayList<QuestionLightweightDTO> questionList = new ArrayList<>();
+		
+		List<String> conditions = new ArrayList<>();
+		if (!filter.isEmpty()) {
+			conditions.add("(" + filter + ")");
+		}
+		if (after != null) {
+			conditions.add(order.getAfter());
+		}
+		String query = QUESTION_ROW_QUERY + (conditions.isEmpty() ? "" : "WHERE " + String.join(" AND ", conditions) + " ")
+				+ order.getOrderBy() + " LIMIT ?";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			int parameter = 1;
+			if (after != null) {
+				if (order.isTitleOrder()) {
+					pstmt.setString(parameter++, after.getTitle());
+					pstmt.setString(parameter++, after.getTitle());
+				}
+				pstmt.setInt(parameter++, after.getQuestionId());
+			}
+			pstmt.setInt(parameter, pageSize);
 			
-			while (rs.next()) {
-				int id = rs.getInt("id");
-				int userId = rs.getInt("userId");
-				String title = rs.getString("title");
-				questionList.add(new QuestionLightweightDTO(id, userId, title));
+			cancellation.register(pstmt);
+			try {
+				ResultSet rs = pstmt.executeQuery();
+				
+				while (rs.next()) {
+					questionList.add(readQuestionRow(rs));
+				}
+			} finally {
+				cancellation.unregister();
 			}
 		} catch (SQLException e) {
-			e.printStackTrace();
+			if (!cancellation.isCancelled()) {
+				e.printStackTrace();
+			}
 		}
 		
 		return questionList;
@@ -308,7 +830,8 @@ public class DatabaseHelper {
 		ArrayList<AnswerLightweightDTO> answerList = new ArrayList<>();
 		String query = "SELECT id, userId, content FROM answers WHERE questionId = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -328,7 +851,8 @@ public class DatabaseHelper {
 	public AnswerLightweightDTO getAnswerDTO(int answerId) {
 		String query = "SELECT id, userId, content FROM answers WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, answerId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -350,7 +874,8 @@ public class DatabaseHelper {
 	    String code = UUID.randomUUID().toString().substring(0, 4); // Generate a random 4-character code
 	    String query = "INSERT INTO InvitationCodes (code) VALUES (?)";
 
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setString(1, code);
 	        pstmt.executeUpdate();
 	    } catch (SQLException e) {
@@ -363,7 +888,8 @@ public class DatabaseHelper {
 	// Validates an invitation code to check if it is unused.
 	public boolean validateInvitationCode(String code) {
 	    String query = "SELECT * FROM InvitationCodes WHERE code = ? AND isUsed = FALSE";
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setString(1, code);
 	        ResultSet rs = pstmt.executeQuery();
 	        if (rs.next()) {
@@ -380,7 +906,8 @@ public class DatabaseHelper {
 	// Marks the invitation code as used in the database.
 	private void markInvitationCodeAsUsed(String code) {
 	    String query = "UPDATE InvitationCodes SET isUsed = TRUE WHERE code = ?";
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setString(1, code);
 	        pstmt.executeUpdate();
 	    } catch (SQLException e) {
@@ -391,55 +918,180 @@ public class DatabaseHelper {
 	// Search for questions through keywords
 	private static final List<String> COMMON_WORDS = Arrays.asList("the", "and", "is", "of", "to", "in", "that", "it", "for");
 
-	public static List<QuestionLightweightDTO> searchQuestions(String query, String filter, String sort) {
-	    List<QuestionLightweightDTO> results = new ArrayList<>();
-	    String[] keywords = query.toLowerCase().split("\\s+");
-	    List<String> filteredKeywords = new ArrayList<>();
-	    
-	    for (String keyword : keywords) {
-	        if (!COMMON_WORDS.contains(keyword)) {
-	            filteredKeywords.add(keyword);
-	        }
-	    }
-	    
-	    if (filteredKeywords.isEmpty()) {
-	        return results; // Return empty if only common words were entered
-	    }
-	    
-	    StringBuilder sql = new StringBuilder("SELECT DISTINCT id, userId, title FROM questions WHERE (");
-	    
-	    for (int i = 0; i < filteredKeywords.size(); i++) {
-	        sql.append("LOWER(title) LIKE ?");
-	        if (i < filteredKeywords.size() - 1) {
-	            sql.append(" OR ");
-	        }
-	    }
-	    sql.append(") ");
-	    
-	    // Add filter and sort
-	    if (filter != "") {
-	    	sql.append("AND " + filter + " ");
-	    }
-	    sql.append(sort);
-	    
-	    try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
-	         PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-	        
-	        for (int i = 0; i < filteredKeywords.size(); i++) {
-	            stmt.setString(i + 1, "%" + filteredKeywords.get(i) + "%"); 
-	        }
-	        
-	        ResultSet rs = stmt.executeQuery();
-	        while (rs.next()) {
-	            int id = rs.getInt("id");
-	            int userId = rs.getInt("userId");
-	            String title = rs.getString("title");
-	            results.add(new QuestionLightweightDTO(id, userId, title));
-	        }
-	    } catch (SQLException e) {
-	        e.printStackTrace();
-	    }
-	    return results;
+	// Build the keyword search index from every question. Rows are read in batches and each batch is
+	// tokenized in parallel, only adding the tokenized questions to the index is done one at a time
+	private void buildSearchIndex() throws SQLException {
+		long start = System.nanoTime();
+		questionIndex = null; // Let a previous index be collected while the new one is built
+		QuestionSearchIndex index = new QuestionSearchIndex(COMMON_WORDS);
+		String query = "SELECT id, title, description FROM questions";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setFetchSize(SEARCH_INDEX_BATCH_SIZE);
+			ResultSet rs = pstmt.executeQuery();
+			
+			List<Integer> ids = new ArrayList<>(SEARCH_INDEX_BATCH_SIZE);
+			List<String> titles = new ArrayList<>(SEARCH_INDEX_BATCH_SIZE);
+			List<String> descriptions = new ArrayList<>(SEARCH_INDEX_BATCH_SIZE);
+			boolean more = true;
+			while (more) {
+				more = rs.next();
+				if (more) {
+					ids.add(rs.getInt("id"));
+					titles.add(rs.getString("title"));
+					descriptions.add(rs.getString("description"));
+				}
+				
+				if (ids.size() == SEARCH_INDEX_BATCH_SIZE || (!more && !ids.isEmpty())) {
+					List<QuestionSearchIndex.Document> documents = IntStream.range(0, ids.size()).parallel()
+							.mapToObj(i -> index.analyze(ids.get(i), titles.get(i), descriptions.get(i)))
+							.collect(Collectors.toList());
+					documents.forEach(index::add);
+					ids.clear();
+					titles.clear();
+					descriptions.clear();
+				}
+			}
+		}
+		
+		questionIndex = index;
+		System.out.println("Search index built for " + index.size() + " questions in " + (System.nanoTime() - start) / 1000000 + " ms");
+	}
+	
+	// Rank the questions whose title or description has any of the keywords in the query, best match first.
+	// Empty if nothing matched, only common words were entered or the search index is not built
+	static int[] rankQuestions(String query) {
+		if (questionIndex == null) {
+			System.out.println("*** Error *** Search index is not built.");
+			return new int[0];
+		}
+		return questionIndex.search(query);
+	}
+	
+	/*
+	 * Retrieves one page of the questions of a keyword search, from the ids the search index ranked.
+	 * Pass null for the first page, then the last question of a page to get the page after it. With an
+	 * order the page is found as in getQuestions, among the ranked ids. Without one the best matches come
+	 * first: the ranked ids after the last question are read a page of ids at a time, until a page of
+	 * them passes the filter, so only the rows shown are ever read. The filter is as for getQuestions.
+	 */
+	static List<QuestionLightweightDTO> searchQuestions(int[] rankedIds, String filter, QuestionOrder order, QuestionLightweightDTO after, int pageSize, QueryCancellation cancellation) {
+		List<QuestionLightweightDTO> results = new ArrayList<>();
+		
+		List<String> conditions = new ArrayList<>();
+		conditions.add("id = ANY(?)");
+		if (!filter.isEmpty()) {
+			conditions.add("(" + filter + ")");
+		}
+		if (order != null && after != null) {
+			conditions.add(order.getAfter());
+		}
+		String query = QUESTION_ROW_QUERY + "WHERE " + String.join(" AND ", conditions) + " "
+				+ (order != null ? order.getOrderBy() + " LIMIT ?" : "");
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			cancellation.register(pstmt);
+			try {
+				if (order != null) {
+					int parameter = 1;
+					pstmt.setObject(parameter++, Arrays.stream(rankedIds).boxed().toArray(Integer[]::new));
+					if (after != null) {
+						if (order.isTitleOrder()) {
+							pstmt.setString(parameter++, after.getTitle());
+							pstmt.setString(parameter++, after.getTitle());
+						}
+						pstmt.setInt(parameter++, after.getQuestionId());
+					}
+					pstmt.setInt(parameter, pageSize);
+					
+					try (ResultSet rs = pstmt.executeQuery()) {
+						while (rs.next()) {
+							results.add(readQuestionRow(rs));
+						}
+					}
+					return results;
+				}
+				
+				// Pages are only read while scrolling, so finding where the last one ended with a scan is cheap enough
+				int from = 0;
+				if (after != null) {
+					while (from < rankedIds.length && rankedIds[from] != after.getQuestionId()) {
+						from++;
+					}
+					from++;
+				}
+				
+				while (from < rankedIds.length && results.size() < pageSize && !cancellation.isCancelled()) {
+					int[] ids = Arrays.copyOfRange(rankedIds, from, Math.min(from + pageSize, rankedIds.length));
+					from += ids.length;
+					pstmt.setObject(1, Arrays.stream(ids).boxed().toArray(Integer[]::new));
+					
+					List<QuestionLightweightDTO> rows = new ArrayList<>();
+					try (ResultSet rs = pstmt.executeQuery()) {
+						while (rs.next()) {
+							rows.add(readQuestionRow(rs));
+						}
+					}
+					sortByRank(rows, ids);
+					results.addAll(rows);
+				}
+			} finally {
+				cancellation.unregister();
+			}
+		} catch (SQLException e) {
+			if (!cancellation.isCancelled()) {
+				e.printStackTrace();
+			}
+		}
+		
+		// The next page starts after the last question kept, so the ones dropped here are read again then
+		if (results.size() > pageSize) {
+			results.subList(pageSize, results.size()).clear();
+		}
+		return results;
+	}
+	
+	/*
+	 * Answer a search by filtering the results of the search before it instead of going back to the
+	 * database, for when the user only kept typing the last keyword. The previous results must be
+	 * every result of the search, read with the same filter and order (null for best match first).
+	 * Returns null if the new search could find questions the previous one did not, then it has to
+	 * be run with a new QuestionSearch.
+	 */
+	public static List<QuestionLightweightDTO> refineQuestionSearch(List<QuestionLightweightDTO> previousResults, String previousQuery, String query, QuestionOrder order) {
+		if (questionIndex == null || !questionIndex.narrows(previousQuery, query)) {
+			return null;
+		}
+		
+		int[] rankedIds = questionIndex.search(query);
+		Set<Integer> matches = new HashSet<>();
+		for (int id : rankedIds) {
+			matches.add(id);
+		}
+		
+		// Keeping the previous order keeps the sort, the filter already left out everything it should
+		List<QuestionLightweightDTO> results = new ArrayList<>();
+		for (QuestionLightweightDTO question : previousResults) {
+			if (matches.contains(question.getQuestionId())) {
+				results.add(question);
+			}
+		}
+		
+		if (order == null) {
+			sortByRank(results, rankedIds); // Scores change as the keyword changes
+		}
+		return results;
+	}
+	
+	// Put question rows in the order of the ranked ids from the search index
+	private static void sortByRank(List<QuestionLightweightDTO> questions, int[] rankedIds) {
+		Map<Integer, Integer> rank = new HashMap<>();
+		for (int i = 0; i < rankedIds.length; i++) {
+			rank.put(rankedIds[i], i);
+		}
+		questions.sort((a, b) -> Integer.compare(rank.get(a.getQuestionId()), rank.get(b.getQuestionId())));
 	}
 	
 	// Adds a question to the database
@@ -452,12 +1104,38 @@ public class DatabaseHelper {
 		addAnswer(answer.getUserId(), answer.getQuestionId(), answer.getContent());
 	}
 	
-	// Get a user from the database by its ID
+	// Get a user by its ID, from the user cache when it has the user. The user is shared, do not change its roles
 	public UserLightweightDTO getUser(int id) {
+		UserLightweightDTO user = userCache.get(id);
+		if (user != null) {
+			return user;
+		}
+		
+		long stamp = userCache.stamp();
+		user = readUser(id);
+		
+		// A user read inside a transaction may hold writes that are later rolled back
+		if (user != null && afterCommit.get() == null) {
+			userCache.put(id, user, stamp);
+		}
+		return user;
+	}
+	
+	// Forget a cached user whose row is being written, again once the write commits so a read that raced it is not kept
+	private static void invalidateUser(int id) {
+		userCache.invalidate(id);
+		afterCommit(() -> userCache.invalidate(id));
+	}
+	
+	// Read a user from the database by its ID
+	private UserLightweightDTO readUser(int id) {
 		UserLightweightDTO user = null; // Returns null user if not found
-		String query = "SELECT * FROM cse360users WHERE id = ?";
+		// One row per role, a user with no role gets one row with a NULL roleId
+		String query = "SELECT u.userName, u.fullName, u.email, u.unreadMessageCount, ur.roleId "
+				+ "FROM cse360users u LEFT JOIN userRoles ur ON ur.userId = u.id WHERE u.id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -465,9 +1143,14 @@ public class DatabaseHelper {
 				String userName = rs.getString("userName");
 				String fullName = rs.getString("fullName");
 				String email = rs.getString("email");
-				String role = rs.getString("role");
-				boolean hasUnreadMsgs = rs.getBoolean("hasUnreadMsgs");
-				ArrayList<String> roles = new ArrayList<>(Arrays.asList(role.split(", ")));
+				boolean hasUnreadMsgs = rs.getInt("unreadMessageCount") > 0;
+				RoleSet roles = RoleSet.EMPTY;
+				do {
+					Role role = readRole(rs);
+					if (role != null) {
+						roles = roles.with(role);
+					}
+				} while (rs.next());
 				
 				user = new UserLightweightDTO(userName, fullName, email, roles, hasUnreadMsgs);
 			}
@@ -483,7 +1166,8 @@ public class DatabaseHelper {
 		Question question = null; // Returns null question if not found
 		String query = "SELECT * FROM questions WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -502,12 +1186,156 @@ public class DatabaseHelper {
 		return question;
 	}
 	
+	// Get what the question page first shows: the question with its author and answer count, the resolved answer and
+	// the first answerLimit answers (oldest first) with their author, vote totals, trust score and the viewer's vote,
+	// and the viewer's unread message counts. Later answers are read with getAnswerViewsAfter. Returns null if the question is not found
+	public QuestionPageView getQuestionPageView(int questionId, int viewerId, int answerLimit) {
+		String questionQuery = "SELECT q.userId, q.title, q.description, q.parentQuestionId, q.resolved, q.resolvedAnswerId, u.userName, "
+				+ "(SELECT COUNT(*) FROM answers WHERE questionId = q.id) AS answerCount, "
+				+ "(SELECT COALESCE(SUM(unreadCount), 0) FROM unreadMessages WHERE userId = ? AND parentType = 'question' AND parentId = q.id) AS unreadMessages "
+				+ "FROM questions q LEFT JOIN cse360users u ON q.userId = u.id WHERE q.id = ?";
+		String answerQuery = ANSWER_VIEW_QUERY + "WHERE a.questionId = ? ORDER BY a.id LIMIT ?";
+		String resolvedQuery = ANSWER_VIEW_QUERY + "WHERE a.id = ?";
+		
+		try (Connection connection = getConnection()) {
+			Question question;
+			String authorName;
+			boolean resolved;
+			int resolvedAnswerId;
+			int answerCount;
+			int questionUnread;
+			
+			try (PreparedStatement pstmt = connection.prepareStatement(questionQuery)) {
+				pstmt.setInt(1, viewerId);
+				pstmt.setInt(2, questionId);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					if (!rs.next()) {
+						return null; // Question not found
+					}
+					question = new Question(rs.getInt("userId"), rs.getString("title"), rs.getString("description"), rs.getInt("parentQuestionId"));
+					authorName = rs.getString("userName") == null ? "" : rs.getString("userName");
+					resolved = rs.getBoolean("resolved");
+					Integer resolvedId = rs.getObject("resolvedAnswerId", Integer.class);
+					resolvedAnswerId = resolvedId == null ? -1 : resolvedId;
+					answerCount = rs.getInt("answerCount");
+					questionUnread = rs.getInt("unreadMessages");
+				}
+			}
+			
+			List<QuestionPageView.AnswerView> answers = new ArrayList<>();
+			QuestionPageView.AnswerView resolvedAnswer = null;
+			try (PreparedStatement pstmt = connection.prepareStatement(answerQuery)) {
+				pstmt.setInt(1, viewerId);
+				pstmt.setInt(2, viewerId);
+				pstmt.setInt(3, questionId);
+				pstmt.setInt(4, answerLimit);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					while (rs.next()) {
+						QuestionPageView.AnswerView answer = readAnswerView(rs);
+						if (resolved && answer.getAnswerId() == resolvedAnswerId) {
+							resolvedAnswer = answer;
+						}
+						answers.add(answer);
+					}
+				}
+			}
+			
+			// The resolved answer is shown first, read it on its own if it is not among the first answers
+			if (resolved && resolvedAnswer == null) {
+				try (PreparedStatement pstmt = connection.prepareStatement(resolvedQuery)) {
+					pstmt.setInt(1, viewerId);
+					pstmt.setInt(2, viewerId);
+					pstmt.setInt(3, resolvedAnswerId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (rs.next()) {
+							resolvedAnswer = readAnswerView(rs);
+						}
+					}
+				}
+			}
+			
+			return new QuestionPageView(questionId, question, authorName, resolved, resolvedAnswerId, resolvedAnswer, answers, answerCount, questionUnread);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	// One answer as a viewer sees it on the question page, e.g. one just posted. Null if not found
+	public QuestionPageView.AnswerView getAnswerView(int answerId, int viewerId) {
+		String query = ANSWER_VIEW_QUERY + "WHERE a.id = ?";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, viewerId);
+			pstmt.setInt(2, viewerId);
+			pstmt.setInt(3, answerId);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				if (rs.next()) {
+					return readAnswerView(rs);
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		return null;
+	}
+	
+	// The next answers of a question after the one with afterAnswerId (oldest first), as the viewer sees them on the question page
+	public List<QuestionPageView.AnswerView> getAnswerViewsAfter(int questionId, int viewerId, int afterAnswerId, int limit) {
+		List<QuestionPageView.AnswerView> answers = new ArrayList<>();
+		String query = ANSWER_VIEW_QUERY + "WHERE a.questionId = ? AND a.id > ? ORDER BY a.id LIMIT ?";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, viewerId);
+			pstmt.setInt(2, viewerId);
+			pstmt.setInt(3, questionId);
+			pstmt.setInt(4, afterAnswerId);
+			pstmt.setInt(5, limit);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					answers.add(readAnswerView(rs));
+				}
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		return answers;
+	}
+	
+	// Answers with their author, the viewer's vote and the viewer's unread messages about them, the viewer id is the first two parameters
+	private static final String ANSWER_VIEW_QUERY = "SELECT a.id, a.userId, a.content, a.upvoteCount, a.downvoteCount, a.trustScore, u.userName, v.voteType, m.unreadMessages "
+			+ "FROM answers a "
+			+ "LEFT JOIN cse360users u ON a.userId = u.id "
+			+ "LEFT JOIN votes v ON v.answerId = a.id AND v.userId = ? "
+			+ "LEFT JOIN (SELECT parentId, SUM(unreadCount) AS unreadMessages FROM unreadMessages "
+			+ "WHERE userId = ? AND parentType = 'answer' GROUP BY parentId) m ON m.parentId = a.id ";
+	
+	private static QuestionPageView.AnswerView readAnswerView(ResultSet rs) throws SQLException {
+		String answerAuthor = rs.getString("userName");
+		return new QuestionPageView.AnswerView(
+				rs.getInt("id"),
+				rs.getInt("userId"),
+				rs.getString("content"),
+				answerAuthor == null ? "" : answerAuthor,
+				rs.getInt("upvoteCount"),
+				rs.getInt("downvoteCount"),
+				rs.getInt("voteType"), // 0 when the viewer has not voted
+				rs.getInt("trustScore"),
+				rs.getInt("unreadMessages")); // 0 when there are none
+	}
+	
 	// Get an answer from the database by its ID
 	public Answer getAnswer(int id) {
 		Answer answer = null; // Returns null answer if not found
 		String query = "SELECT * FROM answers WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -528,12 +1356,25 @@ public class DatabaseHelper {
 	// Adds a question to the database
 	public void addQuestion(int userId, String title, String description, int parentQuestionId) {
 		String insertQuestion = "INSERT INTO questions (userId, title, description, parentQuestionId) VALUES (?, ? , ?, ?)";
-		try (PreparedStatement pstmt = connection.prepareStatement(insertQuestion)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(insertQuestion, Statement.RETURN_GENERATED_KEYS)) {
 			pstmt.setInt(1, userId);
 			pstmt.setString(2, title);
 			pstmt.setString(3, description);
 			pstmt.setInt(4, parentQuestionId);
 			pstmt.executeUpdate();
+			
+			// Add the new question to the search index
+			ResultSet keys = pstmt.getGeneratedKeys();
+			if (keys.next()) {
+				int questionId = keys.getInt(1);
+				afterCommit(() -> {
+					if (questionIndex != null) {
+						questionIndex.add(questionId, title, description);
+					}
+				});
+				publish(new DomainEvent.QuestionAdded(questionId, userId, parentQuestionId));
+			}
 		} catch (SQLException e) {
 	        e.printStackTrace();
 	    }
@@ -542,16 +1383,27 @@ public class DatabaseHelper {
 	// Adds a answer to the database
 	public void addAnswer(int userId, int questionId, String content) {
 		String insertAnswer = "INSERT INTO answers (userId, questionId, content) VALUES (?, ? , ?)";
-		try (PreparedStatement pstmt = connection.prepareStatement(insertAnswer)) {
-			pstmt.setInt(1, userId);
-			pstmt.setInt(2, questionId);
-			pstmt.setString(3, content);
-			pstmt.executeUpdate();
-			
-			// Increment unread count if userId is not the author
-			if (userId != getQuestion(questionId).getUserId()) {
-				incrementQuestionUnreadCount(questionId);
-			}
+		// Increment unread count if userId is not the author, checked by the update itself instead of reading the question
+		String unreadQuery = "UPDATE questions SET authorUnreadCount = authorUnreadCount + 1 WHERE id = ? AND userId <> ?";
+		
+		try {
+			inTransaction(connection -> {
+				int answerId;
+				try (PreparedStatement pstmt = connection.prepareStatement(insertAnswer, Statement.RETURN_GENERATED_KEYS)) {
+					pstmt.setInt(1, userId);
+					pstmt.setInt(2, questionId);
+					pstmt.setString(3, content);
+					pstmt.executeUpdate();
+					answerId = readGeneratedId(pstmt);
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(unreadQuery)) {
+					pstmt.setInt(1, questionId);
+					pstmt.setInt(2, userId);
+					pstmt.executeUpdate();
+				}
+				publish(new DomainEvent.AnswerAdded(answerId, questionId, userId));
+				return null;
+			});
 		} catch (SQLException e) {
 	        e.printStackTrace();
 	    }
@@ -560,7 +1412,8 @@ public class DatabaseHelper {
 	// Get title of question
 	public String getQuestionTitle(int questionId) {
 		String query = "SELECT title FROM questions WHERE id = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -577,7 +1430,8 @@ public class DatabaseHelper {
 	// Get description of question
 	public String getQuestionDescription(int questionId) {
 		String query = "SELECT description FROM questions WHERE id = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -593,7 +1447,8 @@ public class DatabaseHelper {
 	
 	public int getQuestionParentId(int questionId) {
 		String query = "SELECT parentQuestionId FROM questions WHERE id = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -611,7 +1466,8 @@ public class DatabaseHelper {
 	public String getQuestionUsername(int questionId) {
 		String query = "SELECT u.userName FROM questions q JOIN cse360users u ON q.userId = u.id WHERE q.id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -629,7 +1485,8 @@ public class DatabaseHelper {
 	public int getQuestionUnreadCount(int questionId) {
 		String query = "SELECT authorUnreadCount FROM questions WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -647,7 +1504,8 @@ public class DatabaseHelper {
 	public void incrementQuestionUnreadCount(int questionId) {
 		String query = "UPDATE questions SET authorUnreadCount = authorUnreadCount + 1 WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			pstmt.executeUpdate();
 		} catch (SQLException e) {
@@ -659,7 +1517,8 @@ public class DatabaseHelper {
 	public void resetQuestionUnreadCount(int questionId) {
 		String query = "UPDATE questions SET authorUnreadCount = 0 WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			pstmt.executeUpdate();
 		} catch (SQLException e) {
@@ -670,7 +1529,8 @@ public class DatabaseHelper {
 	// Get answer content
 	public String getAnswerContent(int id) {
 		String query = "SELECT content FROM answers WHERE id = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -688,7 +1548,8 @@ public class DatabaseHelper {
 	public String getAnswerUsername(int id) {
 		String query = "SELECT u.userName FROM answers a JOIN cse360users u ON a.userId = u.id WHERE a.id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -704,31 +1565,53 @@ public class DatabaseHelper {
 	
 	// Update question title
 	public void updateQuestionTitle(int id, String newTitle) {
-		String query = "UPDATE questions SET title = ? WHERE id = ?";
-		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setString(1, newTitle);
-			pstmt.setInt(2, id);
-			int updatedQuestions = pstmt.executeUpdate(); // Number of questions updated (should be either 0 or 1, but will check for any number changed)
-			
-			if (updatedQuestions < 1) {
-				System.out.println("*** Error *** Question not found.");
-			}
-		} catch (SQLException e) {
-			e.printStackTrace();
-		}
+		editQuestion(id, newTitle, null);
 	}
 	
 	// Update question description
 	public void updateQuestionDescription(int id, String newDescription) {
-		String query = "UPDATE questions SET description = ? WHERE id = ?";
+		editQuestion(id, null, newDescription);
+	}
+	
+	// Update title and description of question together
+	public void updateQuestion(int id, String newTitle, String newDescription) {
+		editQuestion(id, newTitle, newDescription);
+	}
+	
+	// Edit a question, a null title or description keeps the old one. The old text is what the search index takes
+	// out, so it is read locked on the same connection as the update and an overlapping edit waits for this one
+	private void editQuestion(int id, String newTitle, String newDescription) {
+		String selectQuery = "SELECT title, description FROM questions WHERE id = ? FOR UPDATE";
+		String query = "UPDATE questions SET title = ?, description = ? WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setString(1, newDescription);
-			pstmt.setInt(2, id);
-			int updatedQuestions = pstmt.executeUpdate(); // Number of questions updated (should be either 0 or 1, but will check for any number changed)
+		try {
+			boolean updated = inTransaction(connection -> {
+				String oldTitle;
+				String oldDescription;
+				try (PreparedStatement pstmt = connection.prepareStatement(selectQuery)) {
+					pstmt.setInt(1, id);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (!rs.next()) {
+							return false;
+						}
+						oldTitle = rs.getString("title");
+						oldDescription = rs.getString("description");
+					}
+				}
+				
+				String title = newTitle != null ? newTitle : oldTitle;
+				String description = newDescription != null ? newDescription : oldDescription;
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					pstmt.setString(1, title);
+					pstmt.setString(2, description);
+					pstmt.setInt(3, id);
+					pstmt.executeUpdate();
+				}
+				questionEdited(id, oldTitle, oldDescription, title, description);
+				return true;
+			});
 			
-			if (updatedQuestions < 1) {
+			if (!updated) {
 				System.out.println("*** Error *** Question not found.");
 			}
 		} catch (SQLException e) {
@@ -736,14 +1619,43 @@ public class DatabaseHelper {
 		}
 	}
 	
+	// Replace an edited question's text in the search index and announce the edit once it is committed
+	private static void questionEdited(int id, String oldTitle, String oldDescription, String newTitle, String newDescription) {
+		afterCommit(() -> {
+			if (questionIndex != null) {
+				questionIndex.update(id, oldTitle, oldDescription, newTitle, newDescription);
+			}
+		});
+		publish(new DomainEvent.QuestionEdited(id, newTitle, newDescription));
+	}
+	
 	// Update answer content
 	public void updateAnswerContent(int id, String newContent) {
+		String questionQuery = "SELECT questionId FROM answers WHERE id = ?"; // For the event
 		String query = "UPDATE answers SET content = ? WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setString(1, newContent);
-			pstmt.setInt(2, id);
-			int updatedQuestions = pstmt.executeUpdate(); // Number of answers updated (should be either 0 or 1, but will check for any number changed)
+		try {
+			int updatedQuestions = inTransaction(connection -> {
+				int questionId = -1;
+				try (PreparedStatement pstmt = connection.prepareStatement(questionQuery)) {
+					pstmt.setInt(1, id);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (rs.next()) {
+							questionId = rs.getInt("questionId");
+						}
+					}
+				}
+				
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					pstmt.setString(1, newContent);
+					pstmt.setInt(2, id);
+					int updated = pstmt.executeUpdate(); // Number of answers updated (should be either 0 or 1, but will check for any number changed)
+					if (updated > 0) {
+						publish(new DomainEvent.AnswerEdited(id, questionId, newContent));
+					}
+					return updated;
+				}
+			});
 			
 			if (updatedQuestions < 1) {
 				System.out.println("*** Error *** Answer not found.");
@@ -755,35 +1667,70 @@ public class DatabaseHelper {
 	
 	// Delete question from database
 	public void deleteQuestion(int questionId) {
-		// Delete all associated answers
-		deleteAnswersForQuestion(questionId);
+		int questionsDeleted = deleteQuestions(new int[] { questionId }); // Number of questions deleted (should be either 0 or 1)
 		
-		String query = "DELETE FROM questions WHERE id = ?";
+		if (questionsDeleted < 1) {
+			System.out.println("*** Error *** Question ID not found.");
+		}
+	}
+	
+	/*
+	 * Delete several questions at once, for moderators clearing out questions. Their answers, the votes
+	 * on those answers, their reviews (through ON DELETE CASCADE) and the private messages on all of
+	 * them go with them. Everything is deleted with a few statements in one transaction, so either all
+	 * of it is deleted or none of it. Returns the number of questions deleted.
+	 */
+	public int deleteQuestions(int[] questionIds) {
+		String textQuery = "SELECT id, title, description FROM questions WHERE id = ANY(?)";
+		String deleteQuery = "DELETE FROM questions WHERE id = ANY(?)";
+		Integer[] ids = Arrays.stream(questionIds).boxed().toArray(Integer[]::new);
+		Map<Integer, Question> deleted = new HashMap<>();
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, questionId);
-			int questionsDeleted = pstmt.executeUpdate(); // Number of questions deleted (should be either 0 or 1, but will check for any number changed)
-			
-			if (questionsDeleted < 1) {
-				System.out.println("*** Error *** Question ID not found.");
-			}
+		try {
+			inTransaction(connection -> {
+				// The search index needs their text to take them out
+				try (PreparedStatement pstmt = connection.prepareStatement(textQuery)) {
+					pstmt.setObject(1, ids);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						while (rs.next()) {
+							deleted.put(rs.getInt("id"), new Question(0, rs.getString("title"), rs.getString("description"), -1));
+						}
+					}
+				}
+				
+				deleteConversations(connection, "review", "SELECT id FROM reviews WHERE questionId = ANY(?)", ids);
+				deleteConversations(connection, "question", "SELECT id FROM questions WHERE id = ANY(?)", ids);
+				deleteAnswers(connection, "questionId = ANY(?)", ids);
+				
+				try (PreparedStatement pstmt = connection.prepareStatement(deleteQuery)) {
+					pstmt.setObject(1, ids);
+					pstmt.executeUpdate();
+				}
+				return null;
+			});
 		} catch (SQLException e) {
 			e.printStackTrace();
+			return 0; // Rolled back, nothing was deleted
+		}
+		
+		// Only once the delete is committed, so a rolled back delete leaves the questions searchable
+		afterCommit(() -> {
+			if (questionIndex != null) {
+				for (Map.Entry<Integer, Question> question : deleted.entrySet()) {
+					questionIndex.remove(question.getKey(), question.getValue().getTitle(), question.getValue().getDescription());
+				}
+			}
+		});
+		for (int questionId : deleted.keySet()) {
+			publish(new DomainEvent.QuestionDeleted(questionId));
 		}
+		return deleted.size();
 	}
 	
-	// Delete votes for answer
+	// Delete all answers for a question
 	public void deleteAnswersForQuestion(int questionId) {
-		String query = "SELECT id FROM answers WHERE questionId = ?";
-		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, questionId);
-			ResultSet rs = pstmt.executeQuery();
-			
-			while (rs.next()) {
-				int answerId = rs.getInt("id");
-				deleteAnswer(answerId);
-			}
+		try {
+			inTransaction(connection -> deleteAnswers(connection, "questionId = ?", questionId));
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -791,17 +1738,32 @@ public class DatabaseHelper {
 	
 	// Delete answer from database
 	public void deleteAnswer(int answerId) {
-		// Delete associated votes
-		deleteVotesForAnswer(answerId);
+		// The question it answers and whether it is the resolved answer, for the events
+		String questionQuery = "SELECT a.questionId, q.resolvedAnswerId FROM answers a LEFT JOIN questions q ON q.id = a.questionId WHERE a.id = ?";
 		
-		// Delete associated resolves
-		deleteAssociatedResolvesForAnswer(answerId);
-		
-		String query = "DELETE FROM answers WHERE id = ?";
-		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, answerId);
-			int answersDeleted = pstmt.executeUpdate(); // Number of answers deleted (should be either 0 or 1, but will check for any number changed)
+		try {
+			int answersDeleted = inTransaction(connection -> {
+				int questionId = -1;
+				boolean resolvesQuestion = false;
+				try (PreparedStatement pstmt = connection.prepareStatement(questionQuery)) {
+					pstmt.setInt(1, answerId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (rs.next()) {
+							questionId = rs.getInt("questionId");
+							resolvesQuestion = rs.getInt("resolvedAnswerId") == answerId;
+						}
+					}
+				}
+				
+				int deleted = deleteAnswers(connection, "id = ?", answerId); // Number of answers deleted (should be either 0 or 1)
+				if (deleted > 0) {
+					if (resolvesQuestion) {
+						publish(new DomainEvent.QuestionResolved(questionId, -1));
+					}
+					publish(new DomainEvent.AnswerDeleted(answerId, questionId));
+				}
+				return deleted;
+			});
 			
 			if (answersDeleted < 1) {
 				System.out.println("*** Error *** Answer ID not found.");
@@ -811,11 +1773,95 @@ public class DatabaseHelper {
 		}
 	}
 	
-	// Count votes
+	/*
+	 * Delete the answers matching a condition on the answers columns with one parameter, along with
+	 * their votes and the private messages on them and their reviews, and unresolve any question resolved
+	 * by one of them. A fixed number of statements whatever the number of answers, run on the caller's
+	 * transaction. Returns the number of answers deleted.
+	 */
+	private static int deleteAnswers(Connection connection, String condition, Object value) throws SQLException {
+		String answerIds = "SELECT id FROM answers WHERE " + condition;
+		String votesQuery = "DELETE FROM votes WHERE answerId IN (" + answerIds + ")";
+		String resolvesQuery = "UPDATE questions SET resolvedAnswerId = NULL, resolved = FALSE WHERE resolvedAnswerId IN (" + answerIds + ")";
+		String answersQuery = "DELETE FROM answers WHERE " + condition;
+		
+		// Their reviews go with them through ON DELETE CASCADE, so clear the messages on those too
+		deleteConversations(connection, "review", "SELECT id FROM reviews WHERE answerId IN (" + answerIds + ")", value);
+		deleteConversations(connection, "answer", answerIds, value);
+		
+		for (String query : new String[] { votesQuery, resolvesQuery }) {
+			try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+				pstmt.setObject(1, value);
+				pstmt.executeUpdate();
+			}
+		}
+		
+		try (PreparedStatement pstmt = connection.prepareStatement(answersQuery)) {
+			pstmt.setObject(1, value);
+			return pstmt.executeUpdate();
+		}
+	}
+	
+	/*
+	 * Delete the conversations and messages about the posts of one type whose ids a subquery with one
+	 * parameter selects, and take their unread messages off each recipient's stored total. Run on the
+	 * caller's transaction before the posts themselves are deleted, as the subquery reads them.
+	 */
+	private static void deleteConversations(Connection connection, String parentType, String parentIds, Object value) throws SQLException {
+		// Locked so a message read or sent meanwhile cannot change the counts taken off
+		String unreadQuery = "SELECT userId, parentId, unreadCount FROM unreadMessages WHERE parentType = ? AND parentId IN (" + parentIds + ") FOR UPDATE";
+		String countQuery = "UPDATE cse360users SET unreadMessageCount = unreadMessageCount - ? WHERE id = ?";
+		String unreadDelete = "DELETE FROM unreadMessages WHERE parentType = ? AND parentId IN (" + parentIds + ")";
+		String messagesDelete = "DELETE FROM messages WHERE parentType = ? AND parentId IN (" + parentIds + ")";
+		String conversationsDelete = "DELETE FROM conversations WHERE parentType = ? AND parentId IN (" + parentIds + ")";
+		
+		Map<Integer, Integer> userCounts = new HashMap<>(); // Unread messages taken off each user
+		Map<Integer, Map<Integer, Integer>> postCounts = new HashMap<>(); // Per user, per post, for the events
+		try (PreparedStatement pstmt = connection.prepareStatement(unreadQuery)) {
+			pstmt.setString(1, parentType);
+			pstmt.setObject(2, value);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					int userId = rs.getInt("userId");
+					int unreadCount = rs.getInt("unreadCount");
+					userCounts.merge(userId, unreadCount, Integer::sum);
+					postCounts.computeIfAbsent(userId, k -> new HashMap<>()).merge(rs.getInt("parentId"), unreadCount, Integer::sum);
+				}
+			}
+		}
+		
+		try (PreparedStatement pstmt = connection.prepareStatement(countQuery)) {
+			for (Map.Entry<Integer, Integer> user : userCounts.entrySet()) {
+				pstmt.setInt(1, user.getValue());
+				pstmt.setInt(2, user.getKey());
+				pstmt.addBatch();
+			}
+			pstmt.executeBatch();
+		}
+		
+		for (String query : new String[] { unreadDelete, messagesDelete, conversationsDelete }) {
+			try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+				pstmt.setString(1, parentType);
+				pstmt.setObject(2, value);
+				pstmt.executeUpdate();
+			}
+		}
+		
+		// The users' badges count them as read now
+		for (Map.Entry<Integer, Map<Integer, Integer>> user : postCounts.entrySet()) {
+			invalidateUser(user.getKey());
+			for (Map.Entry<Integer, Integer> post : user.getValue().entrySet()) {
+				publish(new DomainEvent.MessagesRead(user.getKey(), parentType, post.getKey(), post.getValue()));
+			}
+		}
+	}
+	
+	// Count votes (upvotes minus downvotes), read from the totals stored on the answer
 	public int getAnswerVoteCount(int answerId) {
-		String query = "SELECT SUM(voteType) FROM votes WHERE answerId = ?";
+		String query = "SELECT upvoteCount - downvoteCount FROM answers WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, answerId);
 			
 			try (ResultSet rs = pstmt.executeQuery()) {
@@ -834,7 +1880,8 @@ public class DatabaseHelper {
 	public int getUserVoteForAnswer(int userId, int answerId) {
 		String query = "SELECT voteType FROM votes WHERE userId = ? AND answerId = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, userId);
 			pstmt.setInt(2, answerId);
 			ResultSet rs = pstmt.executeQuery();
@@ -849,27 +1896,122 @@ public class DatabaseHelper {
 		return 0;
 	}
 	
-	// Update user's vote for answer
-	public void updateUserVoteForAnswer(int userId, int answerId, int vote) {
-		String query = "MERGE INTO votes (userId, answerId, voteType) KEY (userId, answerId) VALUES (?, ?, ?)";
+	// Update user's vote for answer and apply the change to the answer's vote totals
+	public void updateUserVoteForAnswer(int userId, int answerId, int vote) {
+		String selectQuery = "SELECT voteType FROM votes WHERE userId = ? AND answerId = ? FOR UPDATE";
+		String mergeQuery = "MERGE INTO votes (userId, answerId, voteType) KEY (userId, answerId) VALUES (?, ?, ?)";
+		String totalsQuery = "UPDATE answers SET upvoteCount = upvoteCount + ?, downvoteCount = downvoteCount + ? WHERE id = ?";
+		String readTotalsQuery = "SELECT upvoteCount, downvoteCount FROM answers WHERE id = ?";
+		
+		try {
+			inTransaction(connection -> {
+				// Get the vote being replaced
+				int oldVote = 0;
+				try (PreparedStatement pstmt = connection.prepareStatement(selectQuery)) {
+					pstmt.setInt(1, userId);
+					pstmt.setInt(2, answerId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (rs.next()) {
+							oldVote = rs.getInt("voteType");
+						}
+					}
+				}
+				
+				if (oldVote == vote) {
+					return null; // Nothing changed
+				}
+				
+				try (PreparedStatement pstmt = connection.prepareStatement(mergeQuery)) {
+					pstmt.setInt(1, userId);
+					pstmt.setInt(2, answerId);
+					pstmt.setInt(3, vote);
+					pstmt.executeUpdate();
+				}
+				
+				// Apply the difference between the old and new vote
+				int upvoteDelta = (vote == 1 ? 1 : 0) - (oldVote == 1 ? 1 : 0);
+				int downvoteDelta = (vote == -1 ? 1 : 0) - (oldVote == -1 ? 1 : 0);
+				try (PreparedStatement pstmt = connection.prepareStatement(totalsQuery)) {
+					pstmt.setInt(1, upvoteDelta);
+					pstmt.setInt(2, downvoteDelta);
+					pstmt.setInt(3, answerId);
+					pstmt.executeUpdate();
+				}
+				
+				// The totals this transaction left, for pages showing the answer
+				try (PreparedStatement pstmt = connection.prepareStatement(readTotalsQuery)) {
+					pstmt.setInt(1, answerId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (rs.next()) {
+							publish(new DomainEvent.VoteChanged(answerId, userId, vote, rs.getInt("upvoteCount"), rs.getInt("downvoteCount")));
+						}
+					}
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// Delete votes for answer and clear its vote totals
+	public void deleteVotesForAnswer(int answerId) {
+		String deleteQuery = "DELETE FROM votes WHERE answerId = ?";
+		String totalsQuery = "UPDATE answers SET upvoteCount = 0, downvoteCount = 0 WHERE id = ?";
+		
+		try {
+			inTransaction(connection -> {
+				try (PreparedStatement pstmt = connection.prepareStatement(deleteQuery)) {
+					pstmt.setInt(1, answerId);
+					pstmt.executeUpdate();
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(totalsQuery)) {
+					pstmt.setInt(1, answerId);
+					pstmt.executeUpdate();
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// Recompute every answer's vote totals from the votes table
+	public void rebuildVoteTotals() {
+		String query = "UPDATE answers a SET "
+				+ "upvoteCount = (SELECT COUNT(*) FROM votes v WHERE v.answerId = a.id AND v.voteType = 1), "
+				+ "downvoteCount = (SELECT COUNT(*) FROM votes v WHERE v.answerId = a.id AND v.voteType = -1)";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, userId);
-			pstmt.setInt(2, answerId);
-			pstmt.setInt(3, vote);
-			pstmt.executeUpdate();
+		try {
+			inTransaction(connection -> {
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					int rebuilt = pstmt.executeUpdate();
+					System.out.println("Rebuilt vote totals for " + rebuilt + " answers.");
+				}
+				return null;
+			});
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
 	}
 	
-	// Delete votes for answer
-	public void deleteVotesForAnswer(int answerId) {
-		String query = "DELETE FROM votes WHERE answerId = ?";
+	/*
+	 * An answer's trust score adds up, for every review of the answer, the weights students gave the
+	 * reviewer as a trusted reviewer. addReview, deleteReview, addTrustedReviewer and deleteTrustedReviewer
+	 * change it by the difference they make, this recomputes every answer from scratch.
+	 */
+	public void rebuildTrustScores() {
+		String query = "UPDATE answers a SET trustScore = (SELECT COALESCE(SUM(tr.weight), 0) FROM reviews r "
+				+ "JOIN trustedReviewers tr ON tr.reviewerId = r.userId WHERE r.answerId = a.id)";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, answerId);
-			pstmt.executeUpdate();
+		try {
+			inTransaction(connection -> {
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					int rebuilt = pstmt.executeUpdate();
+					System.out.println("Rebuilt trust scores for " + rebuilt + " answers.");
+				}
+				return null;
+			});
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -882,31 +2024,51 @@ public class DatabaseHelper {
 	
 	public void addReview(int userId, Integer questionId, Integer answerId, String content) {
 		String insertReview = "INSERT INTO reviews (userId, questionId, answerId, content) VALUES (?, ? , ?, ?)";
-		try (PreparedStatement pstmt = connection.prepareStatement(insertReview)) {
-			pstmt.setInt(1, userId);
-			if (questionId != null) {
-				pstmt.setInt(2, questionId);
-			} else {
-				pstmt.setNull(2, Types.INTEGER);
-			}
-			if (answerId != null) {
-				pstmt.setInt(3, answerId);
-			} else {
-				pstmt.setNull(3, Types.INTEGER);
-			}
-			pstmt.setString(4, content);
-			pstmt.executeUpdate();
+		// The review counts for the answer with every weight the reviewer is trusted with
+		String trustQuery = "UPDATE answers SET trustScore = trustScore + "
+				+ "(SELECT COALESCE(SUM(weight), 0) FROM trustedReviewers WHERE reviewerId = ?) WHERE id = ?";
+		
+		try {
+			inTransaction(connection -> {
+				int reviewId;
+				try (PreparedStatement pstmt = connection.prepareStatement(insertReview, Statement.RETURN_GENERATED_KEYS)) {
+					pstmt.setInt(1, userId);
+					if (questionId != null) {
+						pstmt.setInt(2, questionId);
+					} else {
+						pstmt.setNull(2, Types.INTEGER);
+					}
+					if (answerId != null) {
+						pstmt.setInt(3, answerId);
+					} else {
+						pstmt.setNull(3, Types.INTEGER);
+					}
+					pstmt.setString(4, content);
+					pstmt.executeUpdate();
+					reviewId = readGeneratedId(pstmt);
+				}
+				if (answerId != null) {
+					try (PreparedStatement pstmt = connection.prepareStatement(trustQuery)) {
+						pstmt.setInt(1, userId);
+						pstmt.setInt(2, answerId);
+						pstmt.executeUpdate();
+					}
+				}
+				boolean forQuestion = questionId != null;
+				publish(new DomainEvent.ReviewAdded(reviewId, userId, forQuestion ? questionId : answerId, forQuestion, content));
+				return null;
+			});
 		} catch (SQLException e) {
 	        e.printStackTrace();
 	    }
 	}
-	
 	// Get reviews with qaId (question or answer id, depending on which one is needed) and forQuestion boolean (true for question, false for answer)
 	public List<ReviewLightweightDTO> getAllReviews(int qaId, boolean forQuestion) {
 		ArrayList<ReviewLightweightDTO> reviewList = new ArrayList<>();
 		String query = "SELECT id, userId, content FROM reviews WHERE " + (forQuestion ? "questionId" : "answerId") + " = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, qaId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -923,49 +2085,48 @@ public class DatabaseHelper {
 		return reviewList;
 	}
 	
-	// Get trusted reviews with qaId (question or answer id, depending on which one is needed) and forQuestion boolean (true for question, false for answer)
-	public List<ReviewLightweightDTO> getAllTrustedReviews(int qaId, boolean forQuestion, int studentId) {
-		ArrayList<ReviewLightweightDTO> reviewList = new ArrayList<>();
-		String query = "SELECT r.id, r.userId, r.content "
-				+ "FROM reviews r "
-				+ "JOIN trustedReviewers tr ON r.userId = tr.reviewerId "
-				+ "WHERE tr.studentId = ? AND " + (forQuestion ? "r.questionId" : "r.answerId") + " = ? "
-				+ "ORDER BY tr.weight DESC";
-		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, studentId);
-			pstmt.setInt(2, qaId);
-			ResultSet rs = pstmt.executeQuery();
-			
-			while (rs.next()) {
-				int id = rs.getInt("id");
-				int userId = rs.getInt("userId");
-				String content = rs.getString("content");
-				reviewList.add(new ReviewLightweightDTO(id, userId, content));
+	// Get trusted reviews with qaId (question or answer id, depending on which one is needed) and forQuestion boolean (true for question, false for answer),
+	// highest weight first. The weights come from the student's trust map (SessionPrincipal.getTrustedReviewerWeights), so there is no join
+	public List<ReviewLightweightDTO> getAllTrustedReviews(int qaId, boolean forQuestion, Map<Integer, Integer> trustedReviewerWeights) {
+		List<ReviewLightweightDTO> reviewList = new ArrayList<>();
+		for (ReviewLightweightDTO review : getAllReviews(qaId, forQuestion)) {
+			if (trustedReviewerWeights.containsKey(review.getUserId())) {
+				reviewList.add(review);
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
 		}
-		
+		reviewList.sort((a, b) -> Integer.compare(trustedReviewerWeights.get(b.getUserId()), trustedReviewerWeights.get(a.getUserId())));
 		return reviewList;
 	}
 	
 	// Retrieves the lightweight version of all reviews in the database from a user and creates a list
 	public List<ReviewLightweightDTO> getAllReviews(int userId, String filter) {
+		return getAllReviews(userId, filter, new QueryCancellation());
+	}
+	
+	// Same as getAllReviews(userId, filter), but the query can be cancelled
+	public List<ReviewLightweightDTO> getAllReviews(int userId, String filter, QueryCancellation cancellation) {
 		ArrayList<ReviewLightweightDTO> reviewList = new ArrayList<>();
 		String query = "SELECT id, userId, content FROM reviews WHERE userId = ? " + filter;
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, userId);
-			ResultSet rs = pstmt.executeQuery();
-			
-			while (rs.next()) {
-				int id = rs.getInt("id");
-				String content = rs.getString("content");
-				reviewList.add(new ReviewLightweightDTO(id, userId, content));
+			cancellation.register(pstmt);
+			try {
+				ResultSet rs = pstmt.executeQuery();
+				
+				while (rs.next()) {
+					int id = rs.getInt("id");
+					String content = rs.getString("content");
+					reviewList.add(new ReviewLightweightDTO(id, userId, content));
+				}
+			} finally {
+				cancellation.unregister();
 			}
 		} catch (SQLException e) {
-			e.printStackTrace();
+			if (!cancellation.isCancelled()) {
+				e.printStackTrace();
+			}
 		}
 		
 		return reviewList;
@@ -973,15 +2134,13 @@ public class DatabaseHelper {
 	
 	// Get reviews from search
 	public static List<ReviewLightweightDTO> searchReviews(int userId, String query, String filter, String sort) {
+		return searchReviews(userId, query, filter, sort, new QueryCancellation());
+	}
+	
+	// Same as searchReviews(userId, query, filter, sort), but the query can be cancelled
+	public static List<ReviewLightweightDTO> searchReviews(int userId, String query, String filter, String sort, QueryCancellation cancellation) {
 	    List<ReviewLightweightDTO> results = new ArrayList<>();
-	    String[] keywords = query.toLowerCase().split("\\s+");
-	    List<String> filteredKeywords = new ArrayList<>();
-	    
-	    for (String keyword : keywords) {
-	        if (!COMMON_WORDS.contains(keyword)) {
-	            filteredKeywords.add(keyword);
-	        }
-	    }
+	    List<String> filteredKeywords = reviewKeywords(query);
 	    
 	    if (filteredKeywords.isEmpty()) {
 	        return results; // Return empty if only common words were entered
@@ -990,7 +2149,7 @@ public class DatabaseHelper {
 	    StringBuilder sql = new StringBuilder("SELECT DISTINCT id, userId, content FROM reviews WHERE userId = ? AND (");
 	    
 	    for (int i = 0; i < filteredKeywords.size(); i++) {
-	        sql.append("LOWER(title) LIKE ?");
+	        sql.append("LOWER(content) LIKE ?");
 	        if (i < filteredKeywords.size() - 1) {
 	            sql.append(" OR ");
 	        }
@@ -1003,7 +2162,7 @@ public class DatabaseHelper {
 	    }
 	    sql.append(sort);
 	    
-	    try (Connection conn = DriverManager.getConnection(DB_URL, USER, PASS);
+	    try (Connection conn = getConnection();
 	         PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
 	    	
 	    	pstmt.setInt(1, userId);
@@ -1012,24 +2171,76 @@ public class DatabaseHelper {
 	            pstmt.setString(i + 2, "%" + filteredKeywords.get(i) + "%"); 
 	        }
 	        
-	        ResultSet rs = pstmt.executeQuery();
-	        while (rs.next()) {
-	            int id = rs.getInt("id");
-	            String content = rs.getString("content");
-	            results.add(new ReviewLightweightDTO(id, userId, content));
+	        cancellation.register(pstmt);
+	        try {
+		        ResultSet rs = pstmt.executeQuery();
+		        while (rs.next()) {
+		            int id = rs.getInt("id");
+		            String content = rs.getString("content");
+		            results.add(new ReviewLightweightDTO(id, userId, content));
+		        }
+	        } finally {
+	        	cancellation.unregister();
 	        }
 	    } catch (SQLException e) {
-	        e.printStackTrace();
+	    	if (!cancellation.isCancelled()) {
+	    		e.printStackTrace();
+	    	}
 	    }
 	    return results;
 	}
 	
+	// Split a review search into its lower case keywords, leaving out common words
+	private static List<String> reviewKeywords(String query) {
+		List<String> keywords = new ArrayList<>();
+		for (String keyword : query.toLowerCase().split("\\s+")) {
+			if (!keyword.isEmpty() && !COMMON_WORDS.contains(keyword)) {
+				keywords.add(keyword);
+			}
+		}
+		return keywords;
+	}
+	
+	/*
+	 * Answer a review search by filtering the results of the search before it, for when every keyword
+	 * of the new search contains the keyword it replaces, since a review matching the new search then
+	 * matched the previous one too. The previous results must have been read with the same filter and
+	 * sort. Returns null if that is not the case and the search has to be run with searchReviews.
+	 */
+	public static List<ReviewLightweightDTO> refineReviewSearch(List<ReviewLightweightDTO> previousResults, String previousQuery, String query) {
+		List<String> previousKeywords = reviewKeywords(previousQuery);
+		List<String> keywords = reviewKeywords(query);
+		if (keywords.isEmpty() || keywords.size() != previousKeywords.size()) {
+			return null;
+		}
+		
+		for (int i = 0; i < keywords.size(); i++) {
+			String keyword = keywords.get(i);
+			if (!keyword.contains(previousKeywords.get(i)) || keyword.contains("%") || keyword.contains("_")) {
+				return null; // Not narrower, or a LIKE wildcard that contains() would not match the same way
+			}
+		}
+		
+		List<ReviewLightweightDTO> results = new ArrayList<>();
+		for (ReviewLightweightDTO review : previousResults) {
+			String content = review.getContent() == null ? "" : review.getContent().toLowerCase();
+			for (String keyword : keywords) {
+				if (content.contains(keyword)) {
+					results.add(review);
+					break;
+				}
+			}
+		}
+		return results;
+	}
+	
 	// Get review with reviewId
 	public Review getReview(int id) {
 		Review review = null; // Returns null review if not found
 		String query = "SELECT * FROM reviews WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1051,7 +2262,8 @@ public class DatabaseHelper {
 	public String getReviewUsername(int id) {
 		String query = "SELECT u.userName FROM reviews r JOIN cse360users u ON r.userId = u.id WHERE a.id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1067,7 +2279,8 @@ public class DatabaseHelper {
 	
 	public String getReviewContent(int id) {
 		String query = "SELECT content FROM reviews WHERE id = ?";
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1085,7 +2298,8 @@ public class DatabaseHelper {
 	public boolean reviewIsForQuestion(int id) {
 		String query = "SELECT questionId FROM reviews WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1104,13 +2318,16 @@ public class DatabaseHelper {
 	public void updateReviewContent(int id, String newContent) {
 		String query = "UPDATE reviews SET content = ? WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setString(1, newContent);
 			pstmt.setInt(2, id);
 			int updatedReviews = pstmt.executeUpdate(); // Number of reviews updated (should be either 0 or 1, but will check for any number changed)
 			
 			if (updatedReviews < 1) {
 				System.out.println("*** Error *** Review not found.");
+			} else {
+				publish(new DomainEvent.ReviewEdited(id, newContent));
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -1120,14 +2337,29 @@ public class DatabaseHelper {
 	// Delete review
 	public void deleteReview(int id) {
 		String query = "DELETE FROM reviews WHERE id = ?";
+		// Take the review's trust out of its answer's score, before the review is gone
+		String trustQuery = "UPDATE answers SET trustScore = trustScore - "
+				+ "(SELECT COALESCE(SUM(tr.weight), 0) FROM trustedReviewers tr WHERE tr.reviewerId = (SELECT userId FROM reviews WHERE id = ?)) "
+				+ "WHERE id = (SELECT answerId FROM reviews WHERE id = ?)";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, id);
-			int reviewsDeleted = pstmt.executeUpdate(); // Number of reviews deleted (should be either 0 or 1, but will check for any number changed)
-			
-			if (reviewsDeleted < 1) {
-				System.out.println("*** Error *** Review ID not found.");
-			}
+		try {
+			inTransaction(connection -> {
+				try (PreparedStatement pstmt = connection.prepareStatement(trustQuery)) {
+					pstmt.setInt(1, id);
+					pstmt.setInt(2, id);
+					pstmt.executeUpdate();
+				}
+				deleteConversations(connection, "review", "SELECT id FROM reviews WHERE id = ?", id);
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					pstmt.setInt(1, id);
+					int reviewsDeleted = pstmt.executeUpdate(); // Number of reviews deleted (should be either 0 or 1, but will check for any number changed)
+					
+					if (reviewsDeleted < 1) {
+						System.out.println("*** Error *** Review ID not found.");
+					}
+				}
+				return null;
+			});
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -1137,7 +2369,8 @@ public class DatabaseHelper {
 	public void addRoleRequest(int userId, String role) {
 		String query = "INSERT INTO roleRequests (userId, role) VALUES (?, ?)";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, userId);
 			pstmt.setString(2, role);
 			pstmt.executeUpdate();
@@ -1149,7 +2382,8 @@ public class DatabaseHelper {
 	public boolean hasRequestedRole(int userId, String role) {
 	    String query = "SELECT COUNT(*) FROM roleRequests WHERE userId = ? AND role = ?";
 	    
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setInt(1, userId);
 	        pstmt.setString(2, role);
 	        
@@ -1179,7 +2413,8 @@ public class DatabaseHelper {
 
 	    List<Map<String, Object>> roleRequests = new ArrayList<>();
 
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        // Set role values dynamically
 	        for (int i = 0; i < roles.size(); i++) {
 	            pstmt.setString(i + 1, roles.get(i));
@@ -1205,27 +2440,293 @@ public class DatabaseHelper {
 		addPrivateMessage(pm.getAuthorId(), pm.getCommenterId(), pm.getIsAuthor(), pm.getContent(), pm.getIsRead(), pm.getParentType(), pm.getParentId());
 	}
 	
+	// Adds a message to its conversation, starting the conversation with its first message. An unread message
+	// also counts for its recipient in the same transaction
 	public void addPrivateMessage(int authorId, int commenterId, boolean isAuthor, String content, boolean isRead, String parentType, int parentId) {
-		String insertQuestion = "INSERT INTO messages (authorId, commenterId, content, isRead, parentType, parentId, isAuthor) VALUES (?, ?, ?, ?, ?, ?, ?)";
-		try (PreparedStatement pstmt = connection.prepareStatement(insertQuestion)) {
-			pstmt.setInt(1, authorId);
-			pstmt.setInt(2, commenterId);
-			pstmt.setString(3, content);
-			pstmt.setBoolean(4, isRead);
-			pstmt.setString(5, parentType);
-			pstmt.setInt(6,  parentId);
-			pstmt.setBoolean(7, isAuthor);
-			pstmt.executeUpdate();
+		String insertConversation = "INSERT INTO conversations (authorId, parentType, parentId, commenterId) VALUES (?, ?, ?, ?)";
+		String insertQuestion = "INSERT INTO messages (conversationId, authorId, commenterId, content, isRead, parentType, parentId, isAuthor) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+		String updateConversation = "UPDATE conversations SET lastMessageId = ?, messageCount = messageCount + 1, "
+				+ "lastActivity = NEXT VALUE FOR conversationActivity WHERE id = ?";
+		String conversationQuery = "MERGE INTO unreadMessages t "
+				+ "USING (VALUES (?, ?, ?, ?, ?)) s (userId, parentType, parentId, authorId, commenterId) "
+				+ "ON t.userId = s.userId AND t.parentType = s.parentType AND t.parentId = s.parentId AND t.authorId = s.authorId AND t.commenterId = s.commenterId "
+				+ "WHEN MATCHED THEN UPDATE SET unreadCount = t.unreadCount + 1 "
+				+ "WHEN NOT MATCHED THEN INSERT VALUES (s.userId, s.parentType, s.parentId, s.authorId, s.commenterId, 1)";
+		String userQuery = "UPDATE cse360users SET unreadMessageCount = unreadMessageCount + 1 WHERE id = ?";
+		int recipientId = isAuthor ? commenterId : authorId; // The author writes to the commenter and the other way around
+		
+		try {
+			inTransaction(connection -> {
+				int conversationId = findConversation(connection, authorId, commenterId, parentType, parentId);
+				if (conversationId == -1) {
+					try (PreparedStatement pstmt = connection.prepareStatement(insertConversation, Statement.RETURN_GENERATED_KEYS)) {
+						pstmt.setInt(1, authorId);
+						pstmt.setString(2, parentType);
+						pstmt.setInt(3, parentId);
+						pstmt.setInt(4, commenterId);
+						pstmt.executeUpdate();
+						conversationId = readGeneratedId(pstmt);
+					}
+				}
+				
+				int messageId;
+				try (PreparedStatement pstmt = connection.prepareStatement(insertQuestion, Statement.RETURN_GENERATED_KEYS)) {
+					pstmt.setInt(1, conversationId);
+					pstmt.setInt(2, authorId);
+					pstmt.setInt(3, commenterId);
+					pstmt.setString(4, content);
+					pstmt.setBoolean(5, isRead);
+					pstmt.setString(6, parentType);
+					pstmt.setInt(7,  parentId);
+					pstmt.setBoolean(8, isAuthor);
+					pstmt.executeUpdate();
+					messageId = readGeneratedId(pstmt);
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(updateConversation)) {
+					pstmt.setInt(1, messageId);
+					pstmt.setInt(2, conversationId);
+					pstmt.executeUpdate();
+				}
+				publish(new DomainEvent.MessageSent(messageId, conversationId, parentType, parentId, recipientId, isRead));
+				if (isRead) {
+					return null;
+				}
+				
+				try (PreparedStatement pstmt = connection.prepareStatement(conversationQuery)) {
+					pstmt.setInt(1, recipientId);
+					pstmt.setString(2, parentType);
+					pstmt.setInt(3, parentId);
+					pstmt.setInt(4, authorId);
+					pstmt.setInt(5, commenterId);
+					pstmt.executeUpdate();
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(userQuery)) {
+					pstmt.setInt(1, recipientId);
+					pstmt.executeUpdate();
+				}
+				invalidateUser(recipientId); // Its hasUnreadMsgs may have changed
+				return null;
+			});
 		} catch (SQLException e) {
 	        e.printStackTrace();
 	    }
 	}
 	
+	// Marks the messages a user received in a conversation as read and clears their unread count for it
+	public void markMessagesRead(int userId, int authorId, int commenterId, String parentType, int parentId) {
+		// Locked until the row is deleted, so a message sent meanwhile waits and counts as unread again afterwards
+		// instead of its increment being deleted without being taken off the user's total
+		String countQuery = "SELECT unreadCount FROM unreadMessages WHERE userId = ? AND parentType = ? AND parentId = ? AND authorId = ? AND commenterId = ? FOR UPDATE";
+		String messagesQuery = "UPDATE messages SET isRead = TRUE WHERE conversationId = ? AND isAuthor = ? AND isRead = FALSE";
+		String conversationQuery = "DELETE FROM unreadMessages WHERE userId = ? AND parentType = ? AND parentId = ? AND authorId = ? AND commenterId = ?";
+		String userQuery = "UPDATE cse360users SET unreadMessageCount = unreadMessageCount - ? WHERE id = ?";
+		
+		try {
+			inTransaction(connection -> {
+				int unread;
+				try (PreparedStatement pstmt = connection.prepareStatement(countQuery)) {
+					setConversation(pstmt, userId, authorId, commenterId, parentType, parentId);
+					try (ResultSet rs = pstmt.executeQuery()) {
+						if (!rs.next()) {
+							return null; // Nothing unread, the usual case
+						}
+						unread = rs.getInt("unreadCount");
+					}
+				}
+				
+				int conversationId = findConversation(connection, authorId, commenterId, parentType, parentId);
+				try (PreparedStatement pstmt = connection.prepareStatement(messagesQuery)) {
+					pstmt.setInt(1, conversationId);
+					pstmt.setBoolean(2, userId != authorId); // Messages the other side sent
+					pstmt.executeUpdate();
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(conversationQuery)) {
+					setConversation(pstmt, userId, authorId, commenterId, parentType, parentId);
+					pstmt.executeUpdate();
+				}
+				try (PreparedStatement pstmt = connection.prepareStatement(userQuery)) {
+					pstmt.setInt(1, unread);
+					pstmt.setInt(2, userId);
+					pstmt.executeUpdate();
+				}
+				invalidateUser(userId);
+				publish(new DomainEvent.MessagesRead(userId, parentType, parentId, unread));
+				return null;
+			});
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// Id of the conversation two users have about a post, -1 if they have not messaged about it yet
+	private static int findConversation(Connection connection, int authorId, int commenterId, String parentType, int parentId) throws SQLException {
+		String query = "SELECT id FROM conversations WHERE authorId = ? AND parentType = ? AND parentId = ? AND commenterId = ?";
+		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, authorId);
+			pstmt.setString(2, parentType);
+			pstmt.setInt(3, parentId);
+			pstmt.setInt(4, commenterId);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				return rs.next() ? rs.getInt("id") : -1;
+			}
+		}
+	}
+	
+	// Id of the row an insert prepared with RETURN_GENERATED_KEYS added
+	private static int readGeneratedId(PreparedStatement pstmt) throws SQLException {
+		try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+			if (generatedKeys.next()) {
+				return generatedKeys.getInt(1);
+			}
+			throw new SQLException("No generated id obtained.");
+		}
+	}
+	
+	// Set the unreadMessages primary key columns in order
+	private static void setConversation(PreparedStatement pstmt, int userId, int authorId, int commenterId, String parentType, int parentId) throws SQLException {
+		pstmt.setInt(1, userId);
+		pstmt.setString(2, parentType);
+		pstmt.setInt(3, parentId);
+		pstmt.setInt(4, authorId);
+		pstmt.setInt(5, commenterId);
+	}
+	
+	// Number of unread messages a user has in all conversations, for badges
+	public int getUnreadMessageCount(int userId) {
+		String query = "SELECT unreadMessageCount FROM cse360users WHERE id = ?";
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, userId);
+			ResultSet rs = pstmt.executeQuery();
+			
+			if (rs.next()) {
+				return rs.getInt("unreadMessageCount");
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+	
+	// Number of unread messages a user has about each question, answer or review of a type, by its id. Ids with nothing unread are left out
+	public Map<Integer, Integer> getUnreadMessageCounts(int userId, String parentType) {
+		Map<Integer, Integer> counts = new HashMap<>();
+		String query = "SELECT parentId, SUM(unreadCount) AS unread FROM unreadMessages WHERE userId = ? AND parentType = ? GROUP BY parentId";
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, userId);
+			pstmt.setString(2, parentType);
+			ResultSet rs = pstmt.executeQuery();
+			
+			while (rs.next()) {
+				counts.put(rs.getInt("parentId"), rs.getInt("unread"));
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return counts;
+	}
+	
+	// Number of unread messages an author has from each commenter on one of their posts. Commenters with nothing unread are left out
+	public Map<Integer, Integer> getUnreadMessagesByCommenter(int authorId, String parentType, int parentId) {
+		Map<Integer, Integer> counts = new HashMap<>();
+		String query = "SELECT commenterId, unreadCount FROM unreadMessages WHERE userId = ? AND parentType = ? AND parentId = ? AND authorId = ?";
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, authorId);
+			pstmt.setString(2, parentType);
+			pstmt.setInt(3, parentId);
+			pstmt.setInt(4, authorId);
+			ResultSet rs = pstmt.executeQuery();
+			
+			while (rs.next()) {
+				counts.put(rs.getInt("commenterId"), rs.getInt("unreadCount"));
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return counts;
+	}
+	
+	/*
+	 * Unread counts are kept per user and conversation in unreadMessages and per user in cse360users.unreadMessageCount.
+	 * addPrivateMessage and markMessagesRead change them with each message, this recounts them from the messages table.
+	 */
+	public void rebuildUnreadCounts() {
+		String clearQuery = "DELETE FROM unreadMessages";
+		String conversationQuery = "INSERT INTO unreadMessages (userId, parentType, parentId, authorId, commenterId, unreadCount) "
+				+ "SELECT CASE WHEN isAuthor THEN commenterId ELSE authorId END, parentType, parentId, authorId, commenterId, COUNT(*) "
+				+ "FROM messages WHERE isRead = FALSE "
+				+ "GROUP BY CASE WHEN isAuthor THEN commenterId ELSE authorId END, parentType, parentId, authorId, commenterId";
+		String userQuery = "UPDATE cse360users u SET unreadMessageCount = "
+				+ "(SELECT COALESCE(SUM(unreadCount), 0) FROM unreadMessages m WHERE m.userId = u.id)";
+		
+		try {
+			inTransaction(connection -> {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate(clearQuery);
+					int conversations = statement.executeUpdate(conversationQuery);
+					statement.executeUpdate(userQuery);
+					System.out.println("Rebuilt unread message counts for " + conversations + " conversations.");
+				}
+				return null;
+			});
+			userCache.clear();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * Each conversation keeps its last message, message count and last activity in the conversations table,
+	 * and each message the id of its conversation. addPrivateMessage keeps them up to date, this files any
+	 * message without a conversation under one and recounts every conversation from the messages table.
+	 */
+	public void rebuildConversations() {
+		String conversationQuery = "INSERT INTO conversations (authorId, parentType, parentId, commenterId) "
+				+ "SELECT DISTINCT m.authorId, m.parentType, m.parentId, m.commenterId FROM messages m "
+				+ "WHERE m.conversationId IS NULL AND NOT EXISTS (SELECT 1 FROM conversations c "
+				+ "WHERE c.authorId = m.authorId AND c.parentType = m.parentType AND c.parentId = m.parentId AND c.commenterId = m.commenterId)";
+		String messagesQuery = "UPDATE messages m SET conversationId = (SELECT c.id FROM conversations c "
+				+ "WHERE c.authorId = m.authorId AND c.parentType = m.parentType AND c.parentId = m.parentId AND c.commenterId = m.commenterId) "
+				+ "WHERE m.conversationId IS NULL";
+		String countQuery = "UPDATE conversations c SET "
+				+ "lastMessageId = (SELECT MAX(id) FROM messages m WHERE m.conversationId = c.id), "
+				+ "messageCount = (SELECT COUNT(*) FROM messages m WHERE m.conversationId = c.id)";
+		// Messages are numbered in the order they were sent, so the last message id orders conversations by activity
+		String activityQuery = "UPDATE conversations SET lastActivity = COALESCE(lastMessageId, 0)";
+		String sequenceQuery = "SELECT COALESCE(MAX(lastActivity), 0) + 1 FROM conversations";
+		
+		try {
+			inTransaction(connection -> {
+				try (Statement statement = connection.createStatement()) {
+					int conversations = statement.executeUpdate(conversationQuery);
+					int messages = statement.executeUpdate(messagesQuery);
+					statement.executeUpdate(countQuery);
+					statement.executeUpdate(activityQuery);
+					
+					// Continue the sequence after the activity the rebuild gave out
+					long nextActivity;
+					try (ResultSet rs = statement.executeQuery(sequenceQuery)) {
+						rs.next();
+						nextActivity = rs.getLong(1);
+					}
+					statement.execute("ALTER SEQUENCE conversationActivity RESTART WITH " + nextActivity);
+					System.out.println("Filed " + messages + " messages under " + conversations + " new conversations.");
+				}
+				return null;
+			});
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	public PrivateMessage getPrivateMessage(int id) {
 		PrivateMessage pm = null; // Returns null answer if not found
 		String query = "SELECT * FROM messages WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, id);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1248,20 +2749,22 @@ public class DatabaseHelper {
 	}
 	
 	// This is a stopgap method. Because we are not currently dealing with the problem of messages from multiple commenters, 
-	// if multiple commenters send messages, this method will find the commenterID of the first message sent 
+	// if multiple commenters send messages, this method will find the commenterID of the first conversation started 
 	// in order to launch the PrivateMessagePage.
 	
 	public int getFirstMessageCommenterId(String parentType, int parentId) {
 		int firstMsgsCommenterId = -1;
-		String query = "SELECT commenterId FROM answers WHERE parentType = ?, parentId = ?";
+		String query = "SELECT commenterId FROM conversations WHERE parentType = ? AND parentId = ? ORDER BY id LIMIT 1";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setString(1, parentType);
 			pstmt.setInt(2, parentId);
 			ResultSet rs = pstmt.executeQuery();
 			
-			
-			firstMsgsCommenterId = rs.getInt("commenterId");
+			if (rs.next()) {
+				firstMsgsCommenterId = rs.getInt("commenterId");
+			}
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -1270,12 +2773,13 @@ public class DatabaseHelper {
 		
 	}
 	
-	// Get a list of all the users that have sent a message to author for specific question/answer/review
+	// Get a list of all the users that have sent a message to author for specific question/answer/review, most recently active first
 	public List<Integer> getAllMessages(int authorId, String parentType, int parentId) {
 	    List<Integer> userList = new ArrayList<>();
-	    String query = "SELECT DISTINCT commenterId FROM messages WHERE authorId = ? AND parentType = ? AND parentId = ? ";
+	    String query = "SELECT commenterId FROM conversations WHERE authorId = ? AND parentType = ? AND parentId = ? ORDER BY lastActivity DESC";
 	    
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setInt(1, authorId);
 	        pstmt.setString(2, parentType);
 	        pstmt.setInt(3, parentId);
@@ -1291,28 +2795,70 @@ public class DatabaseHelper {
 	    return userList;
 	}
 	
+	// Id of the conversation two users have about a post, -1 if they have not messaged about it yet
+	public int getConversationId(int authorId, int commenterId, String parentType, int parentId) {
+		try (Connection connection = getConnection()) {
+			return findConversation(connection, authorId, commenterId, parentType, parentId);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		return -1;
+	}
+	
 	public List<PrivateMessageLightweightDTO> getAllPrivateMessages(int authorId, int commenterId, String parentType, int parentId) {
+		int conversationId = getConversationId(authorId, commenterId, parentType, parentId);
+		if (conversationId == -1) {
+			return new ArrayList<>();
+		}
+		return getPrivateMessagesAfter(conversationId, 0);
+	}
+	
+	// Up to limit of the latest messages in a conversation sent before a message, oldest first. Pass
+	// Integer.MAX_VALUE for the latest messages, then the id of the first message shown for the page before it
+	public List<PrivateMessageLightweightDTO> getPrivateMessagesBefore(int conversationId, int beforeMessageId, int limit) {
 		ArrayList<PrivateMessageLightweightDTO> privateMessageList = new ArrayList<>();
-		String query = "SELECT id, content, isAuthor FROM messages WHERE authorId = ? AND commenterId = ? AND parentType = ? AND parentId = ?";
+		String query = "SELECT id, content, isAuthor FROM messages WHERE conversationId = ? AND id < ? ORDER BY id DESC LIMIT ?";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, conversationId);
+			pstmt.setInt(2, beforeMessageId);
+			pstmt.setInt(3, limit);
+			readPrivateMessages(pstmt, privateMessageList);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, authorId);
-			pstmt.setInt(2, commenterId);
-			pstmt.setString(3,  parentType);
-			pstmt.setInt(4,  parentId);
-			ResultSet rs = pstmt.executeQuery();
-			
+		Collections.reverse(privateMessageList); // Read newest first so the index stops after one page
+		return privateMessageList;
+	}
+	
+	// Every message in a conversation sent after a message, oldest first, e.g. the ones sent since a page was shown
+	public List<PrivateMessageLightweightDTO> getPrivateMessagesAfter(int conversationId, int afterMessageId) {
+		ArrayList<PrivateMessageLightweightDTO> privateMessageList = new ArrayList<>();
+		String query = "SELECT id, content, isAuthor FROM messages WHERE conversationId = ? AND id > ? ORDER BY id";
+		
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
+			pstmt.setInt(1, conversationId);
+			pstmt.setInt(2, afterMessageId);
+			readPrivateMessages(pstmt, privateMessageList);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		
+		return privateMessageList;
+	}
+	
+	private static void readPrivateMessages(PreparedStatement pstmt, List<PrivateMessageLightweightDTO> privateMessageList) throws SQLException {
+		try (ResultSet rs = pstmt.executeQuery()) {
 			while (rs.next()) {
 				int id = rs.getInt("id");
 				String content = rs.getString("content");
 				boolean isAuthor = rs.getBoolean("isAuthor");
 				privateMessageList.add(new PrivateMessageLightweightDTO(id, content, isAuthor));
 			}
-		} catch (SQLException e) {
-			e.printStackTrace();
 		}
-		
-		return privateMessageList;
 	}
 	
 	public String getPrivateMessageUsername(String parentType, int parentId) {
@@ -1322,7 +2868,8 @@ public class DatabaseHelper {
 	                   + "  (m.isAuthor = FALSE AND m.commenterId = u.id) "
 	                   + "WHERE m.parentType = ? AND m.parentId = ?";
 
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setString(1, parentType);
 	        pstmt.setInt(2, parentId);
 	        ResultSet rs = pstmt.executeQuery();
@@ -1339,60 +2886,76 @@ public class DatabaseHelper {
 
 
 	
-	public void addUserRole(int userId, String newRole) {
-		// Get users current roles
-		ArrayList<String> currentRoles = getUserRole(userId);
-		
-		if (currentRoles == null) {
-			System.out.println("*** Error *** User not found.");
-			return;
-		}
-		
-		if (currentRoles.contains(newRole)) {
-	        return; // Already has role
-	    }
-		
-		// Add role and get role string
-		currentRoles.add(newRole);
-		String updatedRoles = String.join(", ", currentRoles);
-		
-	    String query = "UPDATE cse360users SET role = ? WHERE id = ?";
-	    
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-	        pstmt.setString(1, updatedRoles);
-	        pstmt.setInt(2, userId);
-	        
-	        int rowsAffected = pstmt.executeUpdate();
-	        if (rowsAffected < 1) {
-	        	System.out.println("*** Error *** Role not added.");
-	        }
+	// Grants a user a role in one statement, does nothing if they already have it
+	public void addUserRole(int userId, Role newRole) {
+	    try (Connection connection = getConnection()) {
+	        grantRole(connection, userId, newRole);
+	    } catch (SQLIntegrityConstraintViolationException e) {
+	    	System.out.println("*** Error *** User not found.");
 	    } catch (SQLException e) {
 	        e.printStackTrace();
 	    }
 	}
+	
+	// Grant the role on the connection, the user's cached roles are dropped once it commits
+	private static void grantRole(Connection connection, int userId, Role newRole) throws SQLException {
+		try (PreparedStatement pstmt = connection.prepareStatement(GRANT_ROLE)) {
+			pstmt.setInt(1, userId);
+			pstmt.setInt(2, newRole.getId());
+			pstmt.executeUpdate();
+		}
+		afterCommit(() -> {
+			invalidateUser(userId);
+			refreshSession(userId);
+		});
+	}
+	
+	// Grant the requested role and delete the request as one unit of work, either both happen or neither.
+	// Returns false if the request was already handled or a statement failed
+	public boolean approveRoleRequest(int requestId, int userId, Role role) {
+		try {
+			inTransaction(connection -> {
+				grantRole(connection, userId, role);
+				if (deleteRoleRequest(connection, requestId) < 1) {
+					throw new SQLException("Role Request ID not found, nothing was approved.");
+				}
+				return null;
+			});
+			return true;
+		} catch (SQLIntegrityConstraintViolationException e) {
+			System.out.println("*** Error *** User not found.");
+		} catch (SQLException e) {
+			System.out.println("*** Error *** " + e.getMessage());
+		}
+		return false;
+	}
 
 	
 	public void deleteRoleRequest(int id) {
-	    String query = "DELETE FROM roleRequests WHERE id = ?";
-
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-	        pstmt.setInt(1, id);
-	        int deleted = pstmt.executeUpdate();
-	        
-	        if (deleted < 1) {
+	    try (Connection connection = getConnection()) {
+	        if (deleteRoleRequest(connection, id) < 1) {
 				System.out.println("*** Error *** Role Request ID not found.");
 			}
 	    } catch (SQLException e) {
 	        e.printStackTrace();
 	    }
 	}
+	
+	// Returns the number of requests deleted
+	private static int deleteRoleRequest(Connection connection, int id) throws SQLException {
+		try (PreparedStatement pstmt = connection.prepareStatement("DELETE FROM roleRequests WHERE id = ?")) {
+			pstmt.setInt(1, id);
+			return pstmt.executeUpdate();
+		}
+	}
 
 	
 	// Check if question is resolved
 	public boolean isResolved(int questionId) {
 		String query = "SELECT resolved FROM questions WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1410,7 +2973,8 @@ public class DatabaseHelper {
 	public int getResolvedAnswerId(int questionId) {
 		String query = "SELECT resolvedAnswerId FROM questions WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, questionId);
 			ResultSet rs = pstmt.executeQuery();
 			
@@ -1427,7 +2991,8 @@ public class DatabaseHelper {
 	public void setResolvedAnswerId(int questionId, int answerId) {
 		String query = "UPDATE questions SET resolvedAnswerId = ?, resolved = ? WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setInt(1, answerId);
 			pstmt.setBoolean(2, true);
 			pstmt.setInt(3, questionId);
@@ -1435,6 +3000,8 @@ public class DatabaseHelper {
 			
 			if (updatedQuestions < 1) {
 				System.out.println("*** Error *** Question not found.");
+			} else {
+				publish(new DomainEvent.QuestionResolved(questionId, answerId));
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -1444,7 +3011,8 @@ public class DatabaseHelper {
 	public void removeResolvedAnswerId(int questionId) {
 		String query = "UPDATE questions SET resolvedAnswerId = ?, resolved = ? WHERE id = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setNull(1, java.sql.Types.NULL);
 			pstmt.setBoolean(2, false);
 			pstmt.setInt(3, questionId);
@@ -1452,6 +3020,8 @@ public class DatabaseHelper {
 			
 			if (updatedQuestions < 1) {
 				System.out.println("*** Error *** Question not found.");
+			} else {
+				publish(new DomainEvent.QuestionResolved(questionId, -1));
 			}
 		} catch (SQLException e) {
 			e.printStackTrace();
@@ -1461,7 +3031,8 @@ public class DatabaseHelper {
 	public void deleteAssociatedResolvesForAnswer(int answerId) {
 		String query = "UPDATE questions SET resolvedAnswerId = ?, resolved = ? WHERE resolvedAnswerId = ?";
 		
-		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+		try (Connection connection = getConnection();
+		     PreparedStatement pstmt = connection.prepareStatement(query)) {
 			pstmt.setNull(1, java.sql.Types.NULL);
 			pstmt.setBoolean(2, false);
 			pstmt.setInt(3, answerId);
@@ -1475,13 +3046,33 @@ public class DatabaseHelper {
 	public void addTrustedReviewer(int studentId, int reviewerId, int weight) {
 		String query = "INSERT INTO trustedReviewers (studentId, reviewerId, weight) VALUES (?, ?, ?)";
 		
+		try {
+			inTransaction(connection -> {
+				try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+					pstmt.setInt(1, studentId);
+					pstmt.setInt(2, reviewerId);
+					pstmt.setInt(3, weight);
+					pstmt.executeUpdate();
+				}
+				changeTrustScores(connection, reviewerId, weight);
+				return null;
+			});
+			refreshSession(studentId);
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// Add weight to the trust score of every answer the reviewer reviewed, once per review
+	private static void changeTrustScores(Connection connection, int reviewerId, int weight) throws SQLException {
+		String query = "UPDATE answers a SET trustScore = trustScore + ? * "
+				+ "(SELECT COUNT(*) FROM reviews r WHERE r.answerId = a.id AND r.userId = ?) "
+				+ "WHERE a.id IN (SELECT answerId FROM reviews WHERE userId = ?)";
 		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-			pstmt.setInt(1, studentId);
+			pstmt.setInt(1, weight);
 			pstmt.setInt(2, reviewerId);
-			pstmt.setInt(3, weight);
+			pstmt.setInt(3, reviewerId);
 			pstmt.executeUpdate();
-		} catch (SQLException e) {
-			e.printStackTrace();
 		}
 	}
 	
@@ -1489,7 +3080,8 @@ public class DatabaseHelper {
 	public boolean studentTrustsReviewer(int studentId, int reviewerId) {
 	    String query = "SELECT COUNT(*) FROM trustedReviewers WHERE studentId = ? AND reviewerId = ?";
 	    
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    try (Connection connection = getConnection();
+	         PreparedStatement pstmt = connection.prepareStatement(query)) {
 	        pstmt.setInt(1, studentId);
 	        pstmt.setInt(2, reviewerId);
 	        
@@ -1508,12 +3100,31 @@ public class DatabaseHelper {
 	
 	// Delete trusted reviewer for student
 	public void deleteTrustedReviewer(int studentId, int reviewerId) {
+	    String weightQuery = "SELECT weight FROM trustedReviewers WHERE studentId = ? AND reviewerId = ?";
 	    String query = "DELETE FROM trustedReviewers WHERE studentId = ? AND reviewerId = ?";
 	    
-	    try (PreparedStatement pstmt = connection.prepareStatement(query)) {
-	        pstmt.setInt(1, studentId);
-	        pstmt.setInt(2, reviewerId);
-	        pstmt.executeUpdate();
+	    try {
+	    	inTransaction(connection -> {
+	    		int weight;
+	    		try (PreparedStatement pstmt = connection.prepareStatement(weightQuery)) {
+	    			pstmt.setInt(1, studentId);
+	    			pstmt.setInt(2, reviewerId);
+	    			try (ResultSet rs = pstmt.executeQuery()) {
+	    				if (!rs.next()) {
+	    					return null; // Not trusted
+	    				}
+	    				weight = rs.getInt("weight");
+	    			}
+	    		}
+	    		try (PreparedStatement pstmt = connection.prepareStatement(query)) {
+	    			pstmt.setInt(1, studentId);
+	    			pstmt.setInt(2, reviewerId);
+	    			pstmt.executeUpdate();
+	    		}
+	    		changeTrustScores(connection, reviewerId, -weight);
+	    		return null;
+	    	});
+	        refreshSession(studentId);
 	    } catch (SQLException e) {
 	        e.printStackTrace();
 	    }
@@ -1521,18 +3132,19 @@ public class DatabaseHelper {
 
 
 	
-	// Closes the database connection and statement.
+	// Closes the pooled database connections.
 	public void closeConnection() {
-		try{ 
-			if(statement!=null) statement.close(); 
-		} catch(SQLException se2) { 
-			se2.printStackTrace();
-		} 
-		try { 
-			if(connection!=null) connection.close(); 
-		} catch(SQLException se){ 
-			se.printStackTrace(); 
-		} 
+		if (asyncHelper != null) {
+			asyncHelper.shutdown();
+		}
+		if (connectionPool != null) {
+			System.out.println(connectionPool);
+			System.out.println(userCache);
+			System.out.println(events);
+			connectionPool.close();
+		}
+		userCache.clear(); // The next connection may be to a new database
+		session = null;
 	}
 	
 	// Delete the files associated with the database
@@ -0,0 +1,248 @@
+package database;
+
+/**
+ * The DomainEvent class is the base of the changes DatabaseHelper announces on its
+ * DomainEventBus once they are committed. Each event carries what an open page needs
+ * to patch the few nodes the change touches, so it does not have to read the page again.
+ */
+public abstract class DomainEvent {
+
+	/**
+	 * An answer was posted to a question.
+	 */
+	public static final class AnswerAdded extends DomainEvent {
+		private final int answerId;
+		private final int questionId;
+		private final int userId;
+
+		AnswerAdded(int answerId, int questionId, int userId) {
+			this.answerId = answerId;
+			this.questionId = questionId;
+			this.userId = userId;
+		}
+
+		public int getAnswerId() { return answerId; }
+		public int getQuestionId() { return questionId; }
+		public int getUserId() { return userId; }
+	}
+
+	/**
+	 * An answer was deleted, if it resolved its question the question is no longer resolved.
+	 */
+	public static final class AnswerDeleted extends DomainEvent {
+		private final int answerId;
+		private final int questionId;
+
+		AnswerDeleted(int answerId, int questionId) {
+			this.answerId = answerId;
+			this.questionId = questionId;
+		}
+
+		public int getAnswerId() { return answerId; }
+		public int getQuestionId() { return questionId; }
+	}
+
+	/**
+	 * An answer's content was edited.
+	 */
+	public static final class AnswerEdited extends DomainEvent {
+		private final int answerId;
+		private final int questionId;
+		private final String content;
+
+		AnswerEdited(int answerId, int questionId, String content) {
+			this.answerId = answerId;
+			this.questionId = questionId;
+			this.content = content;
+		}
+
+		public int getAnswerId() { return answerId; }
+		public int getQuestionId() { return questionId; }
+		public String getContent() { return content; }
+	}
+
+	/**
+	 * A user changed their vote on an answer, with the answer's vote totals after the change.
+	 */
+	public static final class VoteChanged extends DomainEvent {
+		private final int answerId;
+		private final int voterId;
+		private final int vote; // 1 = upvote, 0 = no vote, -1 = downvote
+		private final int upvoteCount;
+		private final int downvoteCount;
+
+		VoteChanged(int answerId, int voterId, int vote, int upvoteCount, int downvoteCount) {
+			this.answerId = answerId;
+			this.voterId = voterId;
+			this.vote = vote;
+			this.upvoteCount = upvoteCount;
+			this.downvoteCount = downvoteCount;
+		}
+
+		public int getAnswerId() { return answerId; }
+		public int getVoterId() { return voterId; }
+		public int getVote() { return vote; }
+		public int getUpvoteCount() { return upvoteCount; }
+		public int getDownvoteCount() { return downvoteCount; }
+		public int getScore() { return upvoteCount - downvoteCount; }
+	}
+
+	/**
+	 * A question's resolved answer was set or removed.
+	 */
+	public static final class QuestionResolved extends DomainEvent {
+		private final int questionId;
+		private final int resolvedAnswerId; // -1 if the question is no longer resolved
+
+		QuestionResolved(int questionId, int resolvedAnswerId) {
+			this.questionId = questionId;
+			this.resolvedAnswerId = resolvedAnswerId;
+		}
+
+		public int getQuestionId() { return questionId; }
+		public int getResolvedAnswerId() { return resolvedAnswerId; }
+		public boolean isResolved() { return resolvedAnswerId != -1; }
+	}
+
+	/**
+	 * A question was posted, parentQuestionId is -1 unless it is a follow-up of another question.
+	 */
+	public static final class QuestionAdded extends DomainEvent {
+		private final int questionId;
+		private final int userId;
+		private final int parentQuestionId;
+
+		QuestionAdded(int questionId, int userId, int parentQuestionId) {
+			this.questionId = questionId;
+			this.userId = userId;
+			this.parentQuestionId = parentQuestionId;
+		}
+
+		public int getQuestionId() { return questionId; }
+		public int getUserId() { return userId; }
+		public int getParentQuestionId() { return parentQuestionId; }
+	}
+
+	/**
+	 * A question's title or description was edited, with both as they are after the edit.
+	 */
+	public static final class QuestionEdited extends DomainEvent {
+		private final int questionId;
+		private final String title;
+		private final String description;
+
+		QuestionEdited(int questionId, String title, String description) {
+			this.questionId = questionId;
+			this.title = title;
+			this.description = description;
+		}
+
+		public int getQuestionId() { return questionId; }
+		public String getTitle() { return title; }
+		public String getDescription() { return description; }
+	}
+
+	/**
+	 * A question was deleted along with its answers.
+	 */
+	public static final class QuestionDeleted extends DomainEvent {
+		private final int questionId;
+
+		QuestionDeleted(int questionId) {
+			this.questionId = questionId;
+		}
+
+		public int getQuestionId() { return questionId; }
+	}
+
+	/**
+	 * A review was posted for a question or an answer.
+	 */
+	public static final class ReviewAdded extends DomainEvent {
+		private final int reviewId;
+		private final int reviewerId;
+		private final int qaId; // Question or answer id, depending on forQuestion
+		private final boolean forQuestion;
+		private final String content;
+
+		ReviewAdded(int reviewId, int reviewerId, int qaId, boolean forQuestion, String content) {
+			this.reviewId = reviewId;
+			this.reviewerId = reviewerId;
+			this.qaId = qaId;
+			this.forQuestion = forQuestion;
+			this.content = content;
+		}
+
+		public int getReviewId() { return reviewId; }
+		public int getReviewerId() { return reviewerId; }
+		public int getQaId() { return qaId; }
+		public boolean isForQuestion() { return forQuestion; }
+		public String getContent() { return content; }
+	}
+
+	/**
+	 * A review's content was edited.
+	 */
+	public static final class ReviewEdited extends DomainEvent {
+		private final int reviewId;
+		private final String content;
+
+		ReviewEdited(int reviewId, String content) {
+			this.reviewId = reviewId;
+			this.content = content;
+		}
+
+		public int getReviewId() { return reviewId; }
+		public String getContent() { return content; }
+	}
+
+	/**
+	 * A private message was sent in a conversation.
+	 */
+	public static final class MessageSent extends DomainEvent {
+		private final int messageId;
+		private final int conversationId;
+		private final String parentType;
+		private final int parentId;
+		private final int recipientId;
+		private final boolean read; // Sent already read, so it does not count as unread for the recipient
+
+		MessageSent(int messageId, int conversationId, String parentType, int parentId, int recipientId, boolean read) {
+			this.messageId = messageId;
+			this.conversationId = conversationId;
+			this.parentType = parentType;
+			this.parentId = parentId;
+			this.recipientId = recipientId;
+			this.read = read;
+		}
+
+		public int getMessageId() { return messageId; }
+		public int getConversationId() { return conversationId; }
+		public String getParentType() { return parentType; }
+		public int getParentId() { return parentId; }
+		public int getRecipientId() { return recipientId; }
+		public boolean isRead() { return read; }
+	}
+
+	/**
+	 * A user read the messages they had not read yet in a conversation.
+	 */
+	public static final class MessagesRead extends DomainEvent {
+		private final int userId;
+		private final String parentType;
+		private final int parentId;
+		private final int count; // Messages that were unread
+
+		MessagesRead(int userId, String parentType, int parentId, int count) {
+			this.userId = userId;
+			this.parentType = parentType;
+			this.parentId = parentId;
+			this.count = count;
+		}
+
+		public int getUserId() { return userId; }
+		public String getParentType() { return parentType; }
+		public int getParentId() { return parentId; }
+		public int getCount() { return count; }
+	}
+}
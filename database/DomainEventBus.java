@@ -0,0 +1,98 @@
+package database;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The DomainEventBus class tells open pages what changed in the database. DatabaseHelper
+ * publishes an event once the change is committed, and every listener subscribed to the
+ * event's type gets it on the delivery executor, which the application sets to its UI
+ * thread so listeners can patch their controls directly. Pages subscribe with themselves
+ * as the owner and unsubscribe when they close. Get it from DatabaseHelper.events().
+ */
+public class DomainEventBus {
+
+	private static class Listener {
+		private final Object owner;
+		private final Consumer<DomainEvent> consumer;
+
+		private Listener(Object owner, Consumer<DomainEvent> consumer) {
+			this.owner = owner;
+			this.consumer = consumer;
+		}
+	}
+
+	private volatile Executor deliveryExecutor = Runnable::run; // The committing thread until the application sets its own
+	private final Map<Class<? extends DomainEvent>, List<Listener>> listeners = new ConcurrentHashMap<>();
+
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong delivered = new AtomicLong();
+
+	// Set where listeners are called, the application passes its UI thread before the first page subscribes
+	public void setDeliveryExecutor(Executor deliveryExecutor) {
+		this.deliveryExecutor = deliveryExecutor;
+	}
+
+	// Call the listener with every event of the type published until the owner unsubscribes
+	public <E extends DomainEvent> void subscribe(Object owner, Class<E> type, Consumer<? super E> listener) {
+		listeners.computeIfAbsent(type, t -> new CopyOnWriteArrayList<>())
+				.add(new Listener(owner, event -> listener.accept(type.cast(event))));
+	}
+
+	// Drop every listener the owner subscribed
+	public void unsubscribe(Object owner) {
+		for (List<Listener> typeListeners : listeners.values()) {
+			typeListeners.removeIf(listener -> listener.owner == owner);
+		}
+	}
+
+	// Drop every listener, for when the pages that subscribed them are gone (e.g. on log out)
+	public void clear() {
+		listeners.clear();
+	}
+
+	// Deliver an event to the listeners of its type, called by DatabaseHelper once the change is committed
+	void publish(DomainEvent event) {
+		published.incrementAndGet();
+		List<Listener> typeListeners = listeners.get(event.getClass());
+		if (typeListeners == null || typeListeners.isEmpty()) {
+			return; // Nothing open shows it
+		}
+
+		try {
+			deliveryExecutor.execute(() -> {
+				// A listener unsubscribed before delivery (its page closed) does not get the event
+				for (Listener listener : typeListeners) {
+					try {
+						listener.consumer.accept(event);
+						delivered.incrementAndGet();
+					} catch (RuntimeException e) {
+						e.printStackTrace(); // Keep delivering to the other listeners
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// The change is committed either way, the pages just miss it (e.g. the window is closing)
+			System.out.println("*** Error *** Could not deliver " + event.getClass().getSimpleName() + ": " + e.getMessage());
+		}
+	}
+
+	public int getListenerCount() {
+		int count = 0;
+		for (List<Listener> typeListeners : listeners.values()) {
+			count += typeListeners.size();
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("DomainEventBus[listeners=%d, published=%d, delivered=%d]",
+				getListenerCount(), published.get(), delivered.get());
+	}
+}
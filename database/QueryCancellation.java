@@ -0,0 +1,45 @@
+package database;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The QueryCancellation class lets a page give up on a query it no longer needs,
+ * such as a search the user has already typed past. DatabaseHelper registers the
+ * statement it is running with the cancellation, and cancel() stops that statement
+ * with Statement.cancel so the connection is freed for the next query right away.
+ */
+public class QueryCancellation {
+
+	private boolean cancelled = false;
+	private Statement running;
+
+	// Stop the running query, queries started after this are stopped as soon as they are registered
+	public synchronized void cancel() {
+		cancelled = true;
+		if (running != null) {
+			try {
+				running.cancel();
+			} catch (SQLException e) {
+				// The statement finished or was closed in the meantime, nothing left to stop
+			}
+		}
+	}
+
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+
+	// Called by DatabaseHelper before executing a statement
+	synchronized void register(Statement statement) throws SQLException {
+		if (cancelled) {
+			throw new SQLException("Query was cancelled.");
+		}
+		running = statement;
+	}
+
+	// Called by DatabaseHelper once the statement is done, before it is closed
+	synchronized void unregister() {
+		running = null;
+	}
+}
@@ -0,0 +1,36 @@
+package database;
+
+/**
+ * The QuestionOrder enum lists the orders a question list can be paged in. Each
+ * order also knows the condition that picks up where a page ended, so the next page
+ * is found through an index instead of skipping over every row before it. Ties on
+ * the title are broken by id so every question has exactly one place in the order.
+ */
+public enum QuestionOrder {
+	NEWEST("ORDER BY id DESC", "id < ?"),
+	OLDEST("ORDER BY id ASC", "id > ?"),
+	TITLE_ASCENDING("ORDER BY title ASC, id ASC", "title >= ? AND (title > ? OR id > ?)"),
+	TITLE_DESCENDING("ORDER BY title DESC, id DESC", "title <= ? AND (title < ? OR id < ?)");
+
+	private final String orderBy;
+	private final String after;
+
+	QuestionOrder(String orderBy, String after) {
+		this.orderBy = orderBy;
+		this.after = after;
+	}
+
+	// The ORDER BY clause
+	public String getOrderBy() {
+		return orderBy;
+	}
+
+	// Condition for the rows after a question, title orders take its title twice then its id, the others only its id
+	String getAfter() {
+		return after;
+	}
+
+	boolean isTitleOrder() {
+		return this == TITLE_ASCENDING || this == TITLE_DESCENDING;
+	}
+}
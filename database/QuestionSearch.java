@@ -0,0 +1,37 @@
+package database;
+
+import java.util.List;
+
+import application.QuestionLightweightDTO;
+
+/**
+ * The QuestionSearch class is one keyword search of the questions, read a page at a time.
+ * The search index ranks the matching questions when the first page is read, and the ranked
+ * ids are kept for the pages after it, so scrolling further only reads the rows it shows.
+ * The ranking is not updated as questions are added or edited, search again for that.
+ */
+public class QuestionSearch {
+
+	private final String query;
+	private volatile int[] rankedIds; // null until the first page is read
+
+	public QuestionSearch(String query) {
+		this.query = query;
+	}
+
+	public String getQuery() {
+		return query;
+	}
+
+	/*
+	 * Retrieves one page of the matching questions, read in the background. Pass null for the first
+	 * page, then the last question of a page to get the page after it. The filter is as for
+	 * DatabaseHelper.getQuestions, and a null order keeps the best matches first.
+	 */
+	public List<QuestionLightweightDTO> getPage(String filter, QuestionOrder order, QuestionLightweightDTO after, int pageSize, QueryCancellation cancellation) {
+		if (rankedIds == null) {
+			rankedIds = DatabaseHelper.rankQuestions(query);
+		}
+		return DatabaseHelper.searchQuestions(rankedIds, filter, order, after, pageSize, cancellation);
+	}
+}
@@ -0,0 +1,390 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The QuestionSearchIndex class is an in-memory inverted index over question titles
+ * and descriptions. Each term maps to the ids of the questions that contain it, and
+ * searches rank the matching questions with BM25 so a keyword search no longer has
+ * to scan the questions table. DatabaseHelper builds it at startup and keeps it up
+ * to date whenever a question is added, edited or deleted.
+ *
+ * Only the postings are kept, not the text, so taking a question out of the index
+ * needs the title and description it was added with.
+ */
+class QuestionSearchIndex {
+
+	// BM25 tuning, the usual defaults
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	private static final int TITLE_WEIGHT = 2; // A title term counts as much as this many description terms
+	private static final int MIN_PREFIX_LENGTH = 3; // Shorter last keywords only match whole terms
+	private static final int MAX_PREFIX_TERMS = 64; // Most terms a partly typed last keyword expands to
+
+	private final List<String> stopWords;
+
+	private final Map<String, Postings> terms = new HashMap<>();
+	private final TreeSet<String> sortedTerms = new TreeSet<>(); // So a partly typed keyword can be looked up as a prefix
+
+	// Question lengths in terms by question id, 0 if the question is not indexed. Question ids are
+	// assigned in order so this stays about as long as the questions table
+	private int[] lengths = new int[1024];
+	private int documentCount = 0;
+	private long totalLength = 0;
+
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	QuestionSearchIndex(List<String> stopWords) {
+		this.stopWords = stopWords;
+	}
+
+	// Split text into lower case terms made of letters and digits, leaving out stop words
+	List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<>();
+		if (text == null) {
+			return tokens;
+		}
+
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			} else if (!inWord && start >= 0) {
+				String token = text.substring(start, i).toLowerCase();
+				if (!stopWords.contains(token)) {
+					tokens.add(token);
+				}
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	// Tokenize a question ahead of adding it, safe to call from many threads at once
+	Document analyze(int questionId, String title, String description) {
+		List<String> tokens = tokenize(description);
+		for (String token : tokenize(title)) {
+			for (int i = 0; i < TITLE_WEIGHT; i++) {
+				tokens.add(token);
+			}
+		}
+
+		// Sorting puts repeats of a term next to each other so they can be counted in one pass
+		String[] sorted = tokens.toArray(new String[0]);
+		Arrays.sort(sorted);
+
+		String[] terms = new String[sorted.length];
+		int[] frequencies = new int[sorted.length];
+		int count = 0;
+		for (String token : sorted) {
+			if (count == 0 || !token.equals(terms[count - 1])) {
+				terms[count++] = token;
+			}
+			frequencies[count - 1]++;
+		}
+
+		return new Document(questionId, Arrays.copyOf(terms, count), Arrays.copyOf(frequencies, count), sorted.length);
+	}
+
+	// Add a new question
+	void add(int questionId, String title, String description) {
+		add(analyze(questionId, title, description));
+	}
+
+	// Add an analyzed question
+	void add(Document document) {
+		if (document.length == 0) {
+			return; // Nothing to find it by
+		}
+
+		lock.writeLock().lock();
+		try {
+			int questionId = document.questionId;
+			if (questionId < lengths.length && lengths[questionId] != 0) {
+				return; // Already indexed, remove it first to replace it
+			}
+
+			for (int i = 0; i < document.terms.length; i++) {
+				Postings postings = terms.get(document.terms[i]);
+				if (postings == null) {
+					postings = new Postings();
+					terms.put(document.terms[i], postings);
+					sortedTerms.add(document.terms[i]);
+				}
+				postings.put(questionId, document.frequencies[i]);
+			}
+
+			if (questionId >= lengths.length) {
+				lengths = Arrays.copyOf(lengths, Math.max(questionId + 1, lengths.length * 3 / 2));
+			}
+			lengths[questionId] = document.length;
+			documentCount++;
+			totalLength += document.length;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Replace a question's old title and description with new ones
+	void update(int questionId, String oldTitle, String oldDescription, String title, String description) {
+		Document oldDocument = analyze(questionId, oldTitle, oldDescription);
+		Document document = analyze(questionId, title, description);
+
+		lock.writeLock().lock(); // Reentrant, so searches never see the question missing
+		try {
+			remove(oldDocument);
+			add(document);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	// Remove a question given the title and description it was added with
+	void remove(int questionId, String title, String description) {
+		remove(analyze(questionId, title, description));
+	}
+
+	private void remove(Document document) {
+		lock.writeLock().lock();
+		try {
+			int questionId = document.questionId;
+			if (questionId >= lengths.length || lengths[questionId] == 0) {
+				return; // Not indexed
+			}
+
+			for (String term : document.terms) {
+				Postings postings = terms.get(term);
+				if (postings != null && postings.remove(questionId) && postings.size == 0) {
+					terms.remove(term);
+					sortedTerms.remove(term);
+				}
+			}
+
+			totalLength -= lengths[questionId];
+			lengths[questionId] = 0;
+			documentCount--;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	int size() {
+		lock.readLock().lock();
+		try {
+			return documentCount;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Get the ids of the questions matching any keyword in the query, best match first.
+	 * The last keyword also matches terms it is the start of, so results keep up while
+	 * the user is still typing it. Returns an empty array if only stop words were entered.
+	 */
+	int[] search(String query) {
+		List<String> keywords = tokenize(query);
+		if (keywords.isEmpty()) {
+			return new int[0];
+		}
+
+		lock.readLock().lock();
+		try {
+			// Find the postings of every keyword first so the score table can be sized once
+			List<Postings> matches = new ArrayList<>();
+			for (int k = 0; k < keywords.size(); k++) {
+				String keyword = keywords.get(k);
+
+				if (k == keywords.size() - 1 && keyword.length() >= MIN_PREFIX_LENGTH) {
+					// Exact term plus the terms it is the start of
+					int expanded = 0;
+					for (String term : sortedTerms.subSet(keyword, keyword + Character.MAX_VALUE)) {
+						if (expanded++ == MAX_PREFIX_TERMS) {
+							break;
+						}
+						matches.add(terms.get(term));
+					}
+				} else if (terms.containsKey(keyword)) {
+					matches.add(terms.get(keyword));
+				}
+			}
+
+			int matchCount = 0;
+			for (Postings postings : matches) {
+				matchCount += postings.size;
+			}
+
+			ScoreTable scores = new ScoreTable(matchCount);
+			double averageLength = documentCount == 0 ? 1 : (double) totalLength / documentCount;
+			for (Postings postings : matches) {
+				score(postings, averageLength, scores);
+			}
+			return scores.rank();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/*
+	 * Whether every question matching query also matches previousQuery, so a search for query
+	 * can be answered by filtering the results of previousQuery. That is the case when query only
+	 * finishes typing the last keyword of previousQuery and that keyword was already long enough
+	 * to be matched as a prefix.
+	 */
+	boolean narrows(String previousQuery, String query) {
+		List<String> previousKeywords = tokenize(previousQuery);
+		List<String> keywords = tokenize(query);
+		if (keywords.isEmpty() || keywords.size() != previousKeywords.size()) {
+			return false;
+		}
+
+		int last = keywords.size() - 1;
+		if (!keywords.subList(0, last).equals(previousKeywords.subList(0, last))) {
+			return false;
+		}
+
+		String previousKeyword = previousKeywords.get(last);
+		String keyword = keywords.get(last);
+		if (keyword.equals(previousKeyword)) {
+			return true;
+		}
+		if (!keyword.startsWith(previousKeyword) || previousKeyword.length() < MIN_PREFIX_LENGTH) {
+			return false;
+		}
+
+		lock.readLock().lock();
+		try {
+			// A prefix cut off at MAX_PREFIX_TERMS may have left out terms the longer keyword matches
+			return sortedTerms.subSet(previousKeyword, previousKeyword + Character.MAX_VALUE).size() <= MAX_PREFIX_TERMS;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// Add one term's BM25 contribution to every question containing it
+	private void score(Postings postings, double averageLength, ScoreTable scores) {
+		double idf = Math.log(1 + (documentCount - postings.size + 0.5) / (postings.size + 0.5));
+
+		for (int i = 0; i < postings.size; i++) {
+			int questionId = postings.questionIds[i];
+			int frequency = postings.frequencies[i];
+			double length = lengths[questionId];
+
+			double termScore = idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+			scores.add(questionId, termScore);
+		}
+	}
+
+	/**
+	 * A tokenized question, its distinct terms with their frequencies and its length.
+	 */
+	static class Document {
+		private final int questionId;
+		private final String[] terms;
+		private final int[] frequencies;
+		private final int length;
+
+		private Document(int questionId, String[] terms, int[] frequencies, int length) {
+			this.questionId = questionId;
+			this.terms = terms;
+			this.frequencies = frequencies;
+			this.length = length;
+		}
+	}
+
+	// Question scores for one search, an open addressing table of ints so large searches do not box every id
+	private static class ScoreTable {
+		private final int[] questionIds;
+		private final double[] scores;
+		private final int mask;
+		private int size = 0;
+
+		private ScoreTable(int expectedSize) {
+			int capacity = Integer.highestOneBit(Math.max(expectedSize, 8) * 2 - 1) << 1;
+			questionIds = new int[capacity];
+			scores = new double[capacity];
+			mask = capacity - 1;
+		}
+
+		// Scores are always above 0, so a 0 score marks an empty slot
+		private void add(int questionId, double score) {
+			int hash = questionId * 0x9E3779B9;
+			int slot = (hash ^ (hash >>> 16)) & mask;
+			while (scores[slot] != 0 && questionIds[slot] != questionId) {
+				slot = (slot + 1) & mask;
+			}
+			if (scores[slot] == 0) {
+				questionIds[slot] = questionId;
+				size++;
+			}
+			scores[slot] += score;
+		}
+
+		// Order question ids by score, newer questions first on a tie. Each question is packed into a
+		// long with the score's bits on top so a plain sort does the ordering
+		private int[] rank() {
+			long[] packed = new long[size];
+			int n = 0;
+			for (int slot = 0; slot < scores.length; slot++) {
+				if (scores[slot] != 0) {
+					packed[n++] = ((long) Float.floatToIntBits((float) scores[slot]) << 32) | questionIds[slot];
+				}
+			}
+			Arrays.sort(packed);
+
+			int[] ranked = new int[n];
+			for (int i = 0; i < n; i++) {
+				ranked[i] = (int) packed[n - 1 - i];
+			}
+			return ranked;
+		}
+	}
+
+	// The questions containing one term, kept sorted by question id
+	private static class Postings {
+		private int[] questionIds = new int[2];
+		private int[] frequencies = new int[2];
+		private int size = 0;
+
+		private void put(int questionId, int frequency) {
+			// New questions have the highest id so they almost always go on the end
+			int index = size == 0 || questionIds[size - 1] < questionId ? -size - 1 : Arrays.binarySearch(questionIds, 0, size, questionId);
+			if (index >= 0) {
+				frequencies[index] = frequency;
+				return;
+			}
+
+			index = -index - 1;
+			if (size == questionIds.length) {
+				int capacity = size + (size >> 1) + 1;
+				questionIds = Arrays.copyOf(questionIds, capacity);
+				frequencies = Arrays.copyOf(frequencies, capacity);
+			}
+			System.arraycopy(questionIds, index, questionIds, index + 1, size - index);
+			System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+			questionIds[index] = questionId;
+			frequencies[index] = frequency;
+			size++;
+		}
+
+		private boolean remove(int questionId) {
+			int index = Arrays.binarySearch(questionIds, 0, size, questionId);
+			if (index < 0) {
+				return false;
+			}
+
+			System.arraycopy(questionIds, index + 1, questionIds, index, size - index - 1);
+			System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+			size--;
+			return true;
+		}
+	}
+}
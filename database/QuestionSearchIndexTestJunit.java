@@ -0,0 +1,63 @@
+package database;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+class QuestionSearchIndexTestJunit {
+
+	private QuestionSearchIndex createIndex() {
+		QuestionSearchIndex index = new QuestionSearchIndex(Arrays.asList("the", "and", "is", "of", "to", "in", "that", "it", "for"));
+		index.add(1, "How do java generics work", "Explain type erasure");
+		index.add(2, "Python lists", "What is a list comprehension in python");
+		index.add(3, "Java streams", "Is a parallel stream faster than a java loop");
+		return index;
+	}
+
+	@Test
+	public void titleAndDescriptionTest() {
+		QuestionSearchIndex index = createIndex();
+		assertArrayEquals(new int[] { 1 }, index.search("erasure"));
+		assertArrayEquals(new int[] { 2 }, index.search("Comprehension"));
+	}
+
+	@Test
+	public void rankingTest() {
+		// Question 3 mentions java in its title and twice in its description
+		assertArrayEquals(new int[] { 3, 1 }, createIndex().search("java"));
+	}
+
+	@Test
+	public void prefixTest() {
+		assertArrayEquals(new int[] { 1 }, createIndex().search("gener"));
+	}
+
+	@Test
+	public void narrowsTest() {
+		QuestionSearchIndex index = createIndex();
+		assertTrue(index.narrows("java gen", "java generics"));
+		assertTrue(index.narrows("java", "the java"));
+		assertFalse(index.narrows("ja", "jav")); // "ja" only matched the whole term
+		assertFalse(index.narrows("java", "java streams")); // Another keyword finds more questions
+		assertFalse(index.narrows("python", "java"));
+	}
+
+	@Test
+	public void stopWordsOnlyTest() {
+		assertEquals(0, createIndex().search("the and of").length);
+	}
+
+	@Test
+	public void updateAndRemoveTest() {
+		QuestionSearchIndex index = createIndex();
+		index.update(2, "Python lists", "What is a list comprehension in python", "Python dictionaries", "How are dictionaries hashed");
+		assertEquals(0, index.search("comprehension").length);
+		assertArrayEquals(new int[] { 2 }, index.search("dictionaries"));
+
+		index.remove(1, "How do java generics work", "Explain type erasure");
+		assertArrayEquals(new int[] { 3 }, index.search("java"));
+		assertEquals(2, index.size());
+	}
+}
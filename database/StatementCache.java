@@ -0,0 +1,214 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The StatementCache class keeps the prepared statements of one pooled connection
+ * so that a query is parsed and planned once per SQL text instead of once per call.
+ * Callers still close their statements with try-with-resources, closing a cached
+ * statement only clears its parameters and result set so it can be handed out again.
+ * The least recently used statement is closed once the cache is full.
+ */
+class StatementCache {
+
+	/**
+	 * Hit, miss and eviction counts shared by every cache in a pool.
+	 */
+	static class Counters {
+		final AtomicLong hits = new AtomicLong();
+		final AtomicLong misses = new AtomicLong();
+		final AtomicLong evictions = new AtomicLong();
+
+		long getHits() { return hits.get(); }
+		long getMisses() { return misses.get(); }
+		long getEvictions() { return evictions.get(); }
+
+		double getHitRate() {
+			long total = hits.get() + misses.get();
+			return total == 0 ? 0 : (double) hits.get() / total;
+		}
+	}
+
+	private final Connection physical;
+	private final Counters counters;
+	private final Map<String, CachedStatement> statements;
+
+	StatementCache(Connection physical, int capacity, Counters counters) {
+		this.physical = physical;
+		this.counters = counters;
+
+		// Access ordered so the eldest entry is the least recently used statement
+		this.statements = new LinkedHashMap<String, CachedStatement>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				counters.evictions.incrementAndGet();
+				eldest.getValue().evict();
+				return true;
+			}
+		};
+	}
+
+	// Return the cached statement for this SQL, preparing it if it is not cached yet
+	PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+		String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "K:" + sql : sql;
+		CachedStatement cached = statements.get(key);
+
+		if (cached != null && cached.cancelled && !cached.inUse) {
+			cached.closePhysical(); // Not reused after it was cancelled, prepare a new one
+			statements.remove(key);
+			cached = null;
+		}
+
+		if (cached != null && !cached.inUse) {
+			counters.hits.incrementAndGet();
+			cached.inUse = true;
+			return cached.proxy;
+		}
+
+		counters.misses.incrementAndGet();
+		PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+
+		if (cached != null) {
+			// Same query nested inside itself, give the caller a statement of its own that is closed with it
+			CachedStatement nested = new CachedStatement(this, statement);
+			nested.inUse = true;
+			nested.evicted = true;
+			return nested.proxy;
+		}
+
+		cached = new CachedStatement(this, statement);
+		cached.inUse = true;
+		statements.put(key, cached);
+		return cached.proxy;
+	}
+
+	// Mark every statement free again when the connection goes back to the pool
+	void releaseAll() {
+		for (CachedStatement cached : new ArrayList<>(statements.values())) {
+			if (cached.inUse) {
+				cached.reset();
+			}
+		}
+	}
+
+	// Close every cached statement before the connection itself is closed
+	void closeAll() {
+		List<CachedStatement> toClose = new ArrayList<>(statements.values());
+		statements.clear();
+		for (CachedStatement cached : toClose) {
+			cached.closePhysical();
+		}
+	}
+
+	int size() {
+		return statements.size();
+	}
+
+	// A prepared statement owned by the cache
+	private static class CachedStatement implements InvocationHandler {
+		private final StatementCache cache;
+		private final PreparedStatement physical;
+		private final PreparedStatement proxy;
+		private boolean inUse = false;
+		private boolean evicted = false;
+		private volatile boolean cancelled = false; // Set from the thread cancelling the query
+
+		private CachedStatement(StatementCache cache, PreparedStatement physical) {
+			this.cache = cache;
+			this.physical = physical;
+			this.proxy = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				if (inUse) {
+					reset();
+				}
+				return null;
+			case "isClosed":
+				return !inUse || physical.isClosed();
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "Cached" + physical;
+			case "cancel":
+				cancelled = true;
+				break;
+			default:
+				break;
+			}
+
+			if (!inUse) {
+				throw new SQLException("Statement has already been closed.");
+			}
+
+			try {
+				return method.invoke(physical, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		// Clear what the last caller left so the next caller starts clean
+		private void reset() {
+			inUse = false;
+			if (evicted || cancelled) {
+				// H2 can keep the cancel pending on the statement if it came in as the query finished,
+				// so a cancelled statement is never handed out again
+				closePhysical();
+				return;
+			}
+
+			try {
+				ResultSet resultSet = physical.getResultSet();
+				if (resultSet != null) {
+					resultSet.close();
+				}
+				physical.clearParameters();
+				physical.clearBatch();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Called when pushed out of the cache, a statement still in use is closed once the caller is done
+		private void evict() {
+			evicted = true;
+			if (!inUse) {
+				closePhysical();
+			}
+		}
+
+		private void closePhysical() {
+			inUse = false;
+			try {
+				physical.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
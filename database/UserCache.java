@@ -0,0 +1,86 @@
+package database;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import application.UserLightweightDTO;
+
+/**
+ * The UserCache class keeps recently looked up users in memory, so pages that ask for
+ * the same user's name or roles once per list cell or per button do not query the
+ * database each time. It holds a fixed number of users and drops the least recently
+ * used one once full. DatabaseHelper invalidates a user whenever it writes the user's row.
+ */
+class UserCache {
+
+	private final int capacity;
+	private final Map<Integer, UserLightweightDTO> users;
+
+	private long invalidations = 0; // Lets a user read before an invalidation be left out of the cache
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	UserCache(int capacity) {
+		this.capacity = capacity;
+
+		// Access ordered so the eldest entry is the least recently used user
+		this.users = new LinkedHashMap<Integer, UserLightweightDTO>(capacity, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, UserLightweightDTO> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	// Return the cached user, null if it has to be read from the database
+	synchronized UserLightweightDTO get(int id) {
+		UserLightweightDTO user = users.get(id);
+		if (user != null) {
+			hits++;
+		} else {
+			misses++;
+		}
+		return user;
+	}
+
+	// Call before reading a user from the database, then pass the result to put
+	synchronized long stamp() {
+		return invalidations;
+	}
+
+	// Cache a user read from the database, unless a user was invalidated since it was read
+	synchronized void put(int id, UserLightweightDTO user, long stamp) {
+		if (stamp == invalidations) {
+			users.put(id, user);
+		}
+	}
+
+	// Forget a user whose row changed
+	synchronized void invalidate(int id) {
+		invalidations++;
+		users.remove(id);
+	}
+
+	synchronized void clear() {
+		invalidations++;
+		users.clear();
+	}
+
+	synchronized double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("UserCache[size=%d, max=%d, hits=%d, misses=%d, evictions=%d, hitRate=%.1f%%]",
+				users.size(), capacity, hits, misses, evictions, getHitRate() * 100);
+	}
+}